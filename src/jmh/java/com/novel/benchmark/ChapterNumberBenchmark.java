@@ -0,0 +1,118 @@
+package com.novel.benchmark;
+
+import com.novel.util.ChapterNumberDecoder;
+import com.novel.util.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 逐行识别章节标题并解码章节号：ChapterNumberDecoder与正则匹配加substring、Integer.parseInt的做法对比。
+ * 输入是约1MB合成小说的全部行，标题行约占1%
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChapterNumberBenchmark {
+    @Param({"arabic", "chinese"})
+    public String numerals;
+
+    private Path workDir;
+    private String[] lines;
+    private ByteBuffer bytes;
+    private int[] lineStarts;
+    private Pattern titlePattern;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = SyntheticNovel.useTempWorkingDirectory();
+        Path novel = SyntheticNovel.write(workDir, 1024 * 1024, 200, SyntheticNovel.titles(numerals));
+        byte[] content = Files.readAllBytes(novel);
+        lines = new String(content, StandardCharsets.UTF_8).split("\n", -1);
+        bytes = ByteBuffer.wrap(content);
+
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == '\n') {
+                starts.add(i + 1);
+            }
+        }
+        lineStarts = starts.stream().mapToInt(Integer::intValue).toArray();
+        titlePattern = Pattern.compile(Constants.CHAPTER_PATTERN);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticNovel.deleteRecursively(workDir);
+    }
+
+    /**
+     * 当前做法：在字符串上单遍匹配并解码
+     */
+    @Benchmark
+    public long decoderOnStrings() {
+        long sum = 0;
+        for (String line : lines) {
+            sum += ChapterNumberDecoder.parseTitle(line);
+        }
+        return sum;
+    }
+
+    /**
+     * ChapterScanner的路径：直接在UTF-8字节上匹配，不构造行字符串
+     */
+    @Benchmark
+    public long decoderOnBytes() {
+        long sum = 0;
+        for (int i = 0; i + 1 < lineStarts.length; i++) {
+            sum += ChapterNumberDecoder.parseTitle(bytes, lineStarts[i], lineStarts[i + 1] - 1);
+        }
+        return sum;
+    }
+
+    /**
+     * 对照：每行用正则匹配，命中后截取“第”和“章”之间的部分用Integer.parseInt解析，
+     * 中文数字抛出NumberFormatException后返回-1
+     */
+    @Benchmark
+    public long regexPerLine() {
+        long sum = 0;
+        for (String line : lines) {
+            if (!titlePattern.matcher(line).matches()) {
+                sum += ChapterNumberDecoder.NOT_FOUND;
+                continue;
+            }
+            String numeral = line.substring(line.indexOf('第') + 1, line.indexOf('章'));
+            try {
+                sum += Integer.parseInt(numeral);
+            } catch (NumberFormatException e) {
+                sum += ChapterNumberDecoder.NOT_FOUND;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,110 @@
+package com.novel.benchmark;
+
+import com.novel.model.Chapter;
+import com.novel.processor.ChapterIndex;
+import com.novel.processor.ChapterProcessor;
+import com.novel.processor.ChapterScanner;
+import com.novel.processor.ParallelChapterScanner;
+import com.novel.util.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 章节扫描、验证和分割的基准测试，合成小说大小从1MB到100MB，章节号分别用阿拉伯数字和中文数字书写。
+ * 运行：java -cp target/novel-reader-1.0-SNAPSHOT-jar-with-dependencies.jar org.openjdk.jmh.Main ChapterProcessingBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChapterProcessingBenchmark {
+    @Param({"1", "10", "100"})
+    public int sizeMb;
+
+    // 章节标题中的章节号写法
+    @Param({"arabic", "chinese"})
+    public String numerals;
+
+    private Path workDir;
+    private File novel;
+    private Path indexFile;
+
+    @Setup(Level.Trial)
+    public void createNovel() throws IOException {
+        workDir = SyntheticNovel.useTempWorkingDirectory();
+        SyntheticNovel.quietLogging();
+        novel = SyntheticNovel.write(workDir, sizeMb * 1024L * 1024L, Constants.MAX_CHAPTER_NUMBER,
+                SyntheticNovel.titles(numerals)).toFile();
+        indexFile = novel.toPath().resolveSibling(novel.getName() + Constants.CHAPTER_INDEX_SUFFIX);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteNovel() throws IOException {
+        SyntheticNovel.deleteRecursively(workDir);
+    }
+
+    /**
+     * 需要测量完整扫描的基准在每次调用前删除章节索引
+     */
+    @State(Scope.Thread)
+    public static class ColdIndex {
+        @Setup(Level.Invocation)
+        public void deleteIndex(ChapterProcessingBenchmark benchmark) throws IOException {
+            Files.deleteIfExists(benchmark.indexFile);
+        }
+    }
+
+    @Benchmark
+    public List<Chapter> scanSequential() throws IOException {
+        return new ChapterScanner().scan(novel);
+    }
+
+    @Benchmark
+    public List<Chapter> scanParallel() throws IOException {
+        return new ParallelChapterScanner().scan(novel);
+    }
+
+    /**
+     * ChapterNameExtractor的路径：索引有效时只读取索引文件
+     */
+    @Benchmark
+    public void extractChapterNamesFromIndex(Blackhole blackhole) throws IOException {
+        for (Chapter chapter : ChapterIndex.loadOrBuild(novel).getChapters()) {
+            blackhole.consume(chapter.getTitle());
+        }
+    }
+
+    @Benchmark
+    public boolean validateChapters(ColdIndex coldIndex) {
+        return new ChapterProcessor().validateChapters(novel);
+    }
+
+    /**
+     * 验证并按token预算分割，分割文件写入临时工作目录下的output/split_chapters
+     */
+    @Benchmark
+    public boolean validateAndSplitChapters(ColdIndex coldIndex) {
+        return new ChapterProcessor().validateAndSplitChapters(novel);
+    }
+}
@@ -0,0 +1,146 @@
+package com.novel.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.novel.model.ApiResponse;
+import com.novel.service.impl.GenerateContentParser;
+import com.novel.util.RequestBodyBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求体序列化和响应解析的基准测试，分别与通过Gson对象树的做法对比。
+ * 章节文本约为一个批次的大小（6万token预算，约180KB）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+    private final Gson gson = new Gson();
+    private Path workDir;
+    private Path chapterFile;
+    private String prompt;
+    private String chapterText;
+    private String responseBody;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = SyntheticNovel.useTempWorkingDirectory();
+        chapterFile = SyntheticNovel.write(workDir, 180 * 1024, 20, n -> "第" + n + "章 合成章节" + n);
+        chapterText = Files.readString(chapterFile, StandardCharsets.UTF_8);
+        prompt = "请你阅读并逐步分析《牧神记》的每一章节。\n\n以下是《牧神记》第1章到第20章的内容：\n\n";
+
+        // 约8000 token的分析结果，附带安全评级和usageMetadata
+        JsonObject part = new JsonObject();
+        part.addProperty("text", chapterText.substring(0, Math.min(chapterText.length(), 12000)));
+        JsonArray parts = new JsonArray();
+        parts.add(part);
+        JsonObject content = new JsonObject();
+        content.add("parts", parts);
+        content.addProperty("role", "model");
+        JsonObject candidate = new JsonObject();
+        candidate.add("content", content);
+        candidate.addProperty("finishReason", "STOP");
+        JsonArray ratings = new JsonArray();
+        for (String category : new String[]{"HARASSMENT", "HATE_SPEECH", "SEXUALLY_EXPLICIT", "DANGEROUS_CONTENT"}) {
+            JsonObject rating = new JsonObject();
+            rating.addProperty("category", "HARM_CATEGORY_" + category);
+            rating.addProperty("probability", "NEGLIGIBLE");
+            ratings.add(rating);
+        }
+        candidate.add("safetyRatings", ratings);
+        JsonArray candidates = new JsonArray();
+        candidates.add(candidate);
+        JsonObject usage = new JsonObject();
+        usage.addProperty("promptTokenCount", 60000);
+        usage.addProperty("candidatesTokenCount", 8000);
+        usage.addProperty("totalTokenCount", 68000);
+        JsonObject response = new JsonObject();
+        response.add("candidates", candidates);
+        response.add("usageMetadata", usage);
+        response.addProperty("modelVersion", "gemini-2.0-flash");
+        responseBody = gson.toJson(response);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticNovel.deleteRecursively(workDir);
+    }
+
+    /**
+     * 当前做法：章节文件的字节边读边转义写入请求体
+     */
+    @Benchmark
+    public byte[] requestBodyFromFile() throws IOException {
+        return new RequestBodyBuilder((int) Files.size(chapterFile) + prompt.length() * 3)
+                .appendText(prompt)
+                .appendFile(chapterFile)
+                .build();
+    }
+
+    @Benchmark
+    public byte[] requestBodyFromString() {
+        return RequestBodyBuilder.of(prompt + chapterText);
+    }
+
+    /**
+     * 对照：拼接字符串，构建Gson对象树后序列化并编码
+     */
+    @Benchmark
+    public byte[] requestBodyWithGsonTree() {
+        JsonObject part = new JsonObject();
+        part.addProperty("text", prompt + chapterText);
+        JsonArray parts = new JsonArray();
+        parts.add(part);
+        JsonObject content = new JsonObject();
+        content.add("parts", parts);
+        JsonArray contents = new JsonArray();
+        contents.add(content);
+        JsonObject body = new JsonObject();
+        body.add("contents", contents);
+        return gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public ApiResponse parseResponseStreaming() throws IOException {
+        GenerateContentParser parser = new GenerateContentParser();
+        parser.parse(new StringReader(responseBody));
+        return parser.toResponse(200);
+    }
+
+    /**
+     * 对照：解析为完整的JsonObject树再取字段
+     */
+    @Benchmark
+    public String parseResponseWithGsonTree() {
+        JsonObject response = gson.fromJson(responseBody, JsonObject.class);
+        StringBuilder text = new StringBuilder();
+        JsonObject candidate = response.getAsJsonArray("candidates").get(0).getAsJsonObject();
+        for (JsonElement part : candidate.getAsJsonObject("content").getAsJsonArray("parts")) {
+            text.append(part.getAsJsonObject().get("text").getAsString());
+        }
+        return text.toString();
+    }
+}
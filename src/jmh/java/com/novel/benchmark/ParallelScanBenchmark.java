@@ -0,0 +1,69 @@
+package com.novel.benchmark;
+
+import com.novel.model.Chapter;
+import com.novel.processor.ParallelChapterScanner;
+import com.novel.util.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 并行章节扫描的扩展性：在约64MB的合成小说上比较不同并行度的扫描耗时，并行度超过核心数的结果没有意义。
+ * 运行：java -cp target/novel-reader-1.0-SNAPSHOT-jar-with-dependencies.jar org.openjdk.jmh.Main ParallelScanBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelScanBenchmark {
+    @Param({"64"})
+    public int sizeMb;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private Path workDir;
+    private File novel;
+    private ForkJoinPool pool;
+    private ParallelChapterScanner scanner;
+
+    @Setup(Level.Trial)
+    public void createNovel() throws IOException {
+        workDir = SyntheticNovel.useTempWorkingDirectory();
+        SyntheticNovel.quietLogging();
+        novel = SyntheticNovel.write(workDir, sizeMb * 1024L * 1024L, Constants.MAX_CHAPTER_NUMBER,
+                SyntheticNovel.titles("arabic")).toFile();
+        pool = new ForkJoinPool(parallelism);
+        scanner = new ParallelChapterScanner(pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteNovel() throws IOException {
+        pool.shutdown();
+        SyntheticNovel.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public List<Chapter> scan() throws IOException {
+        return scanner.scan(novel);
+    }
+}
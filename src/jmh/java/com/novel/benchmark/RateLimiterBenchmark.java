@@ -0,0 +1,50 @@
+package com.novel.benchmark;
+
+import com.novel.metrics.PipelineMetrics;
+import com.novel.service.impl.RateLimiterServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 限流器acquire的开销和多线程争用下的吞吐量。
+ * 限流器使用比真实时间快1024倍的时钟，预约时间总是已经到达，测量的是预约本身（加锁、计算、记录指标）而不是等待
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RateLimiterBenchmark {
+    private RateLimiterServiceImpl limiter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        limiter = new RateLimiterServiceImpl(Integer.MAX_VALUE, Long.MAX_VALUE / 2, null,
+                () -> System.nanoTime() << 10, "benchmark", new PipelineMetrics(System::nanoTime));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void acquireUncontended() throws InterruptedException {
+        limiter.acquire(1000);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void acquireContended() throws InterruptedException {
+        limiter.acquire(1000);
+    }
+}
@@ -0,0 +1,127 @@
+package com.novel.benchmark;
+
+import ch.qos.logback.classic.Level;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * 基准测试共用的工具：生成指定大小的合成小说，并把工作目录切换到临时目录
+ */
+final class SyntheticNovel {
+    private static final String SENTENCES = "秦牧在残老村长大，村里的老人们各有绝技。" +
+            "大墟之中黑暗降临，没有人敢在夜里走出村子。" +
+            "司婆婆笑道：“牧儿，今天学会了几种刀法？”" +
+            "延康国师推行变法，天下格局正在悄然改变。" +
+            "他抬头望向天空，只见星辰运转，隐约有神通的痕迹。";
+
+    private SyntheticNovel() {
+    }
+
+    /**
+     * 生成约totalBytes字节的小说，章节数为章节号上限，每章由若干段随机拼接的句子组成
+     *
+     * @param chapterTitle 章节号对应的标题行，如 n -> "第" + n + "章 标题"
+     */
+    static Path write(Path dir, long totalBytes, int chapterCount, IntFunction<String> chapterTitle)
+            throws IOException {
+        Path file = dir.resolve("novel-" + totalBytes + ".txt");
+        long bytesPerChapter = Math.max(1, totalBytes / chapterCount);
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("简介：这是用于基准测试的合成小说。\n\n");
+            for (int chapter = 1; chapter <= chapterCount; chapter++) {
+                writer.write(chapterTitle.apply(chapter));
+                writer.write("\n\n");
+                long written = 0;
+                while (written < bytesPerChapter) {
+                    StringBuilder paragraph = new StringBuilder("　　");
+                    int sentences = 2 + random.nextInt(6);
+                    for (int i = 0; i < sentences; i++) {
+                        int start = random.nextInt(SENTENCES.length() - 20);
+                        paragraph.append(SENTENCES, start, start + 10 + random.nextInt(10));
+                    }
+                    paragraph.append('\n');
+                    writer.write(paragraph.toString());
+                    written += paragraph.length() * 3L;
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * 章节标题生成函数：arabic为“第123章”，chinese为“第一百二十三章”
+     */
+    static IntFunction<String> titles(String numerals) {
+        if ("chinese".equals(numerals)) {
+            return n -> "第" + chineseNumeral(n) + "章 合成章节" + n;
+        }
+        return n -> "第" + n + "章 合成章节" + n;
+    }
+
+    /**
+     * 标准写法的中文数字（小于一万），如1020写作一千零二十，10到19省略“一”
+     */
+    static String chineseNumeral(int n) {
+        String digits = "零一二三四五六七八九";
+        String[] units = {"千", "百", "十", ""};
+        int[] divisors = {1000, 100, 10, 1};
+        StringBuilder result = new StringBuilder();
+        boolean pendingZero = false;
+        for (int i = 0; i < divisors.length; i++) {
+            int digit = n / divisors[i] % 10;
+            if (digit == 0) {
+                pendingZero = result.length() > 0;
+                continue;
+            }
+            if (pendingZero) {
+                result.append('零');
+                pendingZero = false;
+            }
+            if (!(digit == 1 && divisors[i] == 10 && result.length() == 0)) {
+                result.append(digits.charAt(digit));
+            }
+            result.append(units[i]);
+        }
+        return result.toString();
+    }
+
+    /**
+     * 把user.dir指向临时目录，Constants中的输出路径都落在临时目录下，不会覆盖真实的输出。
+     * 必须在第一次访问Constants之前调用
+     */
+    static Path useTempWorkingDirectory() throws IOException {
+        Path dir = Files.createTempDirectory("novel-bench-");
+        System.setProperty("user.dir", dir.toString());
+        return dir;
+    }
+
+    /**
+     * 基准测试只关心处理本身，关闭每章一条的INFO日志
+     */
+    static void quietLogging() {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME))
+                .setLevel(Level.WARN);
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -1,21 +1,22 @@
 package com.novel;
 
+import com.novel.model.Chapter;
+import com.novel.processor.ChapterIndex;
 import com.novel.util.Constants;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * 章节名称提取器
+ * 章节名称提取器，目录直接来自章节索引，索引有效时无需重新扫描小说。
+ * 只输出行首的章节标题（允许前导空白和“正文”前缀），正文中提到“第N章”的句子不再算作章节名称
  */
 public class ChapterNameExtractor {
     private static final Logger logger = LoggerFactory.getLogger(ChapterNameExtractor.class);
-    private static final Pattern CHAPTER_PATTERN = Pattern.compile("第.{1,5}章");
 
     public static void main(String[] args) {
         Path novelFilePath = Paths.get(Constants.NOVEL_FILE_PATH);
@@ -23,35 +24,29 @@ public class ChapterNameExtractor {
 
         File outputFile = new File(Paths.get(System.getProperty("user.dir"), "章节名称.txt").toString());
 
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                new FileInputStream(novelFile), StandardCharsets.UTF_8));
-             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
-                new FileOutputStream(outputFile), StandardCharsets.UTF_8))) {
-
-            String line;
-            int lineNumber = 0;
-            int matchCount = 0;
-
+        try {
             logger.info("开始提取章节名称...");
-            while ((line = reader.readLine()) != null) {
-                lineNumber++;
-                if (lineNumber % 1000 == 0) {
-                    logger.debug("正在处理第{}行", lineNumber);
-                }
-
-                Matcher matcher = CHAPTER_PATTERN.matcher(line);
-                if (matcher.find()) {
-                    writer.write(line);
-                    writer.newLine();
-                    matchCount++;
-                }
-            }
-
-            logger.info("章节名称提取完成，共找到{}个匹配项", matchCount);
+            int count = extract(novelFile, outputFile);
+            logger.info("章节名称提取完成，共找到{}个匹配项", count);
             logger.info("结果已保存到: {}", outputFile.getAbsolutePath());
 
         } catch (IOException e) {
             logger.error("处理文件时出错", e);
         }
     }
+
+    /**
+     * 把小说的章节标题按出现顺序逐行写入输出文件，返回标题数
+     */
+    static int extract(File novelFile, File outputFile) throws IOException {
+        List<Chapter> chapters = ChapterIndex.loadOrBuild(novelFile).getChapters();
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(outputFile), StandardCharsets.UTF_8))) {
+            for (Chapter chapter : chapters) {
+                writer.write(chapter.getTitle());
+                writer.newLine();
+            }
+        }
+        return chapters.size();
+    }
 }
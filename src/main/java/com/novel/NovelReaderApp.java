@@ -1,21 +1,35 @@
 package com.novel;
 
 import com.novel.config.ApiKeyConfig;
+import com.novel.metrics.MetricsReporter;
+import com.novel.metrics.PipelineMetrics;
+import com.novel.model.ApiKey;
+import com.novel.processor.BatchJournal;
+import com.novel.processor.BatchLeases;
+import com.novel.processor.BatchPlanner;
 import com.novel.processor.ChapterProcessor;
 import com.novel.processor.GeminiApiProcessor;
 import com.novel.service.ChapterFileService;
-import com.novel.service.RateLimiterService;
+import com.novel.service.GeminiApiService;
+import com.novel.service.impl.ApiKeyPoolService;
+import com.novel.service.impl.CachingGeminiApiService;
 import com.novel.service.impl.ChapterFileServiceImpl;
-import com.novel.service.impl.GeminiApiServiceImpl;
-import com.novel.service.impl.RateLimiterServiceImpl;
+import com.novel.service.impl.HedgingGeminiApiService;
+import com.novel.util.CircuitBreaker;
 import com.novel.util.Constants;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * 主应用程序类，用于协调小说处理和Gemini API调用的整个流程
@@ -25,8 +39,40 @@ public class NovelReaderApp {
 
     public static void main(String[] args) {
         logger.info("开始处理小说文件");
+        // --resume：根据批次日志跳过上次已完成的批次
+        boolean resume = Arrays.asList(args).contains("--resume");
+        // --metrics-port=<端口>：在本机端口上提供/metrics和/progress接口
+        int metricsPort = -1;
+        // --worker[=<名称>]：作为工作进程与共用output目录的其他进程分担批次，默认名称为主机名加进程号
+        String workerId = null;
+        for (String arg : args) {
+            if (arg.startsWith("--metrics-port=")) {
+                metricsPort = Integer.parseInt(arg.substring("--metrics-port=".length()));
+            } else if (arg.equals("--worker")) {
+                workerId = defaultWorkerId();
+            } else if (arg.startsWith("--worker=")) {
+                workerId = arg.substring("--worker=".length());
+            }
+        }
+        boolean worker = workerId != null;
         
-        try {
+        // 运行期间定期把指标写入output目录，退出时写入最终快照；工作进程各写各的指标文件
+        Path metricsJson = Paths.get(Constants.METRICS_JSON_FILE);
+        Path metricsPrometheus = Paths.get(Constants.METRICS_PROMETHEUS_FILE);
+        if (worker) {
+            metricsJson = Paths.get(Constants.OUTPUT_DIR, "metrics-" + workerId + ".json");
+            metricsPrometheus = Paths.get(Constants.OUTPUT_DIR, "metrics-" + workerId + ".prom");
+        }
+        // 密钥池、各密钥的限流器和对冲共用的调度器，由应用创建，退出前关闭
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(10);
+        try (MetricsReporter metricsReporter = new MetricsReporter(PipelineMetrics.getDefault(),
+                metricsJson, metricsPrometheus);
+             BatchLeases leases = worker ? new BatchLeases(Paths.get(Constants.LEASES_DIR), workerId) : null) {
+            metricsReporter.start(Constants.METRICS_REPORT_INTERVAL_MS);
+            if (metricsPort >= 0) {
+                metricsReporter.startHttpServer(metricsPort);
+            }
+
             // 1. 加载API密钥
             ApiKeyConfig apiKeyConfig = new ApiKeyConfig();
             apiKeyConfig.loadApiKey();
@@ -40,31 +86,56 @@ public class NovelReaderApp {
                 System.exit(1);
             }
             
-            // 3. 处理章节
-            ChapterProcessor chapterProcessor = new ChapterProcessor();
-            boolean chapterValidationResult = chapterProcessor.validateChapters(novelFile);
-            
-            if (!chapterValidationResult) {
-                logger.error("章节验证失败，程序终止");
-                System.exit(1);
+            // 3. 验证章节并按token预算分割小说（验证通过后才提交分割结果）
+            // 每个密钥有自己的限流器和自适应并发上限，请求分配给剩余额度最多的密钥；
+            // 熔断器由所有密钥共用，任一密钥发现服务饱和时整个流水线一起暂停
+            List<ApiKey> apiKeys = apiKeyConfig.getApiKeys();
+            CircuitBreaker circuitBreaker = new CircuitBreaker();
+            ApiKeyPoolService apiService = new ApiKeyPoolService(apiKeys, scheduler, circuitBreaker);
+            // 开启对冲时慢请求会在另一个密钥上再发一份，对冲层在缓存之下，命中缓存的请求不会被对冲
+            GeminiApiService callService = Constants.HEDGE_REQUESTS
+                ? new HedgingGeminiApiService(apiService, scheduler) : apiService;
+            // 校准token估算的countTokens调用同样经过缓存，输入不变时重新运行不发出网络请求
+            CachingGeminiApiService cachingService = new CachingGeminiApiService(callService);
+            ChapterProcessor chapterProcessor = new ChapterProcessor(
+                new BatchPlanner(Constants.VERIFY_TOKEN_ESTIMATE ? cachingService : null));
+            // 续跑时沿用上次的分割结果，保证批次与日志中的记录一致
+            Path batchPlanPath = Paths.get(Constants.SPLIT_CHAPTERS_DIR, Constants.BATCH_PLAN_FILE_NAME);
+            boolean splitResult;
+            if (!worker) {
+                // 工作进程在持有分割租约时恢复，避免与正在分割的进程冲突
+                ChapterProcessor.recoverSplitDirectory();
+            }
+            if (worker) {
+                splitResult = splitOnce(leases, chapterProcessor, novelFile, batchPlanPath);
+            } else if (resume && Files.exists(batchPlanPath)) {
+                logger.info("续跑模式，沿用已有的分割结果: {}", Constants.SPLIT_CHAPTERS_DIR);
+                splitResult = true;
+            } else {
+                splitResult = chapterProcessor.validateAndSplitChapters(novelFile);
             }
-            
-            // 4. 分割小说
-            boolean splitResult = chapterProcessor.splitNovelByChapters(novelFile);
             
             if (!splitResult) {
-                logger.error("小说分割失败，程序终止");
+                logger.error("章节验证或小说分割失败，程序终止");
                 System.exit(1);
             }
             
-            // 5. 调用Gemini API
+            // 4. 调用Gemini API，由各密钥的限流器控制请求节奏，不再叠加一层全局限流
+            // 工作进程各自记录批次日志，已完成的批次以共享的结果文件为准
+            Path journalPath = worker
+                ? Paths.get(Constants.OUTPUT_DIR, "batch_journal-" + workerId + ".log")
+                : Paths.get(Constants.BATCH_JOURNAL_FILE);
             GeminiApiProcessor apiProcessor = new GeminiApiProcessor(
-                new GeminiApiServiceImpl(apiKeyConfig.getApiKey()),
+                cachingService,
                 new ChapterFileServiceImpl(),
-                new RateLimiterServiceImpl(Executors.newScheduledThreadPool(10)),
-                Executors.newFixedThreadPool(10)
+                // 只用于保存结果文件，同时在途的请求数由各密钥的自适应并发上限决定，与线程数无关
+                Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()),
+                BatchJournal.open(journalPath, resume || worker),
+                circuitBreaker
             );
-            boolean apiCallResult = apiProcessor.processChapterFiles();
+            boolean apiCallResult = worker
+                ? apiProcessor.processAsWorker(leases) : apiProcessor.processChapterFiles();
+            logger.info(apiService.getUtilisationReport());
             
             if (!apiCallResult) {
                 logger.error("Gemini API调用失败，程序终止");
@@ -76,6 +147,42 @@ public class NovelReaderApp {
         } catch (Exception e) {
             logger.error("处理过程中发生错误", e);
             System.exit(1);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 工作进程只分割一次：已有批次计划时直接沿用，否则由认领到分割租约的进程分割，其他进程等待批次计划出现；
+     * 分割结果整体原子替换到位，批次计划存在时所有分割文件都已就绪
+     */
+    private static boolean splitOnce(BatchLeases leases, ChapterProcessor chapterProcessor, File novelFile,
+                                     Path batchPlanPath) throws Exception {
+        while (!Files.exists(batchPlanPath)) {
+            if (leases.tryAcquire("_split")) {
+                try {
+                    ChapterProcessor.recoverSplitDirectory();
+                    if (!Files.exists(batchPlanPath)) {
+                        return chapterProcessor.validateAndSplitChapters(novelFile);
+                    }
+                } finally {
+                    leases.release("_split");
+                }
+            } else {
+                Thread.sleep(Constants.LEASE_POLL_INTERVAL_MS);
+            }
+        }
+        logger.info("工作进程沿用已有的分割结果: {}", Constants.SPLIT_CHAPTERS_DIR);
+        return true;
+    }
+
+    private static String defaultWorkerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "worker";
         }
+        return host + "-" + ProcessHandle.current().pid();
     }
 }
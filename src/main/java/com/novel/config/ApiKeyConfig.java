@@ -1,5 +1,6 @@
 package com.novel.config;
 
+import com.novel.model.ApiKey;
 import com.novel.util.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,14 +10,26 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
- * 处理API密钥的加载和管理
+ * 处理API密钥的加载和管理。
+ * apikey.yml可以只写一个api_key，也可以在api_keys下列出多个密钥并分别指定配额：
+ * <pre>
+ * api_keys:
+ *   - key: xxx
+ *     name: main                 # 可选，用于日志和统计
+ *     requests_per_minute: 15    # 可选，默认Constants.MAX_REQUESTS_PER_MINUTE
+ *     tokens_per_minute: 1000000 # 可选，默认Constants.MAX_INPUT_TOKENS_PER_MINUTE
+ *     requests_per_day: 1500     # 可选，默认Constants.MAX_REQUESTS_PER_DAY，0表示不限
+ * </pre>
  */
 public class ApiKeyConfig {
     private static final Logger logger = LoggerFactory.getLogger(ApiKeyConfig.class);
-    private String apiKey;
+    private final List<ApiKey> apiKeys = new ArrayList<>();
 
     /**
      * 从配置文件加载API密钥
@@ -30,13 +43,16 @@ public class ApiKeyConfig {
 
             Yaml yaml = new Yaml();
             try (FileInputStream inputStream = new FileInputStream(Constants.API_KEY_FILE)) {
-                Map<String, String> config = yaml.load(inputStream);
-                if (config == null || !config.containsKey("api_key") || config.get("api_key").isEmpty()) {
+                Map<String, Object> config = yaml.load(inputStream);
+                apiKeys.clear();
+                if (config != null) {
+                    parse(config);
+                }
+                if (apiKeys.isEmpty()) {
                     logger.error("API密钥文件格式不正确或密钥为空");
                     throw new IOException("API密钥文件格式不正确或密钥为空");
                 }
-                this.apiKey = config.get("api_key");
-                logger.info("成功加载API密钥");
+                logger.info("成功加载{}个API密钥", apiKeys.size());
             }
         } catch (Exception e) {
             logger.error("加载API密钥时出错", e);
@@ -44,13 +60,61 @@ public class ApiKeyConfig {
         }
     }
 
+    private void parse(Map<String, Object> config) throws IOException {
+        Object single = config.get("api_key");
+        if (single != null && !single.toString().isEmpty()) {
+            apiKeys.add(new ApiKey("key-1", single.toString(),
+                    Constants.MAX_REQUESTS_PER_MINUTE, Constants.MAX_INPUT_TOKENS_PER_MINUTE));
+        }
+
+        Object list = config.get("api_keys");
+        if (list == null) {
+            return;
+        }
+        if (!(list instanceof List)) {
+            throw new IOException("api_keys必须是列表");
+        }
+        for (Object item : (List<?>) list) {
+            if (!(item instanceof Map)) {
+                throw new IOException("api_keys中的每一项必须包含key字段");
+            }
+            Map<?, ?> entry = (Map<?, ?>) item;
+            Object key = entry.get("key");
+            if (key == null || key.toString().isEmpty()) {
+                throw new IOException("api_keys中的第" + (apiKeys.size() + 1) + "项缺少key");
+            }
+            Object name = entry.get("name");
+            apiKeys.add(new ApiKey(
+                    name != null ? name.toString() : "key-" + (apiKeys.size() + 1),
+                    key.toString(),
+                    intValue(entry.get("requests_per_minute"), Constants.MAX_REQUESTS_PER_MINUTE),
+                    longValue(entry.get("tokens_per_minute"), Constants.MAX_INPUT_TOKENS_PER_MINUTE),
+                    intValue(entry.get("requests_per_day"), Constants.MAX_REQUESTS_PER_DAY)));
+        }
+    }
+
+    private static int intValue(Object value, int defaultValue) {
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    private static long longValue(Object value, long defaultValue) {
+        return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+    }
+
     /**
-     * 获取API密钥
+     * 获取第一个API密钥
      */
     public String getApiKey() {
-        if (apiKey == null || apiKey.isEmpty()) {
+        return getApiKeys().get(0).getKey();
+    }
+
+    /**
+     * 获取所有API密钥
+     */
+    public List<ApiKey> getApiKeys() {
+        if (apiKeys.isEmpty()) {
             throw new IllegalStateException("API密钥未加载或为空");
         }
-        return apiKey;
+        return Collections.unmodifiableList(apiKeys);
     }
 }
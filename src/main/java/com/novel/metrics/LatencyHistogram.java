@@ -0,0 +1,86 @@
+package com.novel.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 固定分桶的耗时直方图，记录时无锁，只占用固定内存。
+ * 桶的上界从1ms开始按2^(1/4)倍增长，分位数取所在桶的上界，相对误差不超过19%；
+ * 超过最后一个上界（约4.6小时）的值都计入最后一个桶
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS_PER_DOUBLING = 4;
+    private static final int BUCKET_COUNT = 24 * BUCKETS_PER_DOUBLING + 1;
+    private static final double LOG_2 = Math.log(2);
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        buckets.incrementAndGet(bucketIndex(nanos));
+        count.increment();
+        sumNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getSumMs() {
+        return sumNanos.sum() / 1e6;
+    }
+
+    public double getMaxMs() {
+        return maxNanos.get() / 1e6;
+    }
+
+    public double getMeanMs() {
+        long n = count.sum();
+        return n == 0 ? 0 : getSumMs() / n;
+    }
+
+    /**
+     * 第q分位（0到1之间）的耗时上界，单位毫秒，没有记录时返回0
+     */
+    public double percentileMs(double q) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                // 桶的上界不会超过实际出现过的最大值
+                return Math.min(upperBoundMs(i), getMaxMs());
+            }
+        }
+        return getMaxMs();
+    }
+
+    private static int bucketIndex(long nanos) {
+        double ms = nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        if (ms <= 1) {
+            return 0;
+        }
+        int index = (int) Math.ceil(Math.log(ms) / LOG_2 * BUCKETS_PER_DOUBLING);
+        return Math.min(index, BUCKET_COUNT - 1);
+    }
+
+    private static double upperBoundMs(int index) {
+        return Math.pow(2, index / (double) BUCKETS_PER_DOUBLING);
+    }
+}
@@ -0,0 +1,114 @@
+package com.novel.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定期把指标快照写入JSON文件和Prometheus文本文件（先写临时文件再原子替换，读取方不会看到写了一半的文件），
+ * 并可选地在本机端口上提供 /metrics（Prometheus文本）和 /progress（JSON）两个只读接口
+ */
+public class MetricsReporter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsReporter.class);
+
+    private final PipelineMetrics metrics;
+    private final Path jsonFile;
+    private final Path prometheusFile;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "metrics-reporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private HttpServer server;
+
+    public MetricsReporter(PipelineMetrics metrics, Path jsonFile, Path prometheusFile) {
+        this.metrics = metrics;
+        this.jsonFile = jsonFile;
+        this.prometheusFile = prometheusFile;
+    }
+
+    /**
+     * 每隔intervalMs写一次快照
+     */
+    public void start(long intervalMs) {
+        scheduler.scheduleAtFixedRate(this::writeQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 在127.0.0.1的指定端口上提供HTTP接口，端口为0时由系统分配
+     *
+     * @return 实际监听的端口
+     */
+    public int startHttpServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/metrics", exchange ->
+                respond(exchange, "text/plain; version=0.0.4; charset=utf-8", metrics.toPrometheus()));
+        server.createContext("/progress", exchange ->
+                respond(exchange, "application/json; charset=utf-8", gson.toJson(metrics.toJson())));
+        server.start();
+        int actualPort = server.getAddress().getPort();
+        logger.info("指标接口已启动: http://127.0.0.1:{}/metrics, http://127.0.0.1:{}/progress", actualPort, actualPort);
+        return actualPort;
+    }
+
+    /**
+     * 立即写一次快照
+     */
+    public void write() throws IOException {
+        writeAtomically(jsonFile, gson.toJson(metrics.toJson()));
+        writeAtomically(prometheusFile, metrics.toPrometheus());
+    }
+
+    /**
+     * 停止定期写入和HTTP接口，并写入最终快照
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        if (server != null) {
+            server.stop(0);
+        }
+        writeQuietly();
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (IOException e) {
+            logger.warn("写入指标文件失败", e);
+        }
+    }
+
+    private static void writeAtomically(Path target, String content) throws IOException {
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.writeString(temp, content, StandardCharsets.UTF_8);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
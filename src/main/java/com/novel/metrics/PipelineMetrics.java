@@ -0,0 +1,301 @@
+package com.novel.metrics;
+
+import com.google.gson.JsonObject;
+import com.novel.util.AdaptiveConcurrencyLimiter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 整个处理流程的运行指标：各阶段耗时、API延迟、限流等待、按状态码统计的请求和重试次数、
+ * 对冲请求、token用量、批次进度、预计剩余时间和各自适应并发限流器的当前上限。所有记录方法都是无锁的，可以在任意线程中调用；
+ * 导出时生成JSON或Prometheus文本格式的快照
+ */
+public class PipelineMetrics {
+    private static final PipelineMetrics DEFAULT = new PipelineMetrics(System::nanoTime);
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private final LongSupplier nanoClock;
+    private final long startNanos;
+
+    private final Map<String, LatencyHistogram> stages = new ConcurrentSkipListMap<>();
+    private final Map<String, LatencyHistogram> limiterWaits = new ConcurrentSkipListMap<>();
+    private final LatencyHistogram apiLatency = new LatencyHistogram();
+    private final Map<Integer, LongAdder> responsesByStatus = new ConcurrentSkipListMap<>();
+    private final Map<Integer, LongAdder> retriesByStatus = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> hedges = new ConcurrentSkipListMap<>();
+    private final Map<String, AdaptiveConcurrencyLimiter> concurrencyLimiters = new ConcurrentSkipListMap<>();
+    private final LongAdder inputTokens = new LongAdder();
+    private final LongAdder outputTokens = new LongAdder();
+
+    private final AtomicInteger batchesTotal = new AtomicInteger();
+    private final AtomicInteger batchesSkipped = new AtomicInteger();
+    private final AtomicInteger batchesStarted = new AtomicInteger();
+    private final AtomicInteger batchesCompleted = new AtomicInteger();
+    private final AtomicInteger batchesFailed = new AtomicInteger();
+    // 本次运行第一个批次开始处理的时间，用于计算完成速率
+    private final AtomicLong firstStartNanos = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param nanoClock 纳秒时钟，测试时可以注入虚拟时钟
+     */
+    public PipelineMetrics(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.startNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * 进程内共享的指标，各组件的默认构造函数都记录到这里
+     */
+    public static PipelineMetrics getDefault() {
+        return DEFAULT;
+    }
+
+    public long now() {
+        return nanoClock.getAsLong();
+    }
+
+    /**
+     * 记录某个阶段的一次耗时，如prepare、limiter_wait、api_call、save
+     */
+    public void recordStage(String stage, long nanos) {
+        stages.computeIfAbsent(stage, name -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * 记录一次HTTP调用的耗时和状态码，0表示没有收到响应
+     */
+    public void recordApiCall(int statusCode, long nanos) {
+        apiLatency.record(nanos);
+        responsesByStatus.computeIfAbsent(statusCode, status -> new LongAdder()).increment();
+    }
+
+    public void recordRetry(int statusCode) {
+        retriesByStatus.computeIfAbsent(statusCode, status -> new LongAdder()).increment();
+    }
+
+    /**
+     * 记录对冲请求的结果：launched（发出）、won（先于原请求成功）、lost（原请求先成功）、skipped（额度不足未发出）
+     */
+    public void recordHedge(String outcome) {
+        hedges.computeIfAbsent(outcome, name -> new LongAdder()).increment();
+    }
+
+    /**
+     * 记录一次限流等待，limiter区分全局限流器和各个密钥的限流器
+     */
+    public void recordLimiterWait(String limiter, long nanos) {
+        limiterWaits.computeIfAbsent(limiter, name -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * 登记一个自适应并发限流器，导出时读取它当前的上限、在途请求数和延迟，同名的限流器会被替换
+     */
+    public void registerConcurrencyLimiter(AdaptiveConcurrencyLimiter limiter) {
+        concurrencyLimiters.put(limiter.getName(), limiter);
+    }
+
+    public void recordTokens(int input, int output) {
+        inputTokens.add(input);
+        outputTokens.add(output);
+    }
+
+    public void setBatchesTotal(int total) {
+        batchesTotal.set(total);
+    }
+
+    /**
+     * 上次运行已经完成、本次直接跳过的批次
+     */
+    public void batchSkipped() {
+        batchesSkipped.incrementAndGet();
+    }
+
+    public void batchStarted() {
+        firstStartNanos.compareAndSet(Long.MIN_VALUE, now());
+        batchesStarted.incrementAndGet();
+    }
+
+    public void batchFinished(boolean success) {
+        if (success) {
+            batchesCompleted.incrementAndGet();
+        } else {
+            batchesFailed.incrementAndGet();
+        }
+    }
+
+    /**
+     * 等待开始处理的批次数
+     */
+    public int getQueueDepth() {
+        return Math.max(0, batchesTotal.get() - batchesSkipped.get() - batchesStarted.get());
+    }
+
+    public int getInFlight() {
+        return Math.max(0, batchesStarted.get() - batchesCompleted.get() - batchesFailed.get());
+    }
+
+    /**
+     * 按本次运行的批次完成速率估算的剩余秒数，还没有批次完成时返回-1
+     */
+    public long getEtaSeconds() {
+        int finished = batchesCompleted.get() + batchesFailed.get();
+        long since = firstStartNanos.get();
+        if (finished == 0 || since == Long.MIN_VALUE) {
+            return -1;
+        }
+        double nanosPerBatch = (now() - since) / (double) finished;
+        return (long) ((getQueueDepth() + getInFlight()) * nanosPerBatch / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * 当前指标的JSON快照，耗时单位为毫秒
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("elapsed_seconds", (now() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1));
+
+        JsonObject batches = new JsonObject();
+        batches.addProperty("total", batchesTotal.get());
+        batches.addProperty("skipped", batchesSkipped.get());
+        batches.addProperty("completed", batchesCompleted.get());
+        batches.addProperty("failed", batchesFailed.get());
+        batches.addProperty("in_flight", getInFlight());
+        batches.addProperty("queued", getQueueDepth());
+        batches.addProperty("eta_seconds", getEtaSeconds());
+        json.add("batches", batches);
+
+        JsonObject tokens = new JsonObject();
+        tokens.addProperty("input", inputTokens.sum());
+        tokens.addProperty("output", outputTokens.sum());
+        json.add("tokens", tokens);
+
+        JsonObject api = new JsonObject();
+        api.add("latency_ms", histogramJson(apiLatency));
+        api.add("requests_by_status", countsJson(responsesByStatus));
+        api.add("retries_by_status", countsJson(retriesByStatus));
+        JsonObject hedgeJson = new JsonObject();
+        hedges.forEach((outcome, count) -> hedgeJson.addProperty(outcome, count.sum()));
+        api.add("hedges", hedgeJson);
+        json.add("api", api);
+
+        JsonObject limiter = new JsonObject();
+        limiterWaits.forEach((name, histogram) -> limiter.add(name, histogramJson(histogram)));
+        json.add("limiter_wait_ms", limiter);
+
+        JsonObject concurrency = new JsonObject();
+        concurrencyLimiters.forEach((name, concurrencyLimiter) -> {
+            JsonObject limiterJson = new JsonObject();
+            limiterJson.addProperty("limit", concurrencyLimiter.getLimit());
+            limiterJson.addProperty("in_flight", concurrencyLimiter.getInFlight());
+            limiterJson.addProperty("queued", concurrencyLimiter.getQueued());
+            limiterJson.addProperty("recent_latency_ms", concurrencyLimiter.getRecentLatencyMs());
+            limiterJson.addProperty("baseline_latency_ms", concurrencyLimiter.getBaselineLatencyMs());
+            concurrency.add(name, limiterJson);
+        });
+        json.add("concurrency", concurrency);
+
+        JsonObject stageJson = new JsonObject();
+        stages.forEach((name, histogram) -> stageJson.add(name, histogramJson(histogram)));
+        json.add("stages_ms", stageJson);
+        return json;
+    }
+
+    /**
+     * 当前指标的Prometheus文本格式快照，耗时以summary形式导出，单位为秒
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        out.append("# TYPE novel_batches gauge\n");
+        appendSample(out, "novel_batches", "state=\"total\"", batchesTotal.get());
+        appendSample(out, "novel_batches", "state=\"skipped\"", batchesSkipped.get());
+        appendSample(out, "novel_batches", "state=\"completed\"", batchesCompleted.get());
+        appendSample(out, "novel_batches", "state=\"failed\"", batchesFailed.get());
+        appendSample(out, "novel_batches", "state=\"in_flight\"", getInFlight());
+        appendSample(out, "novel_batches", "state=\"queued\"", getQueueDepth());
+        out.append("# TYPE novel_eta_seconds gauge\n");
+        appendSample(out, "novel_eta_seconds", null, getEtaSeconds());
+
+        out.append("# TYPE novel_tokens_total counter\n");
+        appendSample(out, "novel_tokens_total", "direction=\"input\"", inputTokens.sum());
+        appendSample(out, "novel_tokens_total", "direction=\"output\"", outputTokens.sum());
+
+        out.append("# TYPE novel_api_requests_total counter\n");
+        responsesByStatus.forEach((status, count) ->
+                appendSample(out, "novel_api_requests_total", "status=\"" + status + "\"", count.sum()));
+        out.append("# TYPE novel_api_retries_total counter\n");
+        retriesByStatus.forEach((status, count) ->
+                appendSample(out, "novel_api_retries_total", "status=\"" + status + "\"", count.sum()));
+        out.append("# TYPE novel_api_hedges_total counter\n");
+        hedges.forEach((outcome, count) ->
+                appendSample(out, "novel_api_hedges_total", "outcome=\"" + outcome + "\"", count.sum()));
+
+        out.append("# TYPE novel_api_latency_seconds summary\n");
+        appendSummary(out, "novel_api_latency_seconds", null, apiLatency);
+        out.append("# TYPE novel_limiter_wait_seconds summary\n");
+        limiterWaits.forEach((name, histogram) ->
+                appendSummary(out, "novel_limiter_wait_seconds", "limiter=\"" + name + "\"", histogram));
+        out.append("# TYPE novel_concurrency_limit gauge\n");
+        concurrencyLimiters.forEach((name, limiter) ->
+                appendSample(out, "novel_concurrency_limit", "limiter=\"" + name + "\"", limiter.getLimit()));
+        out.append("# TYPE novel_concurrency_in_flight gauge\n");
+        concurrencyLimiters.forEach((name, limiter) ->
+                appendSample(out, "novel_concurrency_in_flight", "limiter=\"" + name + "\"", limiter.getInFlight()));
+        out.append("# TYPE novel_concurrency_latency_seconds gauge\n");
+        concurrencyLimiters.forEach((name, limiter) -> {
+            appendSample(out, "novel_concurrency_latency_seconds", "limiter=\"" + name + "\",window=\"recent\"",
+                    limiter.getRecentLatencyMs() / 1000);
+            appendSample(out, "novel_concurrency_latency_seconds", "limiter=\"" + name + "\",window=\"baseline\"",
+                    limiter.getBaselineLatencyMs() / 1000);
+        });
+        out.append("# TYPE novel_stage_seconds summary\n");
+        stages.forEach((name, histogram) ->
+                appendSummary(out, "novel_stage_seconds", "stage=\"" + name + "\"", histogram));
+        return out.toString();
+    }
+
+    private static JsonObject histogramJson(LatencyHistogram histogram) {
+        JsonObject json = new JsonObject();
+        json.addProperty("count", histogram.getCount());
+        json.addProperty("mean", histogram.getMeanMs());
+        json.addProperty("p50", histogram.percentileMs(0.5));
+        json.addProperty("p95", histogram.percentileMs(0.95));
+        json.addProperty("p99", histogram.percentileMs(0.99));
+        json.addProperty("max", histogram.getMaxMs());
+        return json;
+    }
+
+    private static JsonObject countsJson(Map<Integer, LongAdder> counts) {
+        JsonObject json = new JsonObject();
+        counts.forEach((status, count) -> json.addProperty(String.valueOf(status), count.sum()));
+        return json;
+    }
+
+    private static void appendSummary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels == null ? "" : labels + ",";
+        for (double quantile : QUANTILES) {
+            appendSample(out, name, prefix + "quantile=\"" + quantile + "\"", histogram.percentileMs(quantile) / 1000);
+        }
+        appendSample(out, name + "_sum", labels, histogram.getSumMs() / 1000);
+        appendSample(out, name + "_count", labels, histogram.getCount());
+    }
+
+    private static void appendSample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+}
@@ -0,0 +1,46 @@
+package com.novel.model;
+
+import com.novel.util.Constants;
+
+/**
+ * 一个API密钥及其配额
+ */
+public class ApiKey {
+    private final String name;              // 用于日志和统计的名称，不暴露密钥本身
+    private final String key;
+    private final int requestsPerMinute;    // 每分钟最大请求数
+    private final long tokensPerMinute;     // 每分钟最大输入token数
+    private final int requestsPerDay;       // 每天最大请求数，0表示不限
+
+    public ApiKey(String name, String key, int requestsPerMinute, long tokensPerMinute) {
+        this(name, key, requestsPerMinute, tokensPerMinute, Constants.MAX_REQUESTS_PER_DAY);
+    }
+
+    public ApiKey(String name, String key, int requestsPerMinute, long tokensPerMinute, int requestsPerDay) {
+        this.name = name;
+        this.key = key;
+        this.requestsPerMinute = requestsPerMinute;
+        this.tokensPerMinute = tokensPerMinute;
+        this.requestsPerDay = requestsPerDay;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getRequestsPerMinute() {
+        return requestsPerMinute;
+    }
+
+    public long getTokensPerMinute() {
+        return tokensPerMinute;
+    }
+
+    public int getRequestsPerDay() {
+        return requestsPerDay;
+    }
+}
@@ -1,20 +1,70 @@
 package com.novel.model;
 
+import com.novel.util.RequestBodyBuilder;
+
+import java.nio.file.Path;
+
 public class ApiRequest {
     private final String prompt;
+    private final byte[] body;
     private final int retryCount;
     private final long retryDelayMs;
+    private final Path streamOutput;
 
     public ApiRequest(String prompt, int retryCount, long retryDelayMs) {
+        this(prompt, retryCount, retryDelayMs, null);
+    }
+
+    /**
+     * @param streamOutput 不为null时以流式方式调用API，生成的文本边接收边写入该文件
+     */
+    public ApiRequest(String prompt, int retryCount, long retryDelayMs, Path streamOutput) {
+        this(prompt, RequestBodyBuilder.of(prompt), retryCount, retryDelayMs, streamOutput);
+    }
+
+    /**
+     * 使用已经构建好的JSON请求体，重试时直接复用，不再重新构建
+     */
+    public ApiRequest(byte[] body, int retryCount, long retryDelayMs, Path streamOutput) {
+        this(null, body, retryCount, retryDelayMs, streamOutput);
+    }
+
+    private ApiRequest(String prompt, byte[] body, int retryCount, long retryDelayMs, Path streamOutput) {
         this.prompt = prompt;
+        this.body = body;
         this.retryCount = retryCount;
         this.retryDelayMs = retryDelayMs;
+        this.streamOutput = streamOutput;
+    }
+
+    /**
+     * 以相同的请求体创建一个新的请求，只改变重试次数
+     */
+    public ApiRequest withRetryCount(int retryCount) {
+        return new ApiRequest(prompt, body, retryCount, retryDelayMs, streamOutput);
+    }
+
+    /**
+     * 以相同的请求体创建一个新的请求，流式生成的文本写入另一个文件，为null时不使用流式调用
+     */
+    public ApiRequest withStreamOutput(Path streamOutput) {
+        return new ApiRequest(prompt, body, retryCount, retryDelayMs, streamOutput);
     }
 
+    /**
+     * 构建请求体所用的提示词，直接传入请求体时为null
+     */
     public String getPrompt() {
         return prompt;
     }
 
+    /**
+     * UTF-8编码的JSON请求体，不要修改其内容
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
     public int getRetryCount() {
         return retryCount;
     }
@@ -22,4 +72,12 @@ public class ApiRequest {
     public long getRetryDelayMs() {
         return retryDelayMs;
     }
+
+    public Path getStreamOutput() {
+        return streamOutput;
+    }
+
+    public boolean isStreaming() {
+        return streamOutput != null;
+    }
 }
@@ -1,32 +1,93 @@
 package com.novel.model;
 
 public class ApiResponse {
+    // 输出达到maxOutputTokens上限被截断时的结束原因
+    private static final String FINISH_REASON_MAX_TOKENS = "MAX_TOKENS";
+
     private final int statusCode;
     private final String content;
     private final String error;
+    private final String finishReason;
+    private final int promptTokens;
+    private final int candidatesTokens;
+    private final int totalTokens;
+    // 从本地缓存重放的响应，没有发出网络请求，不消耗配额
+    private final boolean cached;
+    // 服务端通过Retry-After头或错误体中的retryDelay建议的等待时间，没有时为-1
+    private final long retryAfterMs;
+
+    private ApiResponse(int statusCode, String content, String error, String finishReason,
+                        int promptTokens, int candidatesTokens, int totalTokens) {
+        this(statusCode, content, error, finishReason, promptTokens, candidatesTokens, totalTokens, false, -1);
+    }
 
-    private ApiResponse(int statusCode, String content, String error) {
+    private ApiResponse(int statusCode, String content, String error, String finishReason,
+                        int promptTokens, int candidatesTokens, int totalTokens, boolean cached,
+                        long retryAfterMs) {
         this.statusCode = statusCode;
         this.content = content;
         this.error = error;
+        this.finishReason = finishReason;
+        this.promptTokens = promptTokens;
+        this.candidatesTokens = candidatesTokens;
+        this.totalTokens = totalTokens;
+        this.cached = cached;
+        this.retryAfterMs = retryAfterMs;
     }
 
     public static ApiResponse success(int statusCode, String content) {
-        return new ApiResponse(statusCode, content, null);
+        return new ApiResponse(statusCode, content, null, null, 0, 0, 0);
+    }
+
+    /**
+     * 解析后的成功响应
+     *
+     * @param content 生成的文本
+     * @param finishReason 第一个候选的结束原因，没有时为null
+     * @param promptTokens usageMetadata中的输入token数，没有时为0
+     */
+    public static ApiResponse success(int statusCode, String content, String finishReason,
+                                      int promptTokens, int candidatesTokens, int totalTokens) {
+        return new ApiResponse(statusCode, content, null, finishReason, promptTokens, candidatesTokens, totalTokens);
+    }
+
+    /**
+     * 从缓存重放的成功响应，保留原响应的结束原因和token用量
+     */
+    public static ApiResponse cached(String content, String finishReason,
+                                     int promptTokens, int candidatesTokens, int totalTokens) {
+        return new ApiResponse(200, content, null, finishReason, promptTokens, candidatesTokens, totalTokens, true, -1);
     }
 
     public static ApiResponse error(int statusCode, String error) {
-        return new ApiResponse(statusCode, null, error);
+        return error(statusCode, error, -1);
+    }
+
+    /**
+     * @param retryAfterMs 服务端建议的重试等待时间，没有时为-1
+     */
+    public static ApiResponse error(int statusCode, String error, long retryAfterMs) {
+        return new ApiResponse(statusCode, null, error, null, 0, 0, 0, false, retryAfterMs);
     }
 
     public boolean isSuccess() {
         return statusCode == 200 && error == null;
     }
 
+    /**
+     * 输出是否因为达到maxOutputTokens而被截断
+     */
+    public boolean isTruncated() {
+        return FINISH_REASON_MAX_TOKENS.equals(finishReason);
+    }
+
     public int getStatusCode() {
         return statusCode;
     }
 
+    /**
+     * 生成的文本。流式请求的文本已经写入请求指定的输出文件，此处为null
+     */
     public String getContent() {
         return content;
     }
@@ -34,4 +95,28 @@ public class ApiResponse {
     public String getError() {
         return error;
     }
+
+    public String getFinishReason() {
+        return finishReason;
+    }
+
+    public int getPromptTokens() {
+        return promptTokens;
+    }
+
+    public int getCandidatesTokens() {
+        return candidatesTokens;
+    }
+
+    public int getTotalTokens() {
+        return totalTokens;
+    }
+
+    public boolean isCached() {
+        return cached;
+    }
+
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
 }
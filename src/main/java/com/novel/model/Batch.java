@@ -0,0 +1,72 @@
+package com.novel.model;
+
+/**
+ * 表示一次API调用要处理的一批连续章节，即一个分割文件
+ */
+public class Batch {
+    private final int fileIndex;        // 文件索引
+    private final int startChapter;     // 起始章节号
+    private final int endChapter;       // 结束章节号
+    private final int chapterCount;     // 包含的章节数
+    private final long byteOffset;      // 在原文件中的字节偏移
+    private final long byteLength;      // 在原文件中的字节长度
+    private final int estimatedTokens;  // 章节内容的预估输入token数
+
+    public Batch(int fileIndex, int startChapter, int endChapter, int chapterCount,
+                 long byteOffset, long byteLength, int estimatedTokens) {
+        this.fileIndex = fileIndex;
+        this.startChapter = startChapter;
+        this.endChapter = endChapter;
+        this.chapterCount = chapterCount;
+        this.byteOffset = byteOffset;
+        this.byteLength = byteLength;
+        this.estimatedTokens = estimatedTokens;
+    }
+
+    public int getFileIndex() {
+        return fileIndex;
+    }
+
+    public int getStartChapter() {
+        return startChapter;
+    }
+
+    public int getEndChapter() {
+        return endChapter;
+    }
+
+    public int getChapterCount() {
+        return chapterCount;
+    }
+
+    public long getByteOffset() {
+        return byteOffset;
+    }
+
+    public long getByteLength() {
+        return byteLength;
+    }
+
+    public int getEstimatedTokens() {
+        return estimatedTokens;
+    }
+
+    /**
+     * 分割文件名，如 "001第1-10章.txt"
+     */
+    public String getFileName() {
+        return String.format("%03d第%d-%d章.txt", fileIndex, startChapter, endChapter);
+    }
+
+    @Override
+    public String toString() {
+        return "Batch{" +
+                "fileIndex=" + fileIndex +
+                ", startChapter=" + startChapter +
+                ", endChapter=" + endChapter +
+                ", chapterCount=" + chapterCount +
+                ", byteLength=" + byteLength +
+                ", estimatedTokens=" + estimatedTokens +
+                '}';
+    }
+}
@@ -9,17 +9,40 @@ public class Chapter {
     private final int endChapter;     // 结束章节号
     private final String title;       // 章节标题（可选）
     private final int lineNumber;     // 在原文件中的行号（可选）
+    private final long byteOffset;    // 章节首行在原文件中的字节偏移（可选）
+    private final long byteLength;    // 章节在原文件中的字节长度（可选）
 
     public Chapter(int fileIndex, int startChapter, int endChapter) {
         this(fileIndex, startChapter, endChapter, null, -1);
     }
 
+    /**
+     * 表示单个章节（起始章节号与结束章节号相同）
+     */
+    public Chapter(int number, String title, int lineNumber) {
+        this(number, title, lineNumber, -1, -1);
+    }
+
+    /**
+     * 表示单个章节，并记录其在原文件中的字节范围
+     */
+    public Chapter(int number, String title, int lineNumber, long byteOffset, long byteLength) {
+        this(0, number, number, title, lineNumber, byteOffset, byteLength);
+    }
+
     public Chapter(int fileIndex, int startChapter, int endChapter, String title, int lineNumber) {
+        this(fileIndex, startChapter, endChapter, title, lineNumber, -1, -1);
+    }
+
+    public Chapter(int fileIndex, int startChapter, int endChapter, String title, int lineNumber,
+                   long byteOffset, long byteLength) {
         this.fileIndex = fileIndex;
         this.startChapter = startChapter;
         this.endChapter = endChapter;
         this.title = title;
         this.lineNumber = lineNumber;
+        this.byteOffset = byteOffset;
+        this.byteLength = byteLength;
     }
 
     public int getFileIndex() {
@@ -34,6 +57,13 @@ public class Chapter {
         return endChapter;
     }
 
+    /**
+     * 单个章节的章节号
+     */
+    public int getNumber() {
+        return startChapter;
+    }
+
     public String getTitle() {
         return title;
     }
@@ -42,6 +72,14 @@ public class Chapter {
         return lineNumber;
     }
 
+    public long getByteOffset() {
+        return byteOffset;
+    }
+
+    public long getByteLength() {
+        return byteLength;
+    }
+
     @Override
     public String toString() {
         return "Chapter{" +
@@ -50,6 +88,7 @@ public class Chapter {
                 ", endChapter=" + endChapter +
                 (title != null ? ", title='" + title + '\'' : "") +
                 (lineNumber != -1 ? ", lineNumber=" + lineNumber : "") +
+                (byteOffset != -1 ? ", byteOffset=" + byteOffset + ", byteLength=" + byteLength : "") +
                 '}';
     }
 }
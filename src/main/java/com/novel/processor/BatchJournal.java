@@ -0,0 +1,150 @@
+package com.novel.processor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 只追加的批次状态日志，用于崩溃后续跑。
+ * 每条记录是一行 "状态\t批次文件名"，写入后立即fsync；重放时同一批次以最后一条记录为准，
+ * 崩溃时写了一半的末行会被丢弃并截断，之后的追加仍从完整的行开始
+ */
+public class BatchJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(BatchJournal.class);
+
+    public enum State {
+        PENDING, IN_FLIGHT, DONE, FAILED
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Map<String, State> states = new HashMap<>();
+
+    private BatchJournal(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /**
+     * 打开批次日志
+     *
+     * @param resume 为true时重放已有记录继续上次的进度，为false时清空日志重新开始
+     */
+    public static BatchJournal open(Path path, boolean resume) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        BatchJournal journal = new BatchJournal(path, channel);
+        try {
+            if (resume) {
+                journal.replay();
+            } else {
+                channel.truncate(0);
+                channel.force(true);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    private void replay() throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        int lineStart = 0;
+        int records = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            String line = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8);
+            lineStart = i + 1;
+            int tab = line.indexOf('\t');
+            if (tab <= 0) {
+                logger.warn("忽略无效的批次日志记录: {}", line);
+                continue;
+            }
+            try {
+                states.put(line.substring(tab + 1), State.valueOf(line.substring(0, tab)));
+                records++;
+            } catch (IllegalArgumentException e) {
+                logger.warn("忽略无效的批次日志记录: {}", line);
+            }
+        }
+
+        // 丢弃崩溃时没有写完的末行
+        if (lineStart < bytes.length) {
+            logger.warn("批次日志末尾有{}字节不完整的记录，已丢弃", bytes.length - lineStart);
+            channel.truncate(lineStart);
+            channel.force(true);
+        }
+        channel.position(lineStart);
+        logger.info("已重放批次日志: {}，{}条记录，状态统计{}", path, records, summary());
+    }
+
+    /**
+     * 批次的最新状态，从未记录过时返回PENDING
+     */
+    public synchronized State getState(String batch) {
+        return states.getOrDefault(batch, State.PENDING);
+    }
+
+    /**
+     * 追加一条记录，返回时记录已经落盘
+     */
+    public void record(String batch, State state) throws IOException {
+        recordAll(Collections.singletonList(batch), state);
+    }
+
+    /**
+     * 追加多条记录，只fsync一次
+     */
+    public synchronized void recordAll(Collection<String> batches, State state) throws IOException {
+        if (batches.isEmpty()) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (String batch : batches) {
+            lines.append(state.name()).append('\t').append(batch).append('\n');
+        }
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(lines.toString());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        for (String batch : batches) {
+            states.put(batch, state);
+        }
+    }
+
+    /**
+     * 各状态的批次数
+     */
+    public synchronized Map<State, Integer> summary() {
+        Map<State, Integer> counts = new EnumMap<>(State.class);
+        for (State state : states.values()) {
+            counts.merge(state, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
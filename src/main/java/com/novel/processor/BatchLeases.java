@@ -0,0 +1,246 @@
+package com.novel.processor;
+
+import com.novel.util.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 基于共享目录中租约文件的批次认领，多个工作进程（可以在不同机器上）不需要协调者。
+ * 认领时以CREATE_NEW原子创建 名称.lease，内容是持有者的随机令牌；持有期间定时把文件的修改时间刷新为当前时间（心跳），
+ * 修改时间超过ttl没有刷新的租约视为持有者已经退出，其他进程先把它原子改名为唯一的墓碑文件再重新创建，
+ * 同一个过期租约只有一个进程能改名成功；改名后发现租约其实有效时用硬链接还回去，不会覆盖期间新建的租约。
+ * 心跳发现租约已被接手时放弃它，租约文件暂时不存在（正被其他进程检查）时保留；结果文件是原子替换的，
+ * 两个进程偶尔重复处理同一批次也不会产生错误的结果。
+ * 各机器的时钟偏差需要远小于ttl减去心跳间隔
+ */
+public class BatchLeases implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(BatchLeases.class);
+    private static final String LEASE_SUFFIX = ".lease";
+
+    private final Path directory;
+    private final String workerId;
+    private final long ttlMs;
+    private final LongSupplier clockMs;
+    private final ScheduledExecutorService heartbeat;
+    // 本进程持有的租约及其令牌
+    private final Map<String, String> held = new ConcurrentHashMap<>();
+
+    public BatchLeases(Path directory, String workerId) throws IOException {
+        this(directory, workerId, Constants.LEASE_TTL_MS, System::currentTimeMillis);
+        heartbeat.scheduleWithFixedDelay(this::renewAll, Constants.LEASE_HEARTBEAT_MS,
+                Constants.LEASE_HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 不自动发送心跳，由调用方调用renewAll
+     *
+     * @param clockMs 墙上时钟（毫秒），测试时可以注入虚拟时钟
+     */
+    public BatchLeases(Path directory, String workerId, long ttlMs, LongSupplier clockMs) throws IOException {
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.workerId = workerId;
+        this.ttlMs = ttlMs;
+        this.clockMs = clockMs;
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lease-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 尝试认领name，没有人持有或原持有者的租约已过期时成功
+     */
+    public boolean tryAcquire(String name) throws IOException {
+        if (held.containsKey(name)) {
+            return true;
+        }
+        if (create(name)) {
+            return true;
+        }
+        Path lease = leaseFile(name);
+        if (!isExpired(lease)) {
+            return false;
+        }
+
+        // 先改名为唯一的墓碑文件，多个进程同时接手时只有一个能改名成功
+        Path tombstone = directory.resolve(name + LEASE_SUFFIX + "." + UUID.randomUUID() + ".expired");
+        try {
+            Files.move(lease, tombstone, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return create(name);
+        }
+        if (!isExpired(tombstone)) {
+            // 检查与改名之间已有其他进程接手并创建了新租约，把它还回去
+            restore(tombstone, lease);
+            return false;
+        }
+        String previousOwner = readOwner(tombstone);
+        Files.deleteIfExists(tombstone);
+        if (!create(name)) {
+            return false;
+        }
+        logger.info("工作进程{}接手了已过期的租约{}（原持有者{}）", workerId, name, previousOwner);
+        return true;
+    }
+
+    /**
+     * 把误改名的有效租约还回原来的名称。ATOMIC_MOVE在Linux上是rename(2)，会静默覆盖期间新建的租约，
+     * 因此用不会替换已有文件的硬链接（不支持时用CREATE_NEW写入同样的令牌）；原名称已被占用时丢弃墓碑
+     */
+    private void restore(Path tombstone, Path lease) throws IOException {
+        try {
+            Files.createLink(lease, tombstone);
+        } catch (FileAlreadyExistsException e) {
+            logger.debug("租约{}已被重新创建，丢弃改名出来的旧租约", lease.getFileName());
+        } catch (UnsupportedOperationException e) {
+            String token = readToken(tombstone);
+            if (token != null) {
+                try {
+                    Files.write(lease, token.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW,
+                            StandardOpenOption.WRITE);
+                    Files.setLastModifiedTime(lease, Files.getLastModifiedTime(tombstone));
+                } catch (FileAlreadyExistsException ignored) {
+                    // 同上，原名称已被占用
+                }
+            }
+        } finally {
+            Files.deleteIfExists(tombstone);
+        }
+    }
+
+    /**
+     * 归还本进程持有的租约
+     */
+    public void release(String name) {
+        String token = held.remove(name);
+        if (token == null) {
+            return;
+        }
+        Path lease = leaseFile(name);
+        try {
+            // 只删除自己的租约，已被其他进程接手的不动
+            if (token.equals(readToken(lease))) {
+                Files.deleteIfExists(lease);
+            }
+        } catch (IOException e) {
+            logger.warn("归还租约{}失败", name, e);
+        }
+    }
+
+    /**
+     * 其他进程是否持有name的有效租约
+     */
+    public boolean isHeldByOthers(String name) throws IOException {
+        if (held.containsKey(name)) {
+            return false;
+        }
+        Path lease = leaseFile(name);
+        return Files.exists(lease) && !isExpired(lease);
+    }
+
+    /**
+     * 刷新本进程持有的所有租约的修改时间，已被其他进程接手的租约不再持有。
+     * 租约文件不存在时可能正被其他进程改名检查、随后还回来，留到下次心跳再判断
+     */
+    public void renewAll() {
+        for (Map.Entry<String, String> entry : held.entrySet()) {
+            Path lease = leaseFile(entry.getKey());
+            try {
+                String token = readToken(lease);
+                if (token == null) {
+                    logger.debug("租约{}暂时不存在，下次心跳再刷新", entry.getKey());
+                    continue;
+                }
+                if (!entry.getValue().equals(token)) {
+                    held.remove(entry.getKey(), entry.getValue());
+                    logger.warn("租约{}已被其他工作进程接手", entry.getKey());
+                    continue;
+                }
+                Files.setLastModifiedTime(lease, FileTime.fromMillis(clockMs.getAsLong()));
+            } catch (NoSuchFileException e) {
+                logger.debug("租约{}暂时不存在，下次心跳再刷新", entry.getKey());
+            } catch (IOException e) {
+                logger.warn("刷新租约{}失败", entry.getKey(), e);
+            }
+        }
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * 停止心跳并归还所有租约
+     */
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+        for (String name : held.keySet()) {
+            release(name);
+        }
+    }
+
+    private boolean create(String name) throws IOException {
+        Path lease = leaseFile(name);
+        String token = workerId + " " + UUID.randomUUID();
+        try {
+            Files.write(lease, token.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+        Files.setLastModifiedTime(lease, FileTime.fromMillis(clockMs.getAsLong()));
+        held.put(name, token);
+        return true;
+    }
+
+    private boolean isExpired(Path lease) throws IOException {
+        try {
+            return clockMs.getAsLong() - Files.getLastModifiedTime(lease).toMillis() > ttlMs;
+        } catch (NoSuchFileException e) {
+            // 已经被归还或接手，按过期处理，由创建文件决定归属
+            return true;
+        }
+    }
+
+    private static String readToken(Path lease) throws IOException {
+        try {
+            return new String(Files.readAllBytes(lease), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static String readOwner(Path lease) throws IOException {
+        String token = readToken(lease);
+        if (token == null) {
+            return "未知";
+        }
+        int space = token.indexOf(' ');
+        return space > 0 ? token.substring(0, space) : token;
+    }
+
+    private Path leaseFile(String name) {
+        return directory.resolve(name + LEASE_SUFFIX);
+    }
+}
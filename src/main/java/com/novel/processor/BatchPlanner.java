@@ -0,0 +1,177 @@
+package com.novel.processor;
+
+import com.novel.model.Batch;
+import com.novel.model.Chapter;
+import com.novel.service.GeminiApiService;
+import com.novel.util.Constants;
+import com.novel.util.TokenEstimator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 按输入token预算规划分割批次。
+ * 用本地估算器统计每章的token数，把连续章节装入同一批次直到达到预算或章节数上限，
+ * 章节短时一次请求处理更多章节，在固定的每分钟请求数下减少请求次数；
+ * 可选地调用countTokens接口校准本地估算
+ */
+public class BatchPlanner {
+    private static final Logger logger = LoggerFactory.getLogger(BatchPlanner.class);
+    // 用于countTokens校准的样本最大字节数
+    private static final int CALIBRATION_SAMPLE_BYTES = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    private final int inputTokenBudget;
+    private final int maxChaptersPerBatch;
+    private final GeminiApiService tokenCounter;
+
+    public BatchPlanner() {
+        this(null);
+    }
+
+    /**
+     * @param tokenCounter 用于校准估算的API服务，为null时只使用本地估算
+     */
+    public BatchPlanner(GeminiApiService tokenCounter) {
+        this(Constants.MAX_INPUT_TOKENS_PER_BATCH, Constants.MAX_CHAPTERS_PER_BATCH, tokenCounter);
+    }
+
+    public BatchPlanner(int inputTokenBudget, int maxChaptersPerBatch, GeminiApiService tokenCounter) {
+        this.inputTokenBudget = inputTokenBudget;
+        this.maxChaptersPerBatch = maxChaptersPerBatch;
+        this.tokenCounter = tokenCounter;
+    }
+
+    /**
+     * 为已验证的章节生成批次计划，每个批次覆盖原文件中一段连续的字节范围
+     */
+    public List<Batch> plan(File novelFile, List<Chapter> chapters) throws IOException {
+        List<Chapter> inFileOrder = new ArrayList<>(chapters);
+        inFileOrder.sort(Comparator.comparingLong(Chapter::getByteOffset));
+        int count = inFileOrder.size();
+        List<Batch> batches = new ArrayList<>();
+        if (count == 0) {
+            return batches;
+        }
+
+        try (FileChannel channel = FileChannel.open(novelFile.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+
+            // 每章的范围截止到下一章的起始位置，最后一章截止到文件末尾
+            long[] starts = new long[count];
+            long[] ends = new long[count];
+            int[] tokens = new int[count];
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            TokenEstimator estimator = new TokenEstimator();
+            for (int i = 0; i < count; i++) {
+                starts[i] = inFileOrder.get(i).getByteOffset();
+                ends[i] = i + 1 < count ? inFileOrder.get(i + 1).getByteOffset() : fileSize;
+                tokens[i] = estimate(channel, starts[i], ends[i], buffer, estimator);
+            }
+
+            double ratio = calibrate(channel, starts[0], ends[0]);
+            int budget = inputTokenBudget - Constants.PROMPT_TOKEN_RESERVE;
+
+            int batchStart = 0;
+            int batchTokens = 0;
+            for (int i = 0; i < count; i++) {
+                int chapterTokens = (int) Math.ceil(tokens[i] * ratio);
+                int batchSize = i - batchStart;
+                if (batchSize > 0 && (batchTokens + chapterTokens > budget || batchSize >= maxChaptersPerBatch)) {
+                    batches.add(toBatch(batches.size() + 1, inFileOrder, batchStart, i, starts, ends, batchTokens));
+                    batchStart = i;
+                    batchTokens = 0;
+                }
+                if (chapterTokens > budget) {
+                    logger.warn("第{}章预估{}个token，超过单批次预算{}，将单独成批",
+                            inFileOrder.get(i).getNumber(), chapterTokens, budget);
+                }
+                batchTokens += chapterTokens;
+            }
+            batches.add(toBatch(batches.size() + 1, inFileOrder, batchStart, count, starts, ends, batchTokens));
+        }
+
+        logger.info("批次规划完成: {}个章节分为{}批，单批输入token预算{}，每批最多{}章",
+                count, batches.size(), inputTokenBudget, maxChaptersPerBatch);
+        return batches;
+    }
+
+    private static Batch toBatch(int fileIndex, List<Chapter> inFileOrder, int from, int to,
+                                 long[] starts, long[] ends, int tokens) {
+        int startChapter = Integer.MAX_VALUE;
+        int endChapter = Integer.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            startChapter = Math.min(startChapter, inFileOrder.get(i).getNumber());
+            endChapter = Math.max(endChapter, inFileOrder.get(i).getNumber());
+        }
+        return new Batch(fileIndex, startChapter, endChapter, to - from,
+                starts[from], ends[to - 1] - starts[from], tokens);
+    }
+
+    private static int estimate(FileChannel channel, long start, long end, ByteBuffer buffer,
+                                TokenEstimator estimator) throws IOException {
+        estimator.reset();
+        long position = start;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            estimator.update(buffer);
+            position += read;
+        }
+        return estimator.getTokens();
+    }
+
+    /**
+     * 用第一章开头的样本调用countTokens，返回实际token数与本地估算的比例，失败时返回1
+     */
+    private double calibrate(FileChannel channel, long start, long end) {
+        if (tokenCounter == null) {
+            return 1.0;
+        }
+        try {
+            // 多读一个字节，用来判断截断位置是否落在多字节字符中间
+            ByteBuffer sample = ByteBuffer.allocate((int) Math.min(CALIBRATION_SAMPLE_BYTES + 1, end - start));
+            channel.read(sample, start);
+            sample.flip();
+            if (sample.limit() < end - start) {
+                // 没有读到章节末尾时把截断位置退回到UTF-8字符的首字节，不把半个字符交给解码
+                int cut = sample.limit() - 1;
+                while (cut > 0 && (sample.get(cut) & 0xC0) == 0x80) {
+                    cut--;
+                }
+                sample.limit(cut);
+            }
+
+            TokenEstimator estimator = new TokenEstimator();
+            estimator.update(sample);
+            int estimated = estimator.getTokens();
+            int actual = tokenCounter.countTokens(StandardCharsets.UTF_8.decode(sample).toString());
+            if (estimated <= 0 || actual <= 0) {
+                return 1.0;
+            }
+
+            // 限制校准比例，避免异常样本导致批次过大或过小
+            double ratio = Math.max(0.3, Math.min(3.0, (double) actual / estimated));
+            logger.info("token估算校准: 本地估算{}，countTokens结果{}，校准比例{}", estimated, actual,
+                    String.format("%.2f", ratio));
+            return ratio;
+        } catch (Exception e) {
+            logger.warn("调用countTokens校准失败，使用本地估算", e);
+            return 1.0;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.novel.processor;
+
+import com.novel.model.Chapter;
+import com.novel.util.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * 章节偏移索引，以二进制sidecar文件（如 牧神记.txt.idx）保存在小说文件旁边。
+ * 按出现顺序记录每个章节标题的章节号、标题、行号、字节偏移和长度，
+ * 以文件大小、修改时间和内容哈希为键，小说未变化时直接加载，不再重新扫描
+ */
+public class ChapterIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ChapterIndex.class);
+    private static final int MAGIC = 0x4E434958;  // "NCIX"
+    private static final int VERSION = 3;  // 2：识别中文数字章节号；3：三百五按350解码。旧索引需要重新扫描
+    private static final int HEADER_BYTES = 36;  // 魔数、版本、大小、修改时间、哈希、章节数
+    private static final int MIN_ENTRY_BYTES = 26;  // 章节号、行号、偏移、长度，以及空标题的2字节长度前缀
+
+    private final long fileSize;
+    private final long lastModified;
+    private final long contentHash;
+    private final List<Chapter> chapters;
+
+    private ChapterIndex(long fileSize, long lastModified, long contentHash, List<Chapter> chapters) {
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.contentHash = contentHash;
+        this.chapters = Collections.unmodifiableList(chapters);
+    }
+
+    /**
+     * 加载小说的章节索引，索引不存在或已过期时重新扫描并保存
+     */
+    public static ChapterIndex loadOrBuild(File novelFile) throws IOException {
+        return loadOrBuild(novelFile, new ParallelChapterScanner());
+    }
+
+    /**
+     * 加载小说的章节索引，索引不存在或已过期时用指定的扫描器重新扫描并保存
+     */
+    public static ChapterIndex loadOrBuild(File novelFile, ChapterScanner scanner) throws IOException {
+        Path indexPath = indexPathFor(novelFile);
+        // 先取文件属性再扫描，扫描期间文件被修改时下次运行会重建索引
+        long size = novelFile.length();
+        long mtime = novelFile.lastModified();
+
+        ChapterIndex existing = read(indexPath);
+        if (existing != null && existing.fileSize == size) {
+            if (existing.lastModified == mtime) {
+                logger.info("使用已有章节索引: {}，共{}个章节", indexPath, existing.chapters.size());
+                return existing;
+            }
+            // 仅修改时间变化时校验内容哈希，内容未变则沿用索引
+            long hash = contentHash(novelFile);
+            if (hash == existing.contentHash) {
+                ChapterIndex refreshed = new ChapterIndex(size, mtime, hash, existing.chapters);
+                refreshed.write(indexPath);
+                logger.info("小说内容未变化，沿用章节索引: {}", indexPath);
+                return refreshed;
+            }
+        }
+
+        logger.info("章节索引不存在或已过期，重新扫描小说: {}", novelFile);
+        List<Chapter> chapters = scanner.scan(novelFile);
+        ChapterIndex built = new ChapterIndex(size, mtime, contentHash(novelFile), new ArrayList<>(chapters));
+        built.write(indexPath);
+        return built;
+    }
+
+    /**
+     * 小说文件对应的索引文件路径
+     */
+    public static Path indexPathFor(File novelFile) {
+        return novelFile.toPath().resolveSibling(novelFile.getName() + Constants.CHAPTER_INDEX_SUFFIX);
+    }
+
+    /**
+     * 按出现顺序返回所有章节标题（包含重复的章节号）
+     */
+    public List<Chapter> getChapters() {
+        return chapters;
+    }
+
+    /**
+     * 读取索引文件，文件不存在或格式不正确时返回null
+     */
+    private static ChapterIndex read(Path indexPath) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.warn("章节索引格式不正确，将重新生成: {}", indexPath);
+                return null;
+            }
+            long fileSize = in.readLong();
+            long lastModified = in.readLong();
+            long contentHash = in.readLong();
+            int count = in.readInt();
+            // 章节数来自文件本身，按剩余长度校验后再分配，损坏的值按索引损坏处理
+            if (count < 0 || count > (Files.size(indexPath) - HEADER_BYTES) / MIN_ENTRY_BYTES) {
+                logger.warn("章节索引记录的章节数{}与文件长度不符，将重新生成: {}", count, indexPath);
+                return null;
+            }
+
+            List<Chapter> chapters = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int number = in.readInt();
+                int lineNumber = in.readInt();
+                long byteOffset = in.readLong();
+                long byteLength = in.readLong();
+                String title = in.readUTF();
+                chapters.add(new Chapter(number, title, lineNumber, byteOffset, byteLength));
+            }
+            return new ChapterIndex(fileSize, lastModified, contentHash, chapters);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warn("读取章节索引失败，将重新生成: {}", indexPath, e);
+            return null;
+        }
+    }
+
+    /**
+     * 先写临时文件再原子替换，写入失败只影响下次运行的加载速度
+     */
+    private void write(Path indexPath) {
+        Path tempPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(fileSize);
+                out.writeLong(lastModified);
+                out.writeLong(contentHash);
+                out.writeInt(chapters.size());
+                for (Chapter chapter : chapters) {
+                    out.writeInt(chapter.getNumber());
+                    out.writeInt(chapter.getLineNumber());
+                    out.writeLong(chapter.getByteOffset());
+                    out.writeLong(chapter.getByteLength());
+                    out.writeUTF(chapter.getTitle() != null ? chapter.getTitle() : "");
+                }
+            }
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("已保存章节索引: {}，共{}个章节", indexPath, chapters.size());
+        } catch (IOException e) {
+            logger.warn("保存章节索引失败: {}", indexPath, e);
+        }
+    }
+
+    /**
+     * 计算小说内容的CRC32C哈希
+     */
+    static long contentHash(File novelFile) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(novelFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+                long length = Math.min(Integer.MAX_VALUE, size - position);
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -1,19 +1,49 @@
 package com.novel.processor;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.novel.metrics.PipelineMetrics;
+import com.novel.model.Batch;
 import com.novel.model.Chapter;
 import com.novel.util.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 public class ChapterProcessor {
     private static final Logger logger = LoggerFactory.getLogger(ChapterProcessor.class);
     private final List<Chapter> chapters = new ArrayList<>();
-    private static final Pattern CHAPTER_PATTERN = Pattern.compile("第\\d+章");
+    private final ChapterScanner chapterScanner = new ParallelChapterScanner();
+    private final BatchPlanner batchPlanner;
+    private final PipelineMetrics metrics;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    public ChapterProcessor() {
+        this(new BatchPlanner());
+    }
+
+    public ChapterProcessor(BatchPlanner batchPlanner) {
+        this(batchPlanner, PipelineMetrics.getDefault());
+    }
+
+    /**
+     * @param metrics 记录建立索引、规划批次和写入分割文件的耗时
+     */
+    public ChapterProcessor(BatchPlanner batchPlanner, PipelineMetrics metrics) {
+        this.batchPlanner = batchPlanner;
+        this.metrics = metrics;
+    }
 
     /**
      * 验证小说章节是否按顺序递增，是否有重复或缺失
@@ -21,64 +51,8 @@ public class ChapterProcessor {
     public boolean validateChapters(File novelFile) {
         logger.info("开始验证章节...");
         
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                new FileInputStream(novelFile), StandardCharsets.UTF_8))) {
-            
-            String line;
-            int lineNumber = 0;
-            Set<Integer> chapterNumbers = new HashSet<>();
-            List<Integer> missingChapters = new ArrayList<>();
-            List<Integer> duplicateChapters = new ArrayList<>();
-            
-            while ((line = reader.readLine()) != null) {
-                lineNumber++;
-                if (lineNumber % 1000 == 0) {
-                    logger.debug("正在处理第{}行", lineNumber);
-                }
-                
-                if (isChapterTitle(line)) {
-                    int chapterNumber = extractChapterNumber(line);
-                    if (chapterNumber > 0 && chapterNumber <= Constants.MAX_CHAPTER_NUMBER) {
-                        if (chapterNumbers.contains(chapterNumber)) {
-                            logger.warn("发现重复章节: 第{}章，行号: {}", chapterNumber, lineNumber);
-                            duplicateChapters.add(chapterNumber);
-                        } else {
-                            chapterNumbers.add(chapterNumber);
-                            chapters.add(new Chapter(chapterNumber, line.trim(), lineNumber));
-                            logger.info("成功添加章节: {}", line.trim());
-                        }
-                    }
-                }
-            }
-            
-            // 检查章节是否连续
-            if (!chapterNumbers.isEmpty()) {
-                int maxChapter = Collections.max(chapterNumbers);
-                for (int i = 1; i <= maxChapter; i++) {
-                    if (!chapterNumbers.contains(i)) {
-                        logger.warn("缺失章节: 第{}章", i);
-                        missingChapters.add(i);
-                    }
-                }
-            }
-            
-            // 排序章节
-            chapters.sort(Comparator.comparingInt(Chapter::getNumber));
-            
-            // 检查是否有问题
-            if (!missingChapters.isEmpty() || !duplicateChapters.isEmpty()) {
-                if (!missingChapters.isEmpty()) {
-                    logger.error("缺失章节列表: {}", missingChapters);
-                }
-                if (!duplicateChapters.isEmpty()) {
-                    logger.error("重复章节列表: {}", duplicateChapters);
-                }
-                return false;
-            }
-            
-            logger.info("章节验证通过，共发现{}个章节", chapters.size());
-            return true;
-            
+        try {
+            return validate(ChapterIndex.loadOrBuild(novelFile, chapterScanner).getChapters());
         } catch (IOException e) {
             logger.error("验证章节时出错", e);
             return false;
@@ -86,103 +60,219 @@ public class ChapterProcessor {
     }
 
     /**
-     * 判断是否是章节标题
+     * 对扫描到的章节标题（按出现顺序）做重复和缺失检查，通过后保存排好序的章节列表
      */
-    private static boolean isChapterTitle(String line) {
-        return line != null && CHAPTER_PATTERN.matcher(line).find();
+    private boolean validate(List<Chapter> scannedChapters) {
+        Set<Integer> chapterNumbers = new HashSet<>();
+        List<Integer> duplicateChapters = new ArrayList<>();
+        chapters.clear();
+
+        for (Chapter chapter : scannedChapters) {
+            int chapterNumber = chapter.getNumber();
+            if (chapterNumber > 0 && chapterNumber <= Constants.MAX_CHAPTER_NUMBER) {
+                if (!chapterNumbers.add(chapterNumber)) {
+                    logger.warn("发现重复章节: 第{}章，行号: {}", chapterNumber, chapter.getLineNumber());
+                    duplicateChapters.add(chapterNumber);
+                } else {
+                    chapters.add(chapter);
+                    logger.info("成功添加章节: {}", chapter.getTitle());
+                }
+            }
+        }
+
+        // 检查章节是否连续
+        List<Integer> missingChapters = findMissingChapters(chapterNumbers);
+
+        // 排序章节
+        chapters.sort(Comparator.comparingInt(Chapter::getNumber));
+
+        // 检查是否有问题
+        if (hasProblems(missingChapters, duplicateChapters)) {
+            return false;
+        }
+
+        logger.info("章节验证通过，共发现{}个章节", chapters.size());
+        return true;
     }
 
     /**
-     * 提取章节号
+     * 找出1到最大章节号之间缺失的章节
      */
-    private static int extractChapterNumber(String line) {
-        try {
-            String numStr = line.substring(line.indexOf("第") + 1, line.indexOf("章"));
-            return Integer.parseInt(numStr);
-        } catch (Exception e) {
-            return -1;
+    private static List<Integer> findMissingChapters(Set<Integer> chapterNumbers) {
+        List<Integer> missingChapters = new ArrayList<>();
+        if (!chapterNumbers.isEmpty()) {
+            int maxChapter = Collections.max(chapterNumbers);
+            for (int i = 1; i <= maxChapter; i++) {
+                if (!chapterNumbers.contains(i)) {
+                    logger.warn("缺失章节: 第{}章", i);
+                    missingChapters.add(i);
+                }
+            }
         }
+        return missingChapters;
     }
 
     /**
-     * 按章节分割小说并每10章合并为一个文件
+     * 输出缺失和重复章节，存在问题时返回true
      */
-    public boolean splitNovelByChapters(File novelFile) {
-        if (chapters.isEmpty()) {
-            logger.error("没有找到有效的章节，无法分割小说");
-            return false;
+    private static boolean hasProblems(List<Integer> missingChapters, List<Integer> duplicateChapters) {
+        if (!missingChapters.isEmpty()) {
+            logger.error("缺失章节列表: {}", missingChapters);
         }
+        if (!duplicateChapters.isEmpty()) {
+            logger.error("重复章节列表: {}", duplicateChapters);
+        }
+        return !missingChapters.isEmpty() || !duplicateChapters.isEmpty();
+    }
+
+    /**
+     * 验证章节并分割小说。
+     * 章节边界来自章节索引（索引有效时无需重新扫描），验证通过后由BatchPlanner按token预算规划批次，
+     * 再按字节范围用FileChannel.transferTo把原文件片段直接复制到各分割文件，不做解码和重新编码，
+     * 分割文件与原文件片段逐字节一致。分割文件和批次计划全部写入临时目录后才原子替换为分割目录
+     */
+    public boolean validateAndSplitChapters(File novelFile) {
+        return validateAndSplitChapters(novelFile, Paths.get(Constants.SPLIT_CHAPTERS_DIR));
+    }
+
+    /**
+     * 验证章节并把小说分割到指定目录
+     */
+    public boolean validateAndSplitChapters(File novelFile, Path targetDir) {
+        logger.info("开始验证并分割章节...");
 
+        Path tempDir = null;
         try {
-            File outputDir = new File("output");
-            if (!outputDir.exists() && !outputDir.mkdirs()) {
-                logger.error("创建输出目录失败");
+            long start = metrics.now();
+            List<Chapter> scannedChapters = ChapterIndex.loadOrBuild(novelFile, chapterScanner).getChapters();
+            metrics.recordStage("index", metrics.now() - start);
+            if (!validate(scannedChapters)) {
                 return false;
             }
-
-            // 读取所有内容
-            List<String> allLines = new ArrayList<>();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                    new FileInputStream(novelFile), StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    allLines.add(line);
-                }
+            if (chapters.isEmpty()) {
+                logger.error("没有找到有效的章节，无法分割小说");
+                return false;
             }
 
-            // 按每10章分组处理
-            int totalChapters = chapters.size();
-            int fileIndex = 1;
-            
-            for (int i = 0; i < totalChapters; i += Constants.CHAPTERS_PER_FILE) {
-                int endIndex = Math.min(i + Constants.CHAPTERS_PER_FILE, totalChapters);
-                
-                // 获取当前文件的内容范围
-                int startLine = chapters.get(i).getLineNumber() - 1;  // 0-based index
-                int endLine;
-                
-                if (endIndex < totalChapters) {
-                    // 如果不是最后一组，使用下一章的起始行作为结束位置
-                    endLine = chapters.get(endIndex).getLineNumber() - 1;
-                } else {
-                    // 如果是最后一组，使用文件总行数作为结束位置
-                    endLine = allLines.size();
+            // 第一章之前的内容不属于任何批次，最后一批截止到文件末尾
+            start = metrics.now();
+            List<Batch> batches = batchPlanner.plan(novelFile, chapters);
+            metrics.recordStage("plan", metrics.now() - start);
+
+            start = metrics.now();
+            Files.createDirectories(targetDir.getParent());
+            tempDir = Files.createTempDirectory(targetDir.getParent(), targetDir.getFileName() + ".tmp-");
+
+            try (FileChannel source = FileChannel.open(novelFile.toPath(), StandardOpenOption.READ)) {
+                for (Batch batch : batches) {
+                    transferRange(source, batch.getByteOffset(), batch.getByteLength(),
+                            tempDir.resolve(batch.getFileName()));
+                    logger.info("已创建文件: {} ({}章，预估{}个token)",
+                            batch.getFileName(), batch.getChapterCount(), batch.getEstimatedTokens());
                 }
-                
-                // 准备当前文件内容
-                List<String> content = new ArrayList<>(allLines.subList(startLine, endLine));
-                
-                // 计算文件名中的章节范围
-                int startChapter = ((i / Constants.CHAPTERS_PER_FILE) * Constants.CHAPTERS_PER_FILE) + 1;
-                int endChapter = Math.min(startChapter + Constants.CHAPTERS_PER_FILE - 1, Constants.MAX_CHAPTER_NUMBER);
-                
-                // 创建文件名
-                String fileName = String.format("%03d第%d-%d章.txt",
-                        fileIndex++,
-                        startChapter,
-                        endChapter);
-                
-                // 写入文件
-                writeToFile(new File(outputDir, fileName), content);
-                logger.info("已创建文件: {} (实际包含第{}章到第{}章)", 
-                    fileName, 
-                    chapters.get(i).getNumber(), 
-                    chapters.get(endIndex - 1).getNumber());
             }
+            Files.writeString(tempDir.resolve(Constants.BATCH_PLAN_FILE_NAME), gson.toJson(batches),
+                    StandardCharsets.UTF_8);
 
+            replaceDirectory(tempDir, targetDir);
+            metrics.recordStage("split", metrics.now() - start);
+            logger.info("小说分割完成，共生成{}个文件", batches.size());
             return true;
+
         } catch (IOException e) {
-            logger.error("分割小说时出错", e);
+            logger.error("验证并分割章节时出错", e);
+            if (tempDir != null) {
+                try {
+                    deleteDirectory(tempDir);
+                } catch (IOException ex) {
+                    logger.warn("清理临时目录失败: {}", tempDir, ex);
+                }
+            }
             return false;
         }
     }
 
-    private void writeToFile(File file, List<String> content) throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
-                new FileOutputStream(file), StandardCharsets.UTF_8))) {
-            for (String line : content) {
-                writer.write(line);
-                writer.newLine();
+    /**
+     * 将原文件[position, position + count)的字节复制到目标文件，由操作系统完成零拷贝传输
+     */
+    private static void transferRange(FileChannel source, long position, long count, Path target) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (count > 0) {
+                long transferred = source.transferTo(position, count, out);
+                if (transferred <= 0) {
+                    throw new IOException("原文件长度不足，复制章节内容失败: " + target);
+                }
+                position += transferred;
+                count -= transferred;
+            }
+        }
+    }
+
+    /**
+     * 用临时目录替换目标目录：旧目录先移到固定的备份位置，新目录就位后再删除备份。
+     * 两次移动之间崩溃时目标目录暂时不存在，下次启动由recoverInterruptedReplace从备份恢复；
+     * 第二次移动失败时立即把备份移回
+     */
+    static void replaceDirectory(Path tempDir, Path targetDir) throws IOException {
+        recoverInterruptedReplace(targetDir);
+        Path backupDir = backupPathFor(targetDir);
+        boolean backedUp = false;
+        if (Files.exists(targetDir)) {
+            Files.move(targetDir, backupDir, StandardCopyOption.ATOMIC_MOVE);
+            backedUp = true;
+        }
+        try {
+            Files.move(tempDir, targetDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (backedUp) {
+                Files.move(backupDir, targetDir, StandardCopyOption.ATOMIC_MOVE);
+            }
+            throw e;
+        }
+        if (backedUp) {
+            deleteDirectory(backupDir);
+        }
+    }
+
+    /**
+     * 恢复被中断的分割目录替换，启动时在读取分割结果之前调用
+     */
+    public static void recoverSplitDirectory() throws IOException {
+        recoverInterruptedReplace(Paths.get(Constants.SPLIT_CHAPTERS_DIR));
+    }
+
+    /**
+     * 检查上次替换留下的备份：目标目录不存在说明在两次移动之间中断，把备份移回；
+     * 目标目录已经是新内容时备份只是没来得及删除
+     */
+    static void recoverInterruptedReplace(Path targetDir) throws IOException {
+        Path backupDir = backupPathFor(targetDir);
+        if (!Files.exists(backupDir)) {
+            return;
+        }
+        if (Files.exists(targetDir)) {
+            logger.info("删除上次替换遗留的备份目录: {}", backupDir);
+            deleteDirectory(backupDir);
+        } else {
+            logger.warn("上次替换分割目录时中断，从备份恢复: {}", targetDir);
+            Files.move(backupDir, targetDir, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static Path backupPathFor(Path targetDir) {
+        return targetDir.resolveSibling(targetDir.getFileName() + ".old");
+    }
+
+    private static void deleteDirectory(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            List<Path> toDelete = new ArrayList<>();
+            paths.forEach(toDelete::add);
+            Collections.reverse(toDelete);
+            for (Path path : toDelete) {
+                Files.delete(path);
             }
         }
     }
@@ -0,0 +1,224 @@
+package com.novel.processor;
+
+import com.novel.model.Chapter;
+import com.novel.util.ChapterNumberDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基于内存映射的章节标题扫描器。
+ * 直接在UTF-8字节上匹配行首的“[正文] 第N章”（章节号可以是阿拉伯数字或中文数字，由ChapterNumberDecoder解码），
+ * 只为命中的章节解码标题，不为每一行构造String，也不依赖正则和异常
+ */
+public class ChapterScanner {
+    private static final Logger logger = LoggerFactory.getLogger(ChapterScanner.class);
+
+    // 单次映射的最大字节数，超过时按行边界分窗口映射
+    private static final long MAX_MAP_SIZE = Integer.MAX_VALUE;
+
+    // 常用字符的UTF-8编码
+    private static final byte[] IDEOGRAPHIC_SPACE = {(byte) 0xE3, (byte) 0x80, (byte) 0x80};   // 全角空格
+    private static final byte[] BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    /**
+     * 扫描整个文件，按出现顺序返回所有章节标题（包含重复的章节号），
+     * 每个章节的字节长度截止到下一个章节标题或文件末尾
+     */
+    public List<Chapter> scan(File novelFile) throws IOException {
+        long startTime = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(novelFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            Matches matches = new Matches();
+            long position = 0;
+
+            while (position < size) {
+                long length = Math.min(MAX_MAP_SIZE, size - position);
+                boolean atEof = position + length == size;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                int consumed = scanWindow(buffer, (int) length, atEof, position, matches);
+                if (consumed == 0) {
+                    throw new IOException("单行长度超过映射窗口大小: " + novelFile);
+                }
+                position += consumed;
+            }
+
+            List<Chapter> result = matches.toChapters(size);
+            logger.info("扫描完成，共{}行，识别到{}个章节标题，耗时{}ms",
+                    matches.lineCount, result.size(), (System.nanoTime() - startTime) / 1_000_000);
+            return result;
+        }
+    }
+
+    /**
+     * 扫描一个映射窗口，返回已处理的字节数，未处理的不完整行留给下一个窗口
+     */
+    protected int scanWindow(ByteBuffer buffer, int length, boolean atEof, long position, Matches matches) {
+        return scanLines(buffer, 0, length, atEof, position, matches);
+    }
+
+    /**
+     * 扫描缓冲区[from, to)内的完整行，返回已处理到的位置（下一行的起始位置）。
+     * 不在文件末尾时，最后一个不完整的行留给下一个窗口处理
+     */
+    static int scanLines(ByteBuffer buffer, int from, int to, boolean atEof, long baseOffset, Matches matches) {
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = indexOfNewline(buffer, lineStart, to);
+            if (lineEnd < 0) {
+                if (!atEof) {
+                    break;
+                }
+                lineEnd = to;
+            }
+            matches.lineCount++;
+            matchTitle(buffer, lineStart, lineEnd, baseOffset, matches);
+            lineStart = lineEnd + 1;
+        }
+        return Math.min(lineStart, to);
+    }
+
+    private static int indexOfNewline(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 匹配一行是否为章节标题：[空白][正文[空白]]第<数字>章(空白|行尾)
+     */
+    private static void matchTitle(ByteBuffer buffer, int lineStart, int lineEnd, long baseOffset, Matches matches) {
+        int p = lineStart;
+        if (baseOffset + p == 0 && startsWith(buffer, p, lineEnd, BOM)) {
+            p += BOM.length;
+        }
+        p = skipSpaces(buffer, p, lineEnd);
+        int titleStart = p;
+
+        int number = ChapterNumberDecoder.parseTitle(buffer, titleStart, lineEnd);
+        if (number == ChapterNumberDecoder.NOT_FOUND) {
+            return;
+        }
+
+        int titleEnd = trimEnd(buffer, titleStart, lineEnd);
+        matches.add(number, baseOffset + lineStart, decode(buffer, titleStart, titleEnd), matches.lineCount);
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int p, int limit, byte[] prefix) {
+        if (limit - p < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(p + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 返回位置p处空白字符的字节长度，不是空白时返回0
+     */
+    private static int spaceLength(ByteBuffer buffer, int p, int limit) {
+        byte b = buffer.get(p);
+        if (b == ' ' || b == '\t') {
+            return 1;
+        }
+        return startsWith(buffer, p, limit, IDEOGRAPHIC_SPACE) ? IDEOGRAPHIC_SPACE.length : 0;
+    }
+
+    private static int skipSpaces(ByteBuffer buffer, int p, int limit) {
+        while (p < limit) {
+            int len = spaceLength(buffer, p, limit);
+            if (len == 0) {
+                break;
+            }
+            p += len;
+        }
+        return p;
+    }
+
+    private static int trimEnd(ByteBuffer buffer, int start, int end) {
+        while (end > start) {
+            byte b = buffer.get(end - 1);
+            if (b == '\r' || b == ' ' || b == '\t') {
+                end--;
+            } else if (end - start >= IDEOGRAPHIC_SPACE.length
+                    && startsWith(buffer, end - IDEOGRAPHIC_SPACE.length, end, IDEOGRAPHIC_SPACE)) {
+                end -= IDEOGRAPHIC_SPACE.length;
+            } else {
+                break;
+            }
+        }
+        return end;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 扫描结果的紧凑存储，按出现顺序记录章节号、行首字节偏移、标题和行号
+     */
+    static class Matches {
+        int size;
+        int lineCount;
+        int[] numbers = new int[256];
+        long[] offsets = new long[256];
+        int[] lineNumbers = new int[256];
+        String[] titles = new String[256];
+
+        void add(int number, long offset, String title, int lineNumber) {
+            if (size == numbers.length) {
+                int capacity = size * 2;
+                numbers = Arrays.copyOf(numbers, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+                titles = Arrays.copyOf(titles, capacity);
+            }
+            numbers[size] = number;
+            offsets[size] = offset;
+            lineNumbers[size] = lineNumber;
+            titles[size] = title;
+            size++;
+        }
+
+        /**
+         * 追加在文件中紧随其后的一段扫描结果，行号按本段的行数顺延
+         */
+        void append(Matches next) {
+            for (int i = 0; i < next.size; i++) {
+                add(next.numbers[i], next.offsets[i], next.titles[i], lineCount + next.lineNumbers[i]);
+            }
+            lineCount += next.lineCount;
+        }
+
+        List<Chapter> toChapters(long fileSize) {
+            List<Chapter> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                long end = i + 1 < size ? offsets[i + 1] : fileSize;
+                result.add(new Chapter(numbers[i], titles[i], lineNumbers[i], offsets[i], end - offsets[i]));
+            }
+            return result;
+        }
+    }
+}
@@ -3,44 +3,118 @@ package com.novel.processor;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
+import com.novel.metrics.PipelineMetrics;
 import com.novel.model.ApiRequest;
 import com.novel.model.ApiResponse;
+import com.novel.model.Batch;
 import com.novel.model.Chapter;
 import com.novel.service.ChapterFileService;
 import com.novel.service.GeminiApiService;
 import com.novel.service.RateLimiterService;
+import com.novel.util.CircuitBreaker;
 import com.novel.util.Constants;
+import com.novel.util.RequestBodyBuilder;
+import com.novel.util.TokenEstimator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 处理Gemini API的调用和结果处理
  */
 public class GeminiApiProcessor {
     private static final Logger logger = LoggerFactory.getLogger(GeminiApiProcessor.class);
+    // 读取阶段结束的标记
+    private static final BatchTask END_OF_BATCHES = new BatchTask(null, -1, null, null, 0);
+    private static final String REPORT_HEADER = "《牧神记》小说分析报告\n\n";
+    // 工作进程依次持有该租约生成最终报告
+    private static final String FINAL_REPORT_LEASE = "_final_report";
     private final GeminiApiService apiService;
     private final ChapterFileService fileService;
+    // 全局限流器，为null时由apiService自己限流（如密钥池中每个密钥的限流器）
     private final RateLimiterService rateLimiter;
+    // 与apiService共用的熔断器，打开期间不发出新的批次；为null时不检查
+    private final CircuitBreaker circuitBreaker;
     private final Gson gson;
     private final ExecutorService executor;
+    private final BatchJournal journal;
+    private final PipelineMetrics metrics;
+    // 服务端返回的实际token用量
+    private final AtomicLong promptTokens = new AtomicLong();
+    private final AtomicLong outputTokens = new AtomicLong();
+    // 工作进程模式下认领批次的租约，单进程运行时为null
+    private BatchLeases leases;
+    // 工作进程模式下本进程认领过的批次
+    private final Set<Integer> claimed = ConcurrentHashMap.newKeySet();
 
+    /**
+     * 不使用全局限流器，请求的节奏完全由apiService控制
+     *
+     * @param circuitBreaker apiService中各密钥共用的熔断器，打开期间暂停发出新的批次
+     */
+    public GeminiApiProcessor(
+            GeminiApiService apiService,
+            ChapterFileService fileService,
+            ExecutorService executor,
+            BatchJournal journal,
+            CircuitBreaker circuitBreaker) {
+        this(apiService, fileService, null, circuitBreaker, executor, journal, PipelineMetrics.getDefault());
+    }
+
+    /**
+     * @param journal 批次状态日志，续跑时跳过已完成的批次
+     */
     public GeminiApiProcessor(
             GeminiApiService apiService,
             ChapterFileService fileService,
             RateLimiterService rateLimiter,
-            ExecutorService executor) {
+            ExecutorService executor,
+            BatchJournal journal) {
+        this(apiService, fileService, rateLimiter, executor, journal, PipelineMetrics.getDefault());
+    }
+
+    /**
+     * @param metrics 记录各阶段耗时、token用量和批次进度
+     */
+    public GeminiApiProcessor(
+            GeminiApiService apiService,
+            ChapterFileService fileService,
+            RateLimiterService rateLimiter,
+            ExecutorService executor,
+            BatchJournal journal,
+            PipelineMetrics metrics) {
+        this(apiService, fileService, rateLimiter, null, executor, journal, metrics);
+    }
+
+    private GeminiApiProcessor(
+            GeminiApiService apiService,
+            ChapterFileService fileService,
+            RateLimiterService rateLimiter,
+            CircuitBreaker circuitBreaker,
+            ExecutorService executor,
+            BatchJournal journal,
+            PipelineMetrics metrics) {
         this.apiService = apiService;
         this.fileService = fileService;
         this.rateLimiter = rateLimiter;
+        this.circuitBreaker = circuitBreaker;
         this.executor = executor;
+        this.journal = journal;
+        this.metrics = metrics;
         this.gson = new GsonBuilder().setPrettyPrinting().create();
     }
 
@@ -50,31 +124,43 @@ public class GeminiApiProcessor {
     public boolean processChapterFiles() {
         logger.info("开始处理章节文件...");
 
-        try {
+        try (OrderedResultWriter resultWriter = new OrderedResultWriter(
+                Paths.get(Constants.FINAL_RESULT_FILE), REPORT_HEADER)) {
             // 获取所有章节文件
             List<File> chapterFiles = fileService.getAllChapterFiles();
-            List<Future<String>> futures = new ArrayList<>();
+            Map<Integer, Batch> batchPlan = loadBatchPlan();
+
+            // 提示词只读取一次
+            String prompt = loadPrompt();
 
-            // 提交任务
-            for (File chapterFile : chapterFiles) {
-                futures.add(executor.submit(() -> processChapterFile(chapterFile)));
+            // 已完成且结果文件存在的批次不再调用API，其余批次（包括上次在途的）重新排队
+            List<Integer> positions = new ArrayList<>();
+            List<String> remaining = new ArrayList<>();
+            boolean[] completed = new boolean[chapterFiles.size()];
+            for (int i = 0; i < chapterFiles.size(); i++) {
+                completed[i] = isCompleted(chapterFiles.get(i));
+                if (!completed[i]) {
+                    positions.add(i);
+                    remaining.add(chapterFiles.get(i).getName());
+                }
             }
+            journal.recordAll(remaining, BatchJournal.State.PENDING);
+            metrics.setBatchesTotal(chapterFiles.size());
+            logger.info("共{}个批次，已完成{}个，待处理{}个",
+                    chapterFiles.size(), chapterFiles.size() - remaining.size(), remaining.size());
 
-            // 收集结果
-            List<String> results = new ArrayList<>();
-            for (Future<String> future : futures) {
-                try {
-                    String result = future.get();
-                    if (result != null) {
-                        results.add(result);
-                    }
-                } catch (Exception e) {
-                    logger.error("获取API调用结果时出错", e);
+            // 已完成批次的内容轮到写出时才从结果文件读取
+            for (int i = 0; i < chapterFiles.size(); i++) {
+                if (completed[i]) {
+                    File chapterFile = chapterFiles.get(i);
+                    metrics.batchSkipped();
+                    resultWriter.completeLater(i, () -> readCompletedResult(chapterFile));
                 }
             }
 
-            // 合并结果
-            mergeResults(results);
+            runPipeline(chapterFiles, positions, batchPlan, prompt, resultWriter);
+            logger.info("已生成最终分析报告: {}，共{}个批次", Constants.FINAL_RESULT_FILE, resultWriter.getWritten());
+            logger.info("本次共消耗输入{}个token，输出{}个token", promptTokens.get(), outputTokens.get());
 
             logger.info("所有章节文件处理完成");
             return true;
@@ -83,56 +169,507 @@ public class GeminiApiProcessor {
             logger.error("处理章节文件时出错", e);
             return false;
         } finally {
-            executor.shutdown();
+            shutdown();
+        }
+    }
+
+    /**
+     * 工作进程模式：多个进程（可以在不同机器上）共用同一个输出目录，各自认领还没有结果文件的批次，不需要协调者。
+     * 读取阶段在构建请求之前认领批次，结果文件保存后或批次失败时归还；其他进程持有的批次先跳过，
+     * 持有者退出、租约过期后再接手。本进程失败的批次不再重试，留给其他进程各尝试一次。
+     * 所有批次都有了结果或者本进程都尝试过之后，各进程依次按当时已有的结果文件重新生成最终报告，
+     * 最后结束的进程写出的报告包含所有完成的批次
+     */
+    public boolean processAsWorker(BatchLeases leases) {
+        logger.info("工作进程{}开始处理章节文件...", leases.getWorkerId());
+        this.leases = leases;
+        try {
+            List<File> chapterFiles = fileService.getAllChapterFiles();
+            Map<Integer, Batch> batchPlan = loadBatchPlan();
+            String prompt = loadPrompt();
+            metrics.setBatchesTotal(chapterFiles.size());
+
+            // 其他进程完成的批次计为跳过
+            boolean[] counted = new boolean[chapterFiles.size()];
+            while (true) {
+                List<Integer> positions = new ArrayList<>();
+                boolean othersBusy = false;
+                for (int i = 0; i < chapterFiles.size(); i++) {
+                    File chapterFile = chapterFiles.get(i);
+                    if (hasResult(chapterFile)) {
+                        if (!counted[i] && !claimed.contains(i)) {
+                            metrics.batchSkipped();
+                        }
+                        counted[i] = true;
+                    } else if (leases.isHeldByOthers(chapterFile.getName())) {
+                        othersBusy = true;
+                    } else if (!claimed.contains(i)) {
+                        positions.add(i);
+                    }
+                }
+                if (positions.isEmpty() && !othersBusy) {
+                    break;
+                }
+
+                int claimedBefore = claimed.size();
+                if (!positions.isEmpty()) {
+                    logger.info("工作进程{}尝试认领{}个批次", leases.getWorkerId(), positions.size());
+                    runPipeline(chapterFiles, positions, batchPlan, prompt, null);
+                }
+                // 没有认领到任何批次时等其他进程完成或者它们的租约过期
+                if (claimed.size() == claimedBefore) {
+                    Thread.sleep(Constants.LEASE_POLL_INTERVAL_MS);
+                }
+            }
+
+            writeFinalReport(chapterFiles);
+            logger.info("工作进程{}处理了{}个批次，共消耗输入{}个token，输出{}个token",
+                    leases.getWorkerId(), claimed.size(), promptTokens.get(), outputTokens.get());
+            return true;
+
+        } catch (Exception e) {
+            logger.error("处理章节文件时出错", e);
+            return false;
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * 按当时已有的结果文件重新生成最终报告，写入临时文件后原子替换，各工作进程依次持有同一个租约写出
+     */
+    private void writeFinalReport(List<File> chapterFiles) throws Exception {
+        while (!leases.tryAcquire(FINAL_REPORT_LEASE)) {
+            Thread.sleep(Constants.LEASE_POLL_INTERVAL_MS);
+        }
+        try {
+            Path target = Paths.get(Constants.FINAL_RESULT_FILE);
+            Path temp = target.resolveSibling(target.getFileName() + "." + leases.getWorkerId() + ".tmp");
+            int written;
+            try (OrderedResultWriter resultWriter = new OrderedResultWriter(temp, REPORT_HEADER)) {
+                for (int i = 0; i < chapterFiles.size(); i++) {
+                    File chapterFile = chapterFiles.get(i);
+                    resultWriter.completeLater(i,
+                            hasResult(chapterFile) ? () -> readCompletedResult(chapterFile) : null);
+                }
+                written = resultWriter.getWritten();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("已生成最终分析报告: {}，共{}个批次", Constants.FINAL_RESULT_FILE, written);
+        } finally {
+            leases.release(FINAL_REPORT_LEASE);
+        }
+    }
+
+    /**
+     * 工作进程模式下认领批次。认领之后再检查一次结果文件：其他进程可能在扫描之后刚完成并归还了它
+     */
+    private boolean claim(File chapterFile, int position) {
+        try {
+            if (!leases.tryAcquire(chapterFile.getName())) {
+                return false;
+            }
+            if (hasResult(chapterFile)) {
+                leases.release(chapterFile.getName());
+                return false;
+            }
+            claimed.add(position);
+            return true;
+        } catch (Exception e) {
+            logger.warn("认领批次{}失败", chapterFile.getName(), e);
+            return false;
+        }
+    }
+
+    private void releaseLease(File chapterFile) {
+        if (leases != null) {
+            leases.release(chapterFile.getName());
+        }
+    }
+
+    private void shutdown() {
+        executor.shutdown();
+        if (rateLimiter != null) {
             rateLimiter.shutdown();
         }
+        try {
+            journal.close();
+        } catch (Exception e) {
+            logger.warn("关闭批次日志失败", e);
+        }
     }
 
     /**
-     * 处理单个章节文件
+     * 读取批次计划，获取各批次的预估token数
      */
-    private String processChapterFile(File chapterFile) {
-        logger.info("处理章节文件: {}", chapterFile.getName());
+    private Map<Integer, Batch> loadBatchPlan() throws Exception {
+        Map<Integer, Batch> batchPlan = new HashMap<>();
+        for (Batch batch : fileService.loadBatchPlan()) {
+            batchPlan.put(batch.getFileIndex(), batch);
+        }
+        return batchPlan;
+    }
 
+    /**
+     * 批次是否已完成：日志中标记为完成且结果文件存在
+     */
+    private boolean isCompleted(File chapterFile) throws Exception {
+        if (journal.getState(chapterFile.getName()) != BatchJournal.State.DONE) {
+            return false;
+        }
+        if (!hasResult(chapterFile)) {
+            logger.warn("批次{}已标记完成但结果文件缺失，重新处理", chapterFile.getName());
+            return false;
+        }
+        return true;
+    }
+
+    private boolean hasResult(File chapterFile) throws Exception {
+        return fileService.hasAnalysisResult(resultFileName(fileService.parseChapterInfo(chapterFile)));
+    }
+
+    /**
+     * 读取已完成批次保存的分析内容
+     */
+    private String readCompletedResult(File chapterFile) throws Exception {
+        String json = fileService.readAnalysisResult(resultFileName(fileService.parseChapterInfo(chapterFile)));
+        return gson.fromJson(json, JsonObject.class).get("analysis").getAsString();
+    }
+
+    /**
+     * 分阶段处理待处理的批次，阶段之间用有界的队列和名额连接：
+     * 读取线程按顺序读取章节文件并构建请求体，放入长度为PREPARED_BATCH_QUEUE_SIZE的队列，队列满时等待；
+     * 当前线程按顺序取出批次，先等待在途名额（MAX_IN_FLIGHT_BATCHES），再等待限流额度，然后发出异步调用；
+     * 响应在executor中保存，保存后释放在途名额，结果交给重排序缓冲区时只登记从结果文件读取内容的方法。
+     * 同时在内存中的请求体不超过队列长度加在途上限，与批次总数无关
+     */
+    private void runPipeline(List<File> chapterFiles, List<Integer> positions, Map<Integer, Batch> batchPlan,
+                             String prompt, OrderedResultWriter resultWriter) throws Exception {
+        BlockingQueue<BatchTask> prepared = new ArrayBlockingQueue<>(Constants.PREPARED_BATCH_QUEUE_SIZE);
+        Semaphore inFlight = new Semaphore(Constants.MAX_IN_FLIGHT_BATCHES);
+        CountDownLatch finished = new CountDownLatch(positions.size());
+        AtomicReference<Exception> writeError = new AtomicReference<>();
+        AtomicReference<Throwable> readError = new AtomicReference<>();
+
+        Thread reader = new Thread(() -> readBatches(chapterFiles, positions, batchPlan, prompt, prepared,
+                finished, resultWriter, writeError, readError), "batch-reader");
+        reader.setDaemon(true);
+        reader.start();
         try {
-            // 读取章节内容
-            String content = fileService.readChapterContent(chapterFile);
+            BatchTask task;
+            while ((task = prepared.take()) != END_OF_BATCHES) {
+                inFlight.acquire();
+                dispatch(task, inFlight, finished, resultWriter, writeError);
+            }
+            Throwable readFailure = readError.get();
+            if (readFailure != null) {
+                // 读取线程异常退出，剩下的批次不会再完成；等已经发出的批次结束后报告错误
+                inFlight.acquire(Constants.MAX_IN_FLIGHT_BATCHES);
+                if (readFailure instanceof Exception) {
+                    throw (Exception) readFailure;
+                }
+                throw new IllegalStateException("读取批次失败", readFailure);
+            }
+            finished.await();
+        } finally {
+            reader.interrupt();
+        }
 
-            // 解析章节信息
-            Chapter chapter = fileService.parseChapterInfo(chapterFile);
+        if (writeError.get() != null) {
+            throw writeError.get();
+        }
+    }
 
-            // 构建提示词
-            String prompt = loadPrompt();
-            prompt = prompt + "\n\n以下是《牧神记》第" + chapter.getStartChapter() + 
-                    "章到第" + chapter.getEndChapter() + "章的内容：\n\n" + content;
+    /**
+     * 读取阶段：按顺序为每个批次构建请求，准备失败的批次直接记为失败。
+     * 工作进程模式下先认领批次，没有认领到的直接跳过。
+     * 无论是否异常退出都会放入结束标记，异常记录在readError中由调度线程抛出
+     */
+    private void readBatches(List<File> chapterFiles, List<Integer> positions, Map<Integer, Batch> batchPlan,
+                             String prompt, BlockingQueue<BatchTask> prepared, CountDownLatch finished,
+                             OrderedResultWriter resultWriter, AtomicReference<Exception> writeError,
+                             AtomicReference<Throwable> readError) {
+        try {
+            for (int position : positions) {
+                File chapterFile = chapterFiles.get(position);
+                if (leases != null && !claim(chapterFile, position)) {
+                    finished.countDown();
+                    continue;
+                }
+                metrics.batchStarted();
+                long start = metrics.now();
+                BatchTask task;
+                try {
+                    task = prepareBatch(chapterFile, position, batchPlan, prompt);
+                } catch (Exception e) {
+                    batchFailed(chapterFile, position, e, resultWriter, writeError);
+                    finished.countDown();
+                    continue;
+                }
+                metrics.recordStage("prepare", metrics.now() - start);
+                prepared.put(task);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            readError.set(e);
+        } finally {
+            try {
+                // 被中断时调度线程已经退出，不再需要结束标记
+                prepared.put(END_OF_BATCHES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 调度阶段：等待限流额度后发出异步调用，响应在executor中保存。
+     * 限流等待在调度线程中进行，读取线程在此期间最多再准备一个队列长度的批次
+     */
+    private void dispatch(BatchTask task, Semaphore inFlight, CountDownLatch finished,
+                          OrderedResultWriter resultWriter, AtomicReference<Exception> writeError)
+            throws InterruptedException {
+        long start;
+        try {
+            acquireQuota(task);
+            journal.record(task.file.getName(), BatchJournal.State.IN_FLIGHT);
+            start = metrics.now();
+        } catch (InterruptedException e) {
+            inFlight.release();
+            throw e;
+        } catch (Exception e) {
+            inFlight.release();
+            batchFailed(task.file, task.position, e, resultWriter, writeError);
+            finished.countDown();
+            return;
+        }
 
-            // 限流控制
-            rateLimiter.acquire();
+        callApiAsync(task, 0)
+                .whenComplete((response, error) -> metrics.recordStage("api_call", metrics.now() - start))
+                .thenAcceptAsync(response -> {
+                    // 结果文件落盘之后才标记完成
+                    long saveStart = metrics.now();
+                    saveResult(task, response);
+                    markState(task.file, BatchJournal.State.DONE);
+                    metrics.recordStage("save", metrics.now() - saveStart);
+                }, executor)
+                .whenComplete((ignored, error) -> {
+                    inFlight.release();
+                    if (error != null) {
+                        batchFailed(task.file, task.position, error, resultWriter, writeError);
+                    } else {
+                        releaseLease(task.file);
+                        metrics.batchFinished(true);
+                        submitResult(resultWriter, task.position, () -> readCompletedResult(task.file), writeError);
+                    }
+                    finished.countDown();
+                });
+    }
 
-            // 调用API
-            ApiRequest request = new ApiRequest(prompt, Constants.MAX_RETRIES, Constants.RETRY_DELAY_MS);
-            ApiResponse response = apiService.callApi(request);
+    /**
+     * 记录批次失败，并通知重排序缓冲区跳过该批次
+     */
+    private void batchFailed(File chapterFile, int position, Throwable error, OrderedResultWriter resultWriter,
+                             AtomicReference<Exception> writeError) {
+        logger.error("处理章节文件时出错: {}", chapterFile.getName(), error);
+        releaseLease(chapterFile);
+        metrics.batchFinished(false);
+        try {
+            journal.record(chapterFile.getName(), BatchJournal.State.FAILED);
+        } catch (Exception journalError) {
+            logger.warn("记录批次失败状态时出错: {}", chapterFile.getName(), journalError);
+        }
+        submitResult(resultWriter, position, null, writeError);
+    }
 
-            if (!response.isSuccess()) {
-                throw new RuntimeException("API调用失败: " + response.getError());
+    /**
+     * 把批次结果交给重排序缓冲区，loader为null表示该批次失败，写入报告出错时记录第一个错误。
+     * 工作进程模式下没有重排序缓冲区，最终报告在所有批次结束后生成
+     */
+    private static void submitResult(OrderedResultWriter resultWriter, int position, Callable<String> loader,
+                                     AtomicReference<Exception> writeError) {
+        if (resultWriter == null) {
+            return;
+        }
+        try {
+            resultWriter.completeLater(position, loader);
+        } catch (Exception e) {
+            writeError.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * 调用API并记录实际token用量。输出因达到maxOutputTokens被截断时重新申请额度并重新请求，
+     * 重试用尽后保留被截断的结果
+     */
+    private CompletableFuture<ApiResponse> callApiAsync(BatchTask task, int truncationRetries) {
+        CompletableFuture<ApiResponse> call;
+        try {
+            call = apiService.callApiAsync(task.request);
+        } catch (Exception e) {
+            // 同步抛出的异常与异步失败走同一条路径，释放并发许可并记录批次失败
+            call = CompletableFuture.failedFuture(e);
+        }
+        return call.thenCompose(response -> {
+            recordUsage(task, response);
+            if (!response.isSuccess() || !response.isTruncated()) {
+                return CompletableFuture.completedFuture(response);
+            }
+            if (truncationRetries >= Constants.MAX_TRUNCATION_RETRIES) {
+                logger.warn("批次{}的输出仍被截断，保留已生成的{}个token",
+                        task.chapter.getFileIndex(), response.getCandidatesTokens());
+                return CompletableFuture.completedFuture(response);
+            }
+            logger.warn("批次{}的输出达到{}个token上限被截断，重新请求 {}/{}", task.chapter.getFileIndex(),
+                    Constants.MAX_OUTPUT_TOKENS, truncationRetries + 1, Constants.MAX_TRUNCATION_RETRIES);
+            if (rateLimiter == null) {
+                return callApiAsync(task, truncationRetries + 1);
             }
+            return rateLimiter.acquireAsync(task.tokens)
+                    .thenCompose(ignored -> callApiAsync(task, truncationRetries + 1));
+        });
+    }
+
+    /**
+     * 用响应中的实际token数修正限流器的估算，并累计本次运行的用量
+     */
+    private void recordUsage(BatchTask task, ApiResponse response) {
+        // 从缓存重放的响应没有发出请求，也没有在限流器中预约
+        if (response.isCached() || response.getPromptTokens() <= 0) {
+            return;
+        }
+        if (rateLimiter != null) {
+            rateLimiter.recordUsage(task.tokens, response.getPromptTokens());
+        }
+        promptTokens.addAndGet(response.getPromptTokens());
+        outputTokens.addAndGet(response.getCandidatesTokens());
+        metrics.recordTokens(response.getPromptTokens(), response.getCandidatesTokens());
+        logger.info("批次{}实际输入{}个token（预估{}个），输出{}个token，结束原因{}", task.chapter.getFileIndex(),
+                response.getPromptTokens(), task.tokens, response.getCandidatesTokens(), response.getFinishReason());
+    }
 
+    private void markState(File chapterFile, BatchJournal.State state) {
+        try {
+            journal.record(chapterFile.getName(), state);
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static String resultFileName(Chapter chapter) {
+        return String.format("%03d第%d-%d章_分析.json",
+                chapter.getFileIndex(), chapter.getStartChapter(), chapter.getEndChapter());
+    }
+
+    private static String streamFileName(Chapter chapter) {
+        return String.format("%03d第%d-%d章_分析.txt",
+                chapter.getFileIndex(), chapter.getStartChapter(), chapter.getEndChapter());
+    }
+
+    /**
+     * 申请限流额度，缓存中已有结果的请求不会发出网络调用，直接放行；熔断器打开时等它关闭
+     */
+    private void acquireQuota(BatchTask task) throws InterruptedException {
+        if (apiService.isCached(task.request)) {
+            logger.info("批次{}已有缓存结果，跳过限流", task.chapter.getFileIndex());
+            return;
+        }
+        long pause;
+        while (circuitBreaker != null && (pause = circuitBreaker.pauseRemainingMs()) > 0) {
+            logger.info("熔断器已打开，{}ms后再发出批次{}", pause, task.chapter.getFileIndex());
+            Thread.sleep(pause);
+        }
+        if (rateLimiter != null) {
+            rateLimiter.acquire(task.tokens);
+            return;
+        }
+        // 没有全局限流器时不预约额度，只等到apiService可以发出请求，避免提前认领大量批次后在密钥的限流器中排队
+        long waitNanos;
+        while ((waitNanos = apiService.readyInNanos()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * 读取章节内容并构建API请求
+     */
+    private BatchTask prepareBatch(File chapterFile, int position, Map<Integer, Batch> batchPlan, String prompt)
+            throws Exception {
+        logger.info("处理章节文件: {}", chapterFile.getName());
+
+        // 解析章节信息
+        Chapter chapter = fileService.parseChapterInfo(chapterFile);
+        Batch batch = batchPlan.get(chapter.getFileIndex());
+        if (batch != null) {
+            logger.info("批次{}包含{}章，预估输入{}个token",
+                    chapter.getFileIndex(), batch.getChapterCount(), batch.getEstimatedTokens());
+        }
+
+        // 提示词和章节内容直接写入JSON请求体，章节文件的字节边读边转义，不经过字符串拼接
+        String header = prompt + "\n\n以下是《牧神记》第" + chapter.getStartChapter() +
+                "章到第" + chapter.getEndChapter() + "章的内容：\n\n";
+        byte[] body = new RequestBodyBuilder((int) chapterFile.length() + header.length() * 3)
+                .appendText(header)
+                .appendFile(chapterFile.toPath())
+                .build();
+
+        // 流式模式下生成的文本边接收边写入同名的.txt文件
+        Path streamOutput = Constants.STREAM_RESPONSES
+                ? Paths.get(Constants.API_RESULTS_DIR, streamFileName(chapter)) : null;
+        ApiRequest request = new ApiRequest(body, Constants.MAX_RETRIES, Constants.RETRY_DELAY_MS, streamOutput);
+        // 按预估输入token数计入每分钟token限额
+        return new BatchTask(chapterFile, position, chapter, request, TokenEstimator.estimate(body));
+    }
+
+    /**
+     * 保存单个批次的API调用结果。流式请求的响应不带文本，从流式输出文件读回
+     */
+    private void saveResult(BatchTask task, ApiResponse response) {
+        if (!response.isSuccess()) {
+            throw new CompletionException(new RuntimeException("API调用失败: " + response.getError()));
+        }
+
+        try {
             // 保存结果
-            String outputFileName = String.format("%03d第%d-%d章_分析.json", 
-                    chapter.getFileIndex(), chapter.getStartChapter(), chapter.getEndChapter());
+            Chapter chapter = task.chapter;
+            String outputFileName = resultFileName(chapter);
+            String analysis = response.getContent() != null ? response.getContent()
+                    : Files.readString(task.request.getStreamOutput(), StandardCharsets.UTF_8);
 
             JsonObject resultJson = new JsonObject();
             resultJson.addProperty("file_index", chapter.getFileIndex());
             resultJson.addProperty("start_chapter", chapter.getStartChapter());
             resultJson.addProperty("end_chapter", chapter.getEndChapter());
-            resultJson.addProperty("analysis", response.getContent());
+            resultJson.addProperty("analysis", analysis);
+            resultJson.addProperty("finish_reason", response.getFinishReason());
+            resultJson.addProperty("truncated", response.isTruncated());
+            resultJson.addProperty("prompt_tokens", response.getPromptTokens());
+            resultJson.addProperty("output_tokens", response.getCandidatesTokens());
 
             fileService.saveAnalysisResult(outputFileName, gson.toJson(resultJson));
-            return response.getContent();
 
         } catch (Exception e) {
-            logger.error("处理章节文件时出错: {}", chapterFile.getName(), e);
-            return null;
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * 一个待调用API的批次，position为批次在最终报告中的顺序
+     */
+    private static class BatchTask {
+        private final File file;
+        private final int position;
+        private final Chapter chapter;
+        private final ApiRequest request;
+        private final int tokens;
+
+        BatchTask(File file, int position, Chapter chapter, ApiRequest request, int tokens) {
+            this.file = file;
+            this.position = position;
+            this.chapter = chapter;
+            this.request = request;
+            this.tokens = tokens;
         }
     }
 
@@ -140,7 +677,7 @@ public class GeminiApiProcessor {
      * 加载提示词
      */
     private String loadPrompt() throws Exception {
-        Path promptPath = Paths.get(System.getProperty("user.dir"), "prompt.txt");
+        Path promptPath = Paths.get(Constants.PROMPT_FILE);
         if (Files.exists(promptPath)) {
             return Files.readString(promptPath);
         }
@@ -162,19 +699,4 @@ public class GeminiApiProcessor {
                 "人物关系：\n\n" +
                 "列出并详细描述与男主角互动的重要角色，包括他们的性格特点和与主角的关系变化。";
     }
-
-    /**
-     * 合并所有API调用结果
-     */
-    private void mergeResults(List<String> results) throws Exception {
-        StringBuilder finalResult = new StringBuilder();
-        finalResult.append("《牧神记》小说分析报告\n\n");
-        
-        for (String result : results) {
-            finalResult.append(result).append("\n\n");
-        }
-        
-        Files.writeString(Paths.get(Constants.FINAL_RESULT_FILE), finalResult.toString());
-        logger.info("已生成最终分析报告: {}", Constants.FINAL_RESULT_FILE);
-    }
 }
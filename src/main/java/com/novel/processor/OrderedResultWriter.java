@@ -0,0 +1,117 @@
+package com.novel.processor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * 按批次顺序把分析结果追加到最终报告的重排序缓冲区。
+ * 批次可以按任意顺序完成，某个批次及其之前的批次都完成后立即写入文件并刷新，
+ * 内存中只保留乱序到达、还不能写出的结果，运行过程中就能在文件里看到进度
+ */
+public class OrderedResultWriter implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(OrderedResultWriter.class);
+
+    private final Writer writer;
+    // 乱序到达的结果，值为null表示该批次失败，写出时跳过
+    private final Map<Integer, Callable<String>> pending = new HashMap<>();
+    private int next;
+    private int written;
+    private int maxBuffered;
+
+    /**
+     * 创建最终报告文件并写入标题，已有文件会被覆盖
+     */
+    public OrderedResultWriter(Path path, String header) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        writer.write(header);
+        writer.flush();
+    }
+
+    /**
+     * 提交第position个批次的结果，analysis为null表示该批次失败
+     */
+    public void complete(int position, String analysis) throws IOException {
+        completeLater(position, analysis == null ? null : () -> analysis);
+    }
+
+    /**
+     * 提交第position个批次的结果，轮到该批次写出时才调用loader读取内容，
+     * 用于结果已经保存在磁盘上的批次，避免提前把内容读入内存
+     */
+    public synchronized void completeLater(int position, Callable<String> loader) throws IOException {
+        if (position < next || pending.containsKey(position)) {
+            throw new IllegalStateException("批次结果重复提交: " + position);
+        }
+        pending.put(position, loader);
+        maxBuffered = Math.max(maxBuffered, pending.size());
+        drain();
+    }
+
+    /**
+     * 依次写出已经轮到的批次。读取某个批次的结果失败时在它的位置写入占位说明并继续写后面的批次，
+     * 报告不会在此处截断；全部写出后抛出第一个读取错误
+     */
+    private void drain() throws IOException {
+        boolean progressed = false;
+        IOException failure = null;
+        while (pending.containsKey(next)) {
+            Callable<String> loader = pending.remove(next);
+            if (loader != null) {
+                String analysis;
+                try {
+                    analysis = loader.call();
+                    written++;
+                } catch (Exception e) {
+                    // 报告中的批次从1开始编号
+                    int number = next + 1;
+                    IOException error = e instanceof IOException ? (IOException) e
+                            : new IOException("读取第" + number + "个批次的结果失败", e);
+                    logger.error("读取第{}个批次的结果失败，报告中写入占位说明", number, e);
+                    analysis = "【第" + number + "个批次的结果读取失败: " + e.getMessage() + "】";
+                    if (failure == null) {
+                        failure = error;
+                    }
+                }
+                writer.write(analysis);
+                writer.write("\n\n");
+            }
+            next++;
+            progressed = true;
+        }
+        if (progressed) {
+            writer.flush();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 已写入报告的批次数
+     */
+    public synchronized int getWritten() {
+        return written;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!pending.isEmpty()) {
+            logger.warn("最终报告关闭时仍有{}个批次等待前面的批次，未写入", pending.size());
+        }
+        logger.debug("重排序缓冲区最多同时缓存{}个批次", maxBuffered);
+        writer.close();
+    }
+}
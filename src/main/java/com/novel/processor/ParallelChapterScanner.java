@@ -0,0 +1,103 @@
+package com.novel.processor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 多核并行的章节标题扫描器。
+ * 将映射窗口按换行符切分为多个字节区间（换行符不会出现在UTF-8多字节字符内部，因此切分点同时对齐字符边界），
+ * 在ForkJoinPool中并行扫描各区间，再按文件顺序合并结果并顺延行号
+ */
+public class ParallelChapterScanner extends ChapterScanner {
+    // 单个任务扫描的最小字节数，避免任务切分过细
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    private final ForkJoinPool pool;
+    private final int minChunkSize;
+
+    public ParallelChapterScanner() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelChapterScanner(ForkJoinPool pool) {
+        this(pool, MIN_CHUNK_SIZE);
+    }
+
+    // 用于测试的构造函数，允许指定更小的切分阈值
+    ParallelChapterScanner(ForkJoinPool pool, int minChunkSize) {
+        this.pool = pool;
+        this.minChunkSize = minChunkSize;
+    }
+
+    @Override
+    protected int scanWindow(ByteBuffer buffer, int length, boolean atEof, long position, Matches matches) {
+        // 只并行扫描窗口内的完整行，最后一个不完整的行留给下一个窗口
+        int limit = atEof ? length : lastLineEnd(buffer, length);
+        if (limit == 0) {
+            return 0;
+        }
+
+        int threshold = Math.max(minChunkSize, limit / (pool.getParallelism() * 4));
+        matches.append(pool.invoke(new ScanTask(buffer, 0, limit, position, threshold)));
+        return limit;
+    }
+
+    private static int lastLineEnd(ByteBuffer buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 返回位置p及之后第一个行首的位置，找不到时返回to
+     */
+    private static int nextLineStart(ByteBuffer buffer, int p, int to) {
+        for (int i = p; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return to;
+    }
+
+    private static class ScanTask extends RecursiveTask<Matches> {
+        private final ByteBuffer buffer;
+        private final int from;
+        private final int to;
+        private final long baseOffset;
+        private final int threshold;
+
+        ScanTask(ByteBuffer buffer, int from, int to, long baseOffset, int threshold) {
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.baseOffset = baseOffset;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected Matches compute() {
+            if (to - from > threshold) {
+                int split = nextLineStart(buffer, from + (to - from) / 2, to);
+                if (split < to) {
+                    ScanTask left = new ScanTask(buffer, from, split, baseOffset, threshold);
+                    ScanTask right = new ScanTask(buffer, split, to, baseOffset, threshold);
+                    left.fork();
+                    Matches rightMatches = right.compute();
+                    Matches leftMatches = left.join();
+                    leftMatches.append(rightMatches);
+                    return leftMatches;
+                }
+            }
+
+            // 区间总是结束于换行符之后或窗口末尾，区间内的最后一行是完整的
+            Matches matches = new Matches();
+            scanLines(buffer, from, to, true, baseOffset, matches);
+            return matches;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.novel.service;
 
+import com.novel.model.Batch;
 import com.novel.model.Chapter;
 import java.io.File;
 import java.util.List;
@@ -11,10 +12,20 @@ public interface ChapterFileService {
     String readChapterContent(File file) throws Exception;
 
     /**
-     * 保存API分析结果
+     * 保存API分析结果，返回时文件已完整落盘
      */
     void saveAnalysisResult(String fileName, String content) throws Exception;
 
+    /**
+     * 读取已保存的API分析结果，不存在时返回null
+     */
+    String readAnalysisResult(String fileName) throws Exception;
+
+    /**
+     * 是否已保存该文件名的API分析结果
+     */
+    boolean hasAnalysisResult(String fileName);
+
     /**
      * 获取所有章节文件
      */
@@ -24,4 +35,9 @@ public interface ChapterFileService {
      * 解析文件名中的章节信息
      */
     Chapter parseChapterInfo(File file);
+
+    /**
+     * 读取分割时生成的批次计划，不存在时返回空列表
+     */
+    List<Batch> loadBatchPlan() throws Exception;
 }
@@ -0,0 +1,10 @@
+package com.novel.service;
+
+/**
+ * 密钥当天的请求数已经达到上限，在配额重置之前不能再发出请求
+ */
+public class DailyQuotaExceededException extends IllegalStateException {
+    public DailyQuotaExceededException(String message) {
+        super(message);
+    }
+}
@@ -3,9 +3,35 @@ package com.novel.service;
 import com.novel.model.ApiRequest;
 import com.novel.model.ApiResponse;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface GeminiApiService {
     /**
      * 调用Gemini API
      */
     ApiResponse callApi(ApiRequest request) throws Exception;
+
+    /**
+     * 异步调用Gemini API，重试之间的等待也是异步的，不占用调用线程
+     */
+    CompletableFuture<ApiResponse> callApiAsync(ApiRequest request);
+
+    /**
+     * 请求的响应是否可以直接从本地得到，为true时调用方无需占用限流额度
+     */
+    default boolean isCached(ApiRequest request) {
+        return false;
+    }
+
+    /**
+     * 新请求还要等待多久（纳秒）才能发出，调用方可以据此推迟准备和认领后续批次；服务自身不限流时返回0
+     */
+    default long readyInNanos() {
+        return 0;
+    }
+
+    /**
+     * 调用countTokens接口统计文本的token数
+     */
+    int countTokens(String text) throws Exception;
 }
@@ -0,0 +1,10 @@
+package com.novel.service;
+
+/**
+ * 密钥池中所有密钥都已停用（认证失败或用完当天的配额），本次运行不能再发出请求
+ */
+public class NoApiKeyAvailableException extends IllegalStateException {
+    public NoApiKeyAvailableException(String message) {
+        super(message);
+    }
+}
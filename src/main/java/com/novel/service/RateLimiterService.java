@@ -1,11 +1,30 @@
 package com.novel.service;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface RateLimiterService {
     /**
      * 获取令牌，如果超过限制则等待
      */
     void acquire() throws InterruptedException;
 
+    /**
+     * 为一个预计消耗tokens个输入token的请求获取令牌，如果超过限制则等待
+     */
+    void acquire(int tokens) throws InterruptedException;
+
+    /**
+     * 异步获取令牌，等待期间不占用调用线程，可以发出请求时future完成
+     */
+    CompletableFuture<Void> acquireAsync(int tokens);
+
+    /**
+     * 请求完成后，用服务端返回的实际输入token数修正预约时按估算计入的token数。
+     * 实际多于估算时之后的请求相应推迟，少于估算时归还多计的部分
+     */
+    default void recordUsage(int estimatedTokens, int actualTokens) {
+    }
+
     /**
      * 关闭限流器
      */
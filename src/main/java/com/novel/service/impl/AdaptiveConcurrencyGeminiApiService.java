@@ -0,0 +1,150 @@
+package com.novel.service.impl;
+
+import com.novel.metrics.PipelineMetrics;
+import com.novel.model.ApiRequest;
+import com.novel.model.ApiResponse;
+import com.novel.service.GeminiApiService;
+import com.novel.util.AdaptiveConcurrencyLimiter;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * 用自适应并发上限包装一个API服务：超过上限的调用排队，
+ * 每次调用的结果和延迟反馈给限流器，由它增加或降低上限。
+ * 密钥池为每个密钥各包一层，每个密钥按自己的配额等级找到合适的并发数；
+ * 取得名额之后才在该密钥的限流器上预约，排队等名额的请求不会提前占用配额
+ */
+public class AdaptiveConcurrencyGeminiApiService implements GeminiApiService {
+    private final GeminiApiService delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final Function<ApiRequest, CompletableFuture<Void>> admission;
+
+    public AdaptiveConcurrencyGeminiApiService(GeminiApiService delegate, String name) {
+        this(delegate, new AdaptiveConcurrencyLimiter(name), PipelineMetrics.getDefault());
+    }
+
+    /**
+     * @param metrics 导出当前并发上限、在途请求数和延迟
+     */
+    public AdaptiveConcurrencyGeminiApiService(GeminiApiService delegate, AdaptiveConcurrencyLimiter limiter,
+                                               PipelineMetrics metrics) {
+        this(delegate, limiter, metrics, request -> CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * @param admission 取得名额之后、发出调用之前的准入步骤，如在密钥的限流器上预约；
+     *                  失败时归还名额，调用以同样的异常失败
+     */
+    public AdaptiveConcurrencyGeminiApiService(GeminiApiService delegate, AdaptiveConcurrencyLimiter limiter,
+                                               PipelineMetrics metrics,
+                                               Function<ApiRequest, CompletableFuture<Void>> admission) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.admission = admission;
+        metrics.registerConcurrencyLimiter(limiter);
+    }
+
+    @Override
+    public ApiResponse callApi(ApiRequest request) throws Exception {
+        try {
+            return callApiAsync(request).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * 返回的future被取消时（如对冲请求的另一路先完成），排队中的请求不再发出，已发出的调用一并取消
+     */
+    @Override
+    public CompletableFuture<ApiResponse> callApiAsync(ApiRequest request) {
+        CompletableFuture<ApiResponse> result = new CompletableFuture<>();
+        CompletableFuture<Long> permit = limiter.acquire();
+        permit.thenAccept(permitNanos -> admission.apply(request).whenComplete((ignored, admissionError) -> {
+            if (admissionError != null || result.isDone()) {
+                limiter.release(permitNanos, AdaptiveConcurrencyLimiter.Outcome.IGNORE);
+                if (admissionError != null) {
+                    result.completeExceptionally(admissionError instanceof CompletionException
+                            && admissionError.getCause() != null ? admissionError.getCause() : admissionError);
+                }
+                return;
+            }
+            // 延迟从准入完成、真正发出调用时算起，在限流器上的等待不计入
+            long startNanos = limiter.now();
+            CompletableFuture<ApiResponse> call;
+            try {
+                call = delegate.callApiAsync(request);
+            } catch (RuntimeException e) {
+                limiter.release(startNanos, AdaptiveConcurrencyLimiter.Outcome.OVERLOAD);
+                result.completeExceptionally(e);
+                return;
+            }
+            call.whenComplete((response, error) -> {
+                limiter.release(startNanos, outcome(response, error));
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(response);
+                }
+            });
+            result.whenComplete((response, error) -> {
+                if (result.isCancelled()) {
+                    call.cancel(true);
+                }
+            });
+        }));
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                permit.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 429、503、504和没有收到响应（超时、连接失败）视为服务饱和，被取消的调用与负载无关
+     */
+    static AdaptiveConcurrencyLimiter.Outcome outcome(ApiResponse response, Throwable error) {
+        if (error instanceof CancellationException) {
+            return AdaptiveConcurrencyLimiter.Outcome.IGNORE;
+        }
+        if (error != null) {
+            return AdaptiveConcurrencyLimiter.Outcome.OVERLOAD;
+        }
+        if (response.isSuccess()) {
+            return AdaptiveConcurrencyLimiter.Outcome.SUCCESS;
+        }
+        switch (response.getStatusCode()) {
+            case 0:
+            case 429:
+            case 503:
+            case 504:
+                return AdaptiveConcurrencyLimiter.Outcome.OVERLOAD;
+            default:
+                return AdaptiveConcurrencyLimiter.Outcome.IGNORE;
+        }
+    }
+
+    @Override
+    public boolean isCached(ApiRequest request) {
+        return delegate.isCached(request);
+    }
+
+    @Override
+    public long readyInNanos() {
+        return delegate.readyInNanos();
+    }
+
+    @Override
+    public int countTokens(String text) throws Exception {
+        return delegate.countTokens(text);
+    }
+
+    public AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+}
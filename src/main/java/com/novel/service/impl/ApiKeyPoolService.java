@@ -0,0 +1,345 @@
+package com.novel.service.impl;
+
+import com.novel.metrics.PipelineMetrics;
+import com.novel.model.ApiKey;
+import com.novel.model.ApiRequest;
+import com.novel.model.ApiResponse;
+import com.novel.service.DailyQuotaExceededException;
+import com.novel.service.GeminiApiService;
+import com.novel.service.NoApiKeyAvailableException;
+import com.novel.util.AdaptiveConcurrencyLimiter;
+import com.novel.util.CircuitBreaker;
+import com.novel.util.Constants;
+import com.novel.util.RetryPolicy;
+import com.novel.util.TokenEstimator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 多个API密钥组成的密钥池，每个密钥有自己的限流器。
+ * 每个请求分配给最早可以放行的密钥（剩余额度最多），某个密钥收到429时按服务端建议的时间暂时冷却、
+ * 收到401/403时停用，请求立即转到其他密钥，吞吐量随密钥数量近似线性增长；
+ * 所有密钥都停用后请求以NoApiKeyAvailableException失败
+ */
+public class ApiKeyPoolService implements GeminiApiService {
+    private static final Logger logger = LoggerFactory.getLogger(ApiKeyPoolService.class);
+
+    private final List<KeySlot> slots = new ArrayList<>();
+    private final ScheduledExecutorService scheduler;
+    private final RetryPolicy retryPolicy;
+    private final PipelineMetrics metrics;
+    private final long startNanos = System.nanoTime();
+
+    public ApiKeyPoolService(List<ApiKey> keys, ScheduledExecutorService scheduler) {
+        this(keys, scheduler, new CircuitBreaker());
+    }
+
+    /**
+     * 开启Constants.SHARE_QUOTA_ACROSS_PROCESSES时各密钥的限流状态保存在共享文件中，与同一台机器上的其他进程共用配额
+     *
+     * @param circuitBreaker 所有密钥的服务共用的熔断器，任一密钥发现服务饱和时所有密钥一起暂停
+     */
+    public ApiKeyPoolService(List<ApiKey> keys, ScheduledExecutorService scheduler, CircuitBreaker circuitBreaker) {
+        this(keys, key -> new GeminiApiServiceImpl(key.getKey(), circuitBreaker), scheduler, new RetryPolicy(),
+                PipelineMetrics.getDefault(),
+                Constants.SHARE_QUOTA_ACROSS_PROCESSES ? sharedLimiters(scheduler) : localLimiters(scheduler));
+    }
+
+    /**
+     * 每个密钥的API服务外包一层自适应并发上限，按该密钥的响应情况调整同时在途的请求数；
+     * 请求取得并发名额之后才在该密钥的限流器上预约，排队等名额的请求不占用配额
+     *
+     * @param serviceFactory 为每个密钥创建API服务，测试时可以返回假服务
+     */
+    public ApiKeyPoolService(List<ApiKey> keys, Function<ApiKey, GeminiApiService> serviceFactory,
+                             ScheduledExecutorService scheduler, RetryPolicy retryPolicy) {
+        this(keys, serviceFactory, scheduler, retryPolicy, PipelineMetrics.getDefault());
+    }
+
+    /**
+     * @param metrics 记录各密钥限流器的等待时间和密钥池发起的重试
+     */
+    public ApiKeyPoolService(List<ApiKey> keys, Function<ApiKey, GeminiApiService> serviceFactory,
+                             ScheduledExecutorService scheduler, RetryPolicy retryPolicy, PipelineMetrics metrics) {
+        this(keys, serviceFactory, scheduler, retryPolicy, metrics, localLimiters(scheduler));
+    }
+
+    /**
+     * @param limiterFactory 为每个密钥创建限流器，可以只统计本进程的请求，也可以与其他进程共享
+     */
+    public ApiKeyPoolService(List<ApiKey> keys, Function<ApiKey, GeminiApiService> serviceFactory,
+                             ScheduledExecutorService scheduler, RetryPolicy retryPolicy, PipelineMetrics metrics,
+                             BiFunction<ApiKey, PipelineMetrics, RateLimiterServiceImpl> limiterFactory) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个API密钥");
+        }
+        for (ApiKey key : keys) {
+            RateLimiterServiceImpl limiter = limiterFactory.apply(key, metrics);
+            GeminiApiService service = new AdaptiveConcurrencyGeminiApiService(serviceFactory.apply(key),
+                    new AdaptiveConcurrencyLimiter("key:" + key.getName()), metrics,
+                    request -> limiter.acquireAsync(TokenEstimator.estimate(request.getBody())));
+            slots.add(new KeySlot(key, service, limiter));
+        }
+        this.scheduler = scheduler;
+        this.retryPolicy = retryPolicy;
+        this.metrics = metrics;
+        logger.info("API密钥池共{}个密钥", slots.size());
+    }
+
+    /**
+     * 每个密钥一个只统计本进程请求的限流器
+     */
+    public static BiFunction<ApiKey, PipelineMetrics, RateLimiterServiceImpl> localLimiters(
+            ScheduledExecutorService scheduler) {
+        return (key, metrics) -> new RateLimiterServiceImpl(key.getRequestsPerMinute(), key.getTokensPerMinute(),
+                scheduler, System::nanoTime, "key:" + key.getName(), metrics);
+    }
+
+    /**
+     * 每个密钥一个状态保存在共享文件中的限流器，同一台机器上的所有进程共用该密钥的配额
+     */
+    public static BiFunction<ApiKey, PipelineMetrics, RateLimiterServiceImpl> sharedLimiters(
+            ScheduledExecutorService scheduler) {
+        return (key, metrics) -> {
+            try {
+                return new SharedFileRateLimiterService(Paths.get(Constants.QUOTA_STATE_DIR), key, scheduler, metrics);
+            } catch (IOException e) {
+                throw new UncheckedIOException("无法打开密钥" + key.getName() + "的配额状态文件", e);
+            }
+        };
+    }
+
+    @Override
+    public ApiResponse callApi(ApiRequest request) throws Exception {
+        try {
+            return callApiAsync(request).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<ApiResponse> callApiAsync(ApiRequest request) {
+        CompletableFuture<ApiResponse> result = new CompletableFuture<>();
+        dispatch(request, TokenEstimator.estimate(request.getBody()), 0, result);
+        return result;
+    }
+
+    /**
+     * 选择密钥并发出第attempt次调用。每个密钥只调用一次，重试和换密钥都由密钥池决定
+     */
+    private void dispatch(ApiRequest request, int tokens, int attempt, CompletableFuture<ApiResponse> result) {
+        // 调用方已经取消（如对冲请求的另一路先完成）时不再重试
+        if (result.isDone()) {
+            return;
+        }
+        KeySlot slot;
+        long waitNanos;
+        synchronized (this) {
+            slot = choose(request.getBody());
+            if (slot == null) {
+                result.completeExceptionally(
+                        new NoApiKeyAvailableException("没有可用的API密钥，所有密钥都已停用或用完当天的配额"));
+                return;
+            }
+            // 冷却中的密钥到期后重新选择，否则交给该密钥，取得并发名额后再在它的限流器上预约
+            waitNanos = slot.cooldownUntil - System.nanoTime();
+            if (waitNanos <= 0) {
+                slot.inFlight++;
+                slot.bodies.add(request.getBody());
+            }
+        }
+        if (waitNanos > 0) {
+            scheduler.schedule(() -> dispatch(request, tokens, attempt, result), waitNanos, TimeUnit.NANOSECONDS);
+            return;
+        }
+
+        CompletableFuture<ApiResponse> call = slot.service.callApiAsync(request.withRetryCount(0));
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        call.whenComplete((response, error) -> {
+            synchronized (this) {
+                slot.inFlight--;
+                slot.bodies.remove(request.getBody());
+            }
+            if (result.isDone()) {
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            if (cause instanceof DailyQuotaExceededException) {
+                // 当天的配额已经用完（可能被其他进程用完），本次运行不再使用该密钥，请求换其他密钥
+                synchronized (this) {
+                    slot.disabled = true;
+                }
+                logger.error("API密钥{}当天的请求数已达上限，已停用: {}", slot.key.getName(), cause.getMessage());
+                dispatch(request, tokens, attempt, result);
+                return;
+            }
+            ApiResponse outcome = error != null ? ApiResponse.error(0, error.getMessage()) : response;
+            handle(request, tokens, attempt, result, slot, outcome);
+        });
+    }
+
+    private void handle(ApiRequest request, int tokens, int attempt, CompletableFuture<ApiResponse> result,
+                        KeySlot slot, ApiResponse response) {
+        int statusCode = response.getStatusCode();
+        slot.requests.incrementAndGet();
+        // 有实际输入token数时按实际值统计，并修正该密钥限流器中的估算值
+        int promptTokens = response.getPromptTokens();
+        slot.tokens.addAndGet(promptTokens > 0 ? promptTokens : tokens);
+        slot.limiter.recordUsage(tokens, promptTokens);
+        if (response.isSuccess()) {
+            slot.successes.incrementAndGet();
+            result.complete(response);
+            return;
+        }
+
+        if (statusCode == 401 || statusCode == 403) {
+            // 密钥无效或没有权限，停用后换其他密钥，不计入重试次数
+            slot.authFailures.incrementAndGet();
+            synchronized (this) {
+                slot.disabled = true;
+            }
+            logger.error("API密钥{}认证失败（状态码{}），已停用", slot.key.getName(), statusCode);
+            dispatch(request, tokens, attempt, result);
+            return;
+        }
+
+        long retryHintMs = response.getRetryAfterMs();
+        if (statusCode == 429) {
+            // 服务端给出等待时间时按它冷却，否则使用默认的冷却时间
+            long cooldownMs = retryHintMs >= 0 ? retryHintMs : Constants.API_KEY_COOLDOWN_MS;
+            slot.rateLimited.incrementAndGet();
+            synchronized (this) {
+                slot.cooldownUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cooldownMs);
+            }
+            logger.warn("API密钥{}被限流，冷却{}ms，请求转到其他密钥", slot.key.getName(), cooldownMs);
+        }
+
+        if (!RetryPolicy.isRetryable(statusCode) || attempt >= request.getRetryCount()) {
+            result.complete(response);
+            return;
+        }
+        // 429已经通过冷却换到其他密钥，立即重试；其他临时错误按退避等待
+        long delay = statusCode == 429 ? 0 : retryPolicy.delayMs(attempt + 1, request.getRetryDelayMs(), retryHintMs);
+        logger.warn("API调用失败（状态码{}），{}ms后重试 {}/{}", statusCode, delay, attempt + 1, request.getRetryCount());
+        metrics.recordRetry(statusCode);
+        scheduler.schedule(() -> dispatch(request, tokens, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 选择最早可以放行的可用密钥，同样早时选在途请求少的。
+     * 相同请求体已经在某个密钥上在途时（对冲请求）优先选其他密钥，只有这一个密钥可用时才复用它
+     *
+     * @param body 请求体，按引用比较，为null时不考虑在途的相同请求
+     */
+    private KeySlot choose(byte[] body) {
+        KeySlot best = null;
+        boolean bestBusy = true;
+        long bestReadyAt = Long.MAX_VALUE;
+        for (KeySlot slot : slots) {
+            if (slot.disabled) {
+                continue;
+            }
+            boolean busy = body != null && slot.bodies.contains(body);
+            long readyAt = Math.max(slot.limiter.availableAt(), slot.cooldownUntil);
+            if (best == null || (bestBusy && !busy) || (busy == bestBusy && (readyAt < bestReadyAt
+                    || (readyAt == bestReadyAt && slot.inFlight < best.inFlight)))) {
+                best = slot;
+                bestBusy = busy;
+                bestReadyAt = readyAt;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 最早可以放行的可用密钥还要等待的时间，所有密钥都停用时返回0，由调用直接失败
+     */
+    @Override
+    public long readyInNanos() {
+        KeySlot slot;
+        synchronized (this) {
+            slot = choose(null);
+        }
+        if (slot == null) {
+            return 0;
+        }
+        return Math.max(0, Math.max(slot.limiter.availableAt(), slot.cooldownUntil) - System.nanoTime());
+    }
+
+    @Override
+    public int countTokens(String text) throws Exception {
+        KeySlot slot;
+        synchronized (this) {
+            slot = choose(null);
+        }
+        if (slot == null) {
+            throw new NoApiKeyAvailableException("没有可用的API密钥");
+        }
+        return slot.service.countTokens(text);
+    }
+
+    /**
+     * 各密钥的使用情况：请求数、成功数、429次数、认证失败次数、输入token数和请求额度利用率
+     */
+    public String getUtilisationReport() {
+        double minutes = Math.max((System.nanoTime() - startNanos) / (double) TimeUnit.MINUTES.toNanos(1), 1e-9);
+        StringBuilder report = new StringBuilder("API密钥使用情况:");
+        for (KeySlot slot : slots) {
+            long requests = slot.requests.get();
+            double utilisation = Math.min(1.0, requests / (slot.key.getRequestsPerMinute() * minutes));
+            report.append(String.format("%n  %s: 请求%d次，成功%d次，429 %d次，认证失败%d次，输入%d个token，请求额度利用率%.1f%%%s",
+                    slot.key.getName(), requests, slot.successes.get(), slot.rateLimited.get(),
+                    slot.authFailures.get(), slot.tokens.get(), utilisation * 100, slot.disabled ? "（已停用）" : ""));
+        }
+        return report.toString();
+    }
+
+    /**
+     * 一个密钥及其限流器和统计
+     */
+    private static class KeySlot {
+        private final ApiKey key;
+        private final GeminiApiService service;
+        private final RateLimiterServiceImpl limiter;
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong rateLimited = new AtomicLong();
+        private final AtomicLong authFailures = new AtomicLong();
+        private final AtomicLong tokens = new AtomicLong();
+        // 以下字段由密钥池加锁访问
+        private long cooldownUntil = System.nanoTime();
+        private boolean disabled;
+        private int inFlight;
+        // 在途请求的请求体，按引用比较
+        private final Set<byte[]> bodies = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        KeySlot(ApiKey key, GeminiApiService service, RateLimiterServiceImpl limiter) {
+            this.key = key;
+            this.service = service;
+            this.limiter = limiter;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.novel.service.impl;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.novel.model.ApiRequest;
+import com.novel.model.ApiResponse;
+import com.novel.service.GeminiApiService;
+import com.novel.util.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 为Gemini API调用增加按内容寻址的磁盘缓存。
+ * 缓存键为 模型、生成配置和完整提示词 的SHA-256，只缓存成功且没有被截断的响应，每个条目是一个gzip压缩的JSON，
+ * 保存响应文本、结束原因和token用量；countTokens的结果按模型和文本同样缓存，输入不变时重新运行不发出任何网络请求；
+ * 总大小超过上限时按最近使用顺序淘汰（使用时间记录在文件的修改时间上，重启后依然有效）；
+ * 相同请求同时在途时只发出一次调用
+ */
+public class CachingGeminiApiService implements GeminiApiService {
+    private static final Logger logger = LoggerFactory.getLogger(CachingGeminiApiService.class);
+    private static final String ENTRY_SUFFIX = ".gz";
+
+    private final GeminiApiService delegate;
+    private final Path cacheDir;
+    private final long maxBytes;
+    private final String configFingerprint;
+
+    // 按访问顺序排列的缓存条目及其文件大小，最久未使用的在最前面
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final Map<String, CompletableFuture<ApiResponse>> inFlight = new ConcurrentHashMap<>();
+
+    public CachingGeminiApiService(GeminiApiService delegate) {
+        this(delegate, Paths.get(Constants.API_CACHE_DIR), Constants.API_CACHE_MAX_BYTES, defaultFingerprint());
+    }
+
+    /**
+     * @param configFingerprint 模型和生成配置的描述，配置变化后旧条目自然失效
+     */
+    public CachingGeminiApiService(GeminiApiService delegate, Path cacheDir, long maxBytes,
+                                   String configFingerprint) {
+        this.delegate = delegate;
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+        this.configFingerprint = configFingerprint;
+        loadEntries();
+    }
+
+    @Override
+    public ApiResponse callApi(ApiRequest request) throws Exception {
+        try {
+            return callApiAsync(request).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<ApiResponse> callApiAsync(ApiRequest request) {
+        String key = cacheKey(request);
+        JsonObject cached = read(key);
+        if (cached != null) {
+            logger.debug("命中API缓存: {}", key);
+            return replay(request, cached);
+        }
+
+        // 相同请求已经在途时复用同一个future
+        CompletableFuture<ApiResponse> created = new CompletableFuture<>();
+        CompletableFuture<ApiResponse> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            logger.debug("合并相同的在途请求: {}", key);
+            return existing;
+        }
+
+        // 检查缓存和登记在途请求之间，同样的请求可能刚好完成并写入了缓存
+        JsonObject written = read(key);
+        if (written != null) {
+            inFlight.remove(key);
+            replay(request, written).whenComplete((response, error) -> {
+                if (error != null) {
+                    created.completeExceptionally(error);
+                } else {
+                    created.complete(response);
+                }
+            });
+            return created;
+        }
+
+        delegate.callApiAsync(request).whenComplete((response, error) -> {
+            // 被截断的响应需要重新请求，不能缓存
+            if (error == null && response.isSuccess() && !response.isTruncated()) {
+                try {
+                    write(key, toEntry(request, response));
+                } catch (IOException e) {
+                    logger.warn("读取流式输出失败，不缓存本次响应: {}", request.getStreamOutput(), e);
+                }
+            }
+            inFlight.remove(key);
+            if (error != null) {
+                created.completeExceptionally(error);
+            } else {
+                created.complete(response);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * 用缓存条目构造响应，流式请求同时把内容写入请求指定的输出文件
+     */
+    private CompletableFuture<ApiResponse> replay(ApiRequest request, JsonObject entry) {
+        String content = entry.get("content").getAsString();
+        if (request.isStreaming()) {
+            try {
+                Files.writeString(request.getStreamOutput(), content, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        String finishReason = entry.has("finish_reason") ? entry.get("finish_reason").getAsString() : null;
+        return CompletableFuture.completedFuture(ApiResponse.cached(content, finishReason,
+                entry.get("prompt_tokens").getAsInt(), entry.get("candidates_tokens").getAsInt(),
+                entry.get("total_tokens").getAsInt()));
+    }
+
+    /**
+     * 流式响应不带文本，缓存条目的内容从请求的输出文件读取
+     */
+    private static JsonObject toEntry(ApiRequest request, ApiResponse response) throws IOException {
+        JsonObject entry = new JsonObject();
+        String content = response.getContent() != null ? response.getContent()
+                : Files.readString(request.getStreamOutput(), StandardCharsets.UTF_8);
+        entry.addProperty("content", content);
+        if (response.getFinishReason() != null) {
+            entry.addProperty("finish_reason", response.getFinishReason());
+        }
+        entry.addProperty("prompt_tokens", response.getPromptTokens());
+        entry.addProperty("candidates_tokens", response.getCandidatesTokens());
+        entry.addProperty("total_tokens", response.getTotalTokens());
+        return entry;
+    }
+
+    @Override
+    public boolean isCached(ApiRequest request) {
+        String key = cacheKey(request);
+        synchronized (this) {
+            return entries.containsKey(key);
+        }
+    }
+
+    @Override
+    public long readyInNanos() {
+        return delegate.readyInNanos();
+    }
+
+    @Override
+    public int countTokens(String text) throws Exception {
+        String key = digest("countTokens", text.getBytes(StandardCharsets.UTF_8));
+        JsonObject cached = read(key);
+        if (cached != null) {
+            return cached.get("total_tokens").getAsInt();
+        }
+        int tokens = delegate.countTokens(text);
+        JsonObject entry = new JsonObject();
+        entry.addProperty("total_tokens", tokens);
+        write(key, entry);
+        return tokens;
+    }
+
+    /**
+     * 计算请求的缓存键。请求体已经包含提示词和生成配置；流式和非流式响应的内容格式不同，分开缓存
+     */
+    String cacheKey(ApiRequest request) {
+        return digest(request.isStreaming() ? "stream" : "generate", request.getBody());
+    }
+
+    /**
+     * 配置指纹、调用类型和内容的SHA-256
+     */
+    private String digest(String kind, byte[] content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(configFingerprint.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(kind.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(content);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前JVM不支持SHA-256", e);
+        }
+    }
+
+    private static String defaultFingerprint() {
+        // content=json：条目保存解析后的文本和响应元数据，而不是原始响应体
+        return "content=json;model=" + Constants.GEMINI_MODEL +
+                ";temperature=" + Constants.TEMPERATURE +
+                ";maxOutputTokens=" + Constants.MAX_OUTPUT_TOKENS;
+    }
+
+    private Path entryPath(String key) {
+        return cacheDir.resolve(key + ENTRY_SUFFIX);
+    }
+
+    /**
+     * 读取缓存条目，不存在或损坏时返回null
+     */
+    private JsonObject read(String key) {
+        synchronized (this) {
+            // get会把条目移到访问顺序的末尾
+            if (entries.get(key) == null) {
+                return null;
+            }
+        }
+
+        Path path = entryPath(key);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            JsonObject entry = JsonParser.parseString(new String(in.readAllBytes(), StandardCharsets.UTF_8))
+                    .getAsJsonObject();
+            // 以修改时间记录最近使用时间，重启后恢复LRU顺序
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return entry;
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            if (!(e instanceof NoSuchFileException)) {
+                logger.warn("读取API缓存失败，将重新调用: {}", path, e);
+            }
+            synchronized (this) {
+                Long size = entries.remove(key);
+                if (size != null) {
+                    totalBytes -= size;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 写入缓存条目，先写临时文件再原子替换；写入失败只记录警告
+     */
+    private void write(String key, JsonObject entry) {
+        Path path = entryPath(key);
+        // 多个进程可能共用缓存目录，临时文件名各不相同
+        Path tempPath = cacheDir.resolve(key + ENTRY_SUFFIX + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createDirectories(cacheDir);
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempPath))) {
+                out.write(entry.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            long size = Files.size(tempPath);
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            synchronized (this) {
+                Long previous = entries.put(key, size);
+                totalBytes += size - (previous == null ? 0 : previous);
+                evict();
+            }
+        } catch (IOException e) {
+            logger.warn("保存API缓存失败: {}", path, e);
+        }
+    }
+
+    /**
+     * 淘汰最久未使用的条目，直到总大小不超过上限
+     */
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            try {
+                Files.deleteIfExists(entryPath(eldest.getKey()));
+            } catch (IOException e) {
+                logger.warn("删除API缓存失败: {}", eldest.getKey(), e);
+            }
+            totalBytes -= eldest.getValue();
+            iterator.remove();
+            logger.debug("淘汰API缓存: {}", eldest.getKey());
+        }
+    }
+
+    /**
+     * 启动时扫描缓存目录，按最近使用时间恢复LRU顺序
+     */
+    private synchronized void loadEntries() {
+        if (!Files.isDirectory(cacheDir)) {
+            return;
+        }
+
+        Map<Path, Long> lastUsed = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir, "*" + ENTRY_SUFFIX)) {
+            for (Path file : stream) {
+                lastUsed.put(file, Files.getLastModifiedTime(file).toMillis());
+            }
+        } catch (IOException e) {
+            logger.warn("读取API缓存目录失败: {}", cacheDir, e);
+            return;
+        }
+
+        List<Path> files = new ArrayList<>(lastUsed.keySet());
+        files.sort(Comparator.comparing(lastUsed::get));
+        for (Path file : files) {
+            try {
+                String name = file.getFileName().toString();
+                long size = Files.size(file);
+                entries.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), size);
+                totalBytes += size;
+            } catch (IOException e) {
+                logger.warn("读取API缓存条目失败: {}", file, e);
+            }
+        }
+        evict();
+        logger.info("已加载API缓存: {}个条目，共{}字节", entries.size(), totalBytes);
+    }
+}
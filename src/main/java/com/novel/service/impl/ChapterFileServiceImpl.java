@@ -1,5 +1,8 @@
 package com.novel.service.impl;
 
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.novel.model.Batch;
 import com.novel.model.Chapter;
 import com.novel.service.ChapterFileService;
 import com.novel.util.Constants;
@@ -7,19 +10,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class ChapterFileServiceImpl implements ChapterFileService {
     private static final Logger logger = LoggerFactory.getLogger(ChapterFileServiceImpl.class);
     private static final Pattern FILE_NAME_PATTERN = Pattern.compile("(\\d+)第(\\d+)-(\\d+)章\\.txt");
+    private final Gson gson = new Gson();
 
     @Override
     public String readChapterContent(File file) throws Exception {
@@ -30,10 +40,36 @@ public class ChapterFileServiceImpl implements ChapterFileService {
     public void saveAnalysisResult(String fileName, String content) throws Exception {
         Path outputPath = Paths.get(Constants.API_RESULTS_DIR, fileName);
         Files.createDirectories(outputPath.getParent());
-        Files.writeString(outputPath, content, StandardCharsets.UTF_8);
+
+        // 先写临时文件并fsync，再原子替换，崩溃后不会留下半个结果文件；
+        // 临时文件名各不相同，多个工作进程同时保存同一个批次时后写入的整体替换先写入的
+        Path tempPath = outputPath.resolveSibling(fileName + "." + UUID.randomUUID() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = StandardCharsets.UTF_8.encode(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tempPath, outputPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         logger.info("已保存分析结果: {}", fileName);
     }
 
+    @Override
+    public String readAnalysisResult(String fileName) throws Exception {
+        Path resultPath = Paths.get(Constants.API_RESULTS_DIR, fileName);
+        if (!Files.exists(resultPath)) {
+            return null;
+        }
+        return Files.readString(resultPath, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean hasAnalysisResult(String fileName) {
+        return Files.exists(Paths.get(Constants.API_RESULTS_DIR, fileName));
+    }
+
     @Override
     public List<File> getAllChapterFiles() throws Exception {
         File splitChaptersDir = new File(Constants.SPLIT_CHAPTERS_DIR);
@@ -46,8 +82,8 @@ public class ChapterFileServiceImpl implements ChapterFileService {
             throw new IllegalStateException("没有找到分割后的章节文件");
         }
 
-        // 按文件名排序
-        Arrays.sort(files, Comparator.comparing(File::getName));
+        // 按文件序号排序：序号只补零到三位，超过999个批次时按文件名排序会乱序
+        Arrays.sort(files, Comparator.comparingInt(file -> parseChapterInfo(file).getFileIndex()));
         return Arrays.asList(files);
     }
 
@@ -62,4 +98,15 @@ public class ChapterFileServiceImpl implements ChapterFileService {
         }
         throw new IllegalArgumentException("无效的文件名格式: " + file.getName());
     }
+
+    @Override
+    public List<Batch> loadBatchPlan() throws Exception {
+        Path planPath = Paths.get(Constants.SPLIT_CHAPTERS_DIR, Constants.BATCH_PLAN_FILE_NAME);
+        if (!Files.exists(planPath)) {
+            return Collections.emptyList();
+        }
+        List<Batch> batches = gson.fromJson(Files.readString(planPath, StandardCharsets.UTF_8),
+                new TypeToken<List<Batch>>() { }.getType());
+        return batches != null ? batches : Collections.emptyList();
+    }
 }
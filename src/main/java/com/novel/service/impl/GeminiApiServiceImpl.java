@@ -1,87 +1,292 @@
 package com.novel.service.impl;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.novel.metrics.PipelineMetrics;
 import com.novel.model.ApiRequest;
 import com.novel.model.ApiResponse;
 import com.novel.service.GeminiApiService;
+import com.novel.util.CircuitBreaker;
 import com.novel.util.Constants;
+import com.novel.util.RetryPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class GeminiApiServiceImpl implements GeminiApiService {
     private static final Logger logger = LoggerFactory.getLogger(GeminiApiServiceImpl.class);
+    // 没有收到HTTP响应（网络错误）时记录的状态码
+    private static final int NO_RESPONSE = 0;
     private final String apiKey;
+    private final String baseUrl;
     private final HttpClient httpClient;
     private final Gson gson;
+    private final ScheduledExecutorService retryScheduler;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreaker circuitBreaker;
+    private final PipelineMetrics metrics;
 
     public GeminiApiServiceImpl(String apiKey) {
-        this(apiKey, HttpClient.newHttpClient(), new GsonBuilder().setPrettyPrinting().create());
+        this(apiKey, HttpClient.newHttpClient(), new Gson());
+    }
+
+    /**
+     * @param circuitBreaker 熔断器，密钥池中所有密钥的服务共用同一个
+     */
+    public GeminiApiServiceImpl(String apiKey, CircuitBreaker circuitBreaker) {
+        this(apiKey, Constants.GEMINI_BASE_URL, HttpClient.newHttpClient(), new Gson(), newRetryScheduler(),
+                new RetryPolicy(), circuitBreaker);
     }
 
     // 用于测试的构造函数，允许注入mock对象
     public GeminiApiServiceImpl(String apiKey, HttpClient httpClient, Gson gson) {
+        this(apiKey, httpClient, gson, newRetryScheduler());
+    }
+
+    public GeminiApiServiceImpl(String apiKey, HttpClient httpClient, Gson gson,
+                                ScheduledExecutorService retryScheduler) {
+        this(apiKey, Constants.GEMINI_BASE_URL, httpClient, gson, retryScheduler);
+    }
+
+    /**
+     * 使用本实例独有的熔断器
+     *
+     * @param baseUrl API根地址，测试时可以指向本地服务
+     */
+    public GeminiApiServiceImpl(String apiKey, String baseUrl, HttpClient httpClient, Gson gson,
+                                ScheduledExecutorService retryScheduler) {
+        this(apiKey, baseUrl, httpClient, gson, retryScheduler, new RetryPolicy(), new CircuitBreaker());
+    }
+
+    /**
+     * @param circuitBreaker 熔断器，多个服务实例共享同一个时任一实例发现服务饱和都会暂停全部请求
+     */
+    public GeminiApiServiceImpl(String apiKey, String baseUrl, HttpClient httpClient, Gson gson,
+                                ScheduledExecutorService retryScheduler, RetryPolicy retryPolicy,
+                                CircuitBreaker circuitBreaker) {
+        this(apiKey, baseUrl, httpClient, gson, retryScheduler, retryPolicy, circuitBreaker,
+                PipelineMetrics.getDefault());
+    }
+
+    /**
+     * @param metrics 记录每次HTTP调用的延迟、状态码和重试次数
+     */
+    public GeminiApiServiceImpl(String apiKey, String baseUrl, HttpClient httpClient, Gson gson,
+                                ScheduledExecutorService retryScheduler, RetryPolicy retryPolicy,
+                                CircuitBreaker circuitBreaker, PipelineMetrics metrics) {
         this.apiKey = apiKey;
+        this.baseUrl = baseUrl;
         this.httpClient = httpClient;
         this.gson = gson;
+        this.retryScheduler = retryScheduler;
+        this.retryPolicy = retryPolicy;
+        this.circuitBreaker = circuitBreaker;
+        this.metrics = metrics;
+    }
+
+    private static ScheduledExecutorService newRetryScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "gemini-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Override
     public ApiResponse callApi(ApiRequest request) throws Exception {
-        Exception lastException = null;
-        
-        for (int retry = 0; retry <= request.getRetryCount(); retry++) {
-            if (retry > 0) {
-                logger.warn("API调用失败，尝试重试 {}/{}", retry, request.getRetryCount());
-                Thread.sleep(request.getRetryDelayMs());
-            }
+        try {
+            return callApiAsync(request).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<ApiResponse> callApiAsync(ApiRequest request) {
+        CompletableFuture<ApiResponse> result = new CompletableFuture<>();
+        attemptAsync(request, 0, result);
+        return result;
+    }
+
+    /**
+     * 发出第attempt次异步调用，失败时通过定时器安排下一次重试，而不是让线程睡眠
+     */
+    private void attemptAsync(ApiRequest request, int attempt, CompletableFuture<ApiResponse> result) {
+        if (result.isDone()) {
+            return;
+        }
 
-            try {
-                HttpRequest httpRequest = buildRequest(request.getPrompt());
-                HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
+        // 熔断期间不发出请求，到期后再尝试
+        long pause = circuitBreaker.pauseRemainingMs();
+        if (pause > 0) {
+            logger.debug("熔断器已打开，{}ms后再发出请求", pause);
+            retryScheduler.schedule(() -> attemptAsync(request, attempt, result), pause, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        HttpRequest httpRequest;
+        HttpResponse.BodyHandler<String> bodyHandler;
+        // 流式响应的文本逐段写入输出文件，解析器不再保留一份
+        GenerateContentParser parser = new GenerateContentParser(!request.isStreaming());
+        try {
+            if (request.isStreaming()) {
+                httpRequest = buildRequest("streamGenerateContent", "alt=sse&", request.getBody());
+                bodyHandler = streamingHandler(parser, request.getStreamOutput());
+            } else {
+                httpRequest = buildRequest("generateContent", "", request.getBody());
+                bodyHandler = HttpResponse.BodyHandlers.ofString();
+            }
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+            return;
+        }
 
-                if (response.statusCode() == 200) {
-                    return ApiResponse.success(response.statusCode(), response.body());
+        long start = metrics.now();
+        CompletableFuture<HttpResponse<String>> exchange = httpClient.sendAsync(httpRequest, bodyHandler);
+        // 调用方取消时中止HTTP交换，不再等待被放弃的响应
+        result.whenComplete((ignored, cause) -> {
+            if (result.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+        exchange.whenComplete((response, error) -> {
+            if (result.isDone()) {
+                return;
+            }
+            int statusCode;
+            String message;
+            HttpHeaders headers = null;
+            String body = null;
+            if (error != null) {
+                logger.error("API调用出错", error);
+                statusCode = NO_RESPONSE;
+                message = error.getMessage();
+                metrics.recordApiCall(statusCode, metrics.now() - start);
+            } else {
+                statusCode = response.statusCode();
+                metrics.recordApiCall(statusCode, metrics.now() - start);
+                if (statusCode == 200) {
+                    ApiResponse parsed = parseSuccess(parser, request, response.body());
+                    if (parsed != null) {
+                        circuitBreaker.recordSuccess();
+                        result.complete(parsed);
+                        return;
+                    }
+                    statusCode = NO_RESPONSE;
+                    message = "无法解析API响应";
                 } else {
-                    lastException = new RuntimeException("API调用失败，状态码: " + response.statusCode() + 
-                        ", 响应体: " + response.body());
+                    headers = response.headers();
+                    body = response.body();
+                    message = "API调用失败，状态码: " + statusCode + ", 响应体: " + body;
                 }
-            } catch (Exception e) {
-                lastException = e;
-                logger.error("API调用出错", e);
             }
+
+            long retryHintMs = RetryPolicy.retryHintMs(headers, body);
+            long delay = nextRetryDelayMs(request, attempt, statusCode, retryHintMs);
+            if (delay < 0) {
+                result.complete(ApiResponse.error(statusCode, message, retryHintMs));
+                return;
+            }
+            logger.warn("API调用失败（状态码{}），{}ms后重试 {}/{}", statusCode, delay, attempt + 1, request.getRetryCount());
+            metrics.recordRetry(statusCode);
+            retryScheduler.schedule(() -> attemptAsync(request, attempt + 1, result), delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * 记录一次失败并计算下一次重试前的等待时间，不应重试时返回-1
+     *
+     * @param retryHintMs 服务端建议的等待时间，没有时为-1；不再重试时随错误响应返回给调用方
+     */
+    private long nextRetryDelayMs(ApiRequest request, int attempt, int statusCode, long retryHintMs) {
+        if (RetryPolicy.isSaturated(statusCode)) {
+            circuitBreaker.recordSaturation(retryHintMs);
+        }
+        if (!RetryPolicy.isRetryable(statusCode) || attempt >= request.getRetryCount()) {
+            return -1;
         }
+        long delay = retryPolicy.delayMs(attempt + 1, request.getRetryDelayMs(), retryHintMs);
+        return Math.max(delay, circuitBreaker.pauseRemainingMs());
+    }
+
+    /**
+     * 解析成功的响应，只取出文本、结束原因和token数。流式响应已经在接收时解析完毕，文本在输出文件中，
+     * 响应的内容为null；响应体无法解析时返回null
+     */
+    private ApiResponse parseSuccess(GenerateContentParser parser, ApiRequest request, String body) {
+        try {
+            if (!request.isStreaming()) {
+                parser.parse(new StringReader(body));
+            }
+            return parser.toResponse(200);
+        } catch (IOException e) {
+            logger.error("解析API响应失败", e);
+            return null;
+        }
+    }
 
-        return ApiResponse.error(500, lastException.getMessage());
+    /**
+     * 成功的流式响应边接收边解析并写入文件，失败的响应照常读取为字符串以便记录错误
+     */
+    private HttpResponse.BodyHandler<String> streamingHandler(GenerateContentParser parser, Path output) {
+        return responseInfo -> responseInfo.statusCode() == 200
+                ? new StreamingTextSubscriber(parser, output)
+                : HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
     }
 
-    private HttpRequest buildRequest(String prompt) {
+    @Override
+    public int countTokens(String text) throws Exception {
+        HttpRequest httpRequest = buildRequest("countTokens", "",
+                gson.toJson(buildContents(text)).getBytes(StandardCharsets.UTF_8));
+        HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("countTokens调用失败，状态码: " + response.statusCode() +
+                ", 响应体: " + response.body());
+        }
+        return gson.fromJson(response.body(), JsonObject.class).get("totalTokens").getAsInt();
+    }
+
+    private JsonObject buildContents(String text) {
         JsonObject requestBody = new JsonObject();
         JsonArray contents = new JsonArray();
         JsonObject content = new JsonObject();
         JsonArray parts = new JsonArray();
         JsonObject part = new JsonObject();
         
-        part.addProperty("text", prompt);
+        part.addProperty("text", text);
         parts.add(part);
         content.add("parts", parts);
         contents.add(content);
         requestBody.add("contents", contents);
+        return requestBody;
+    }
 
-        String url = String.format("https://generativelanguage.googleapis.com/v1beta/models/%s:generateContent?key=%s",
-                Constants.GEMINI_MODEL, apiKey);
+    /**
+     * 请求体是预先构建好的字节数组，重试时直接复用，不会再次编码或复制
+     */
+    private HttpRequest buildRequest(String method, String query, byte[] requestBody) {
+        String url = String.format("%s/models/%s:%s?%skey=%s",
+                baseUrl, Constants.GEMINI_MODEL, method, query, apiKey);
 
         return HttpRequest.newBuilder()
                 .uri(URI.create(url))
                 .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(requestBody)))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(requestBody))
                 .build();
     }
 }
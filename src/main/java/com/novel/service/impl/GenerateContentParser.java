@@ -0,0 +1,183 @@
+package com.novel.service.impl;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.novel.model.ApiResponse;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 用JsonReader流式解析GenerateContentResponse，只取出第一个候选的文本、结束原因和usageMetadata中的token数，
+ * 安全评级等其他字段直接跳过，不构建JsonObject树。
+ * 流式响应的每个事件依次交给同一个解析器：结束原因和token数取最后一次出现的值，
+ * 文本由调用方逐段写出，解析器不再保留
+ */
+public class GenerateContentParser {
+    // 累加的文本，不保留文本时为null
+    private final StringBuilder text;
+    // 当前解析的响应对象中的文本
+    private final StringBuilder chunk = new StringBuilder();
+    private String finishReason;
+    private int promptTokens;
+    private int candidatesTokens;
+    private int totalTokens;
+
+    public GenerateContentParser() {
+        this(true);
+    }
+
+    /**
+     * @param retainText 是否累加各次解析的文本，流式响应逐段写入文件时不需要
+     */
+    public GenerateContentParser(boolean retainText) {
+        this.text = retainText ? new StringBuilder() : null;
+    }
+
+    /**
+     * 解析一个响应对象，返回其中新增的文本
+     *
+     * @throws IOException JSON格式错误，或者响应中包含error字段
+     */
+    public String parse(Reader in) throws IOException {
+        chunk.setLength(0);
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "candidates":
+                        readCandidates(reader);
+                        break;
+                    case "usageMetadata":
+                        readUsage(reader);
+                        break;
+                    case "error":
+                        // 错误对象很小，只有这里整体读取以便记录
+                        throw new IOException("响应返回错误: " + JsonParser.parseReader(reader));
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            // 字段类型与预期不符
+            throw new IOException("无法解析响应: " + e.getMessage(), e);
+        }
+        if (text != null) {
+            text.append(chunk);
+        }
+        return chunk.toString();
+    }
+
+    /**
+     * 已解析的结束原因，还没有收到时为null
+     */
+    public String getFinishReason() {
+        return finishReason;
+    }
+
+    /**
+     * 已解析的内容组成的成功响应，不保留文本时内容为null
+     */
+    public ApiResponse toResponse(int statusCode) {
+        return ApiResponse.success(statusCode, text != null ? text.toString() : null, finishReason,
+                promptTokens, candidatesTokens, totalTokens);
+    }
+
+    private void readCandidates(JsonReader reader) throws IOException {
+        if (skipNull(reader)) {
+            return;
+        }
+        reader.beginArray();
+        boolean first = true;
+        while (reader.hasNext()) {
+            // 只使用第一个候选
+            if (first) {
+                readCandidate(reader);
+                first = false;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endArray();
+    }
+
+    private void readCandidate(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("content".equals(name) && !skipNull(reader)) {
+                readContent(reader);
+            } else if ("finishReason".equals(name) && !skipNull(reader)) {
+                finishReason = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readContent(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("parts".equals(reader.nextName()) && !skipNull(reader)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readPart(reader);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readPart(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("text".equals(reader.nextName()) && !skipNull(reader)) {
+                chunk.append(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readUsage(JsonReader reader) throws IOException {
+        if (skipNull(reader)) {
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "promptTokenCount":
+                    promptTokens = reader.nextInt();
+                    break;
+                case "candidatesTokenCount":
+                    candidatesTokens = reader.nextInt();
+                    break;
+                case "totalTokenCount":
+                    totalTokens = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * 值为null时跳过并返回true
+     */
+    private static boolean skipNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return true;
+        }
+        return false;
+    }
+}
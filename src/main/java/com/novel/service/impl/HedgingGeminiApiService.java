@@ -0,0 +1,283 @@
+package com.novel.service.impl;
+
+import com.novel.metrics.LatencyHistogram;
+import com.novel.metrics.PipelineMetrics;
+import com.novel.model.ApiRequest;
+import com.novel.model.ApiResponse;
+import com.novel.service.GeminiApiService;
+import com.novel.util.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 对冲请求：调用超过近期延迟的某个分位数仍未返回时，再发出一份相同的请求，取先成功的结果并取消另一份。
+ * 包在密钥池外面时，对冲请求会优先分配到其他密钥，也同样受各密钥限流器的约束；
+ * 每发出一个普通请求积累budgetRatio个额度，每个对冲请求消耗一个，对冲请求数不超过普通请求数的该比例。
+ * 流式请求的原请求和对冲请求分别写入旁边的.primary和.hedge文件，胜出的一份在结果完成之前移动为输出文件，
+ * 被取消的一份即使还在写入也不会影响输出文件
+ */
+public class HedgingGeminiApiService implements GeminiApiService {
+    private static final Logger logger = LoggerFactory.getLogger(HedgingGeminiApiService.class);
+    private static final String PRIMARY_SUFFIX = ".primary";
+    private static final String HEDGE_SUFFIX = ".hedge";
+    // 额度的积累上限，长时间没有慢请求之后也不会一次发出大量对冲请求
+    private static final double MAX_CREDITS = 10;
+
+    private final GeminiApiService delegate;
+    private final ScheduledExecutorService scheduler;
+    private final double percentile;
+    private final double budgetRatio;
+    private final int minSamples;
+    private final LongSupplier nanoClock;
+    private final PipelineMetrics metrics;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    // 由this加锁访问
+    private double credits;
+
+    public HedgingGeminiApiService(GeminiApiService delegate, ScheduledExecutorService scheduler) {
+        this(delegate, scheduler, Constants.HEDGE_PERCENTILE, Constants.HEDGE_BUDGET_RATIO,
+                Constants.HEDGE_MIN_SAMPLES, System::nanoTime, PipelineMetrics.getDefault());
+    }
+
+    /**
+     * @param percentile  超过该分位数（0到1之间）的延迟后发出对冲请求
+     * @param budgetRatio 对冲请求数占普通请求数的比例上限
+     * @param minSamples  积累这么多延迟样本之后才开始对冲
+     * @param nanoClock   纳秒时钟，测试时可以注入虚拟时钟
+     */
+    public HedgingGeminiApiService(GeminiApiService delegate, ScheduledExecutorService scheduler, double percentile,
+                                   double budgetRatio, int minSamples, LongSupplier nanoClock,
+                                   PipelineMetrics metrics) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("对冲分位数必须在0和1之间: " + percentile);
+        }
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+        this.percentile = percentile;
+        this.budgetRatio = budgetRatio;
+        this.minSamples = minSamples;
+        this.nanoClock = nanoClock;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public ApiResponse callApi(ApiRequest request) throws Exception {
+        try {
+            return callApiAsync(request).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<ApiResponse> callApiAsync(ApiRequest request) {
+        synchronized (this) {
+            credits = Math.min(MAX_CREDITS, credits + budgetRatio);
+        }
+        HedgedCall call = new HedgedCall(request);
+        call.primary = delegate.callApiAsync(call.attempt(call.primaryOutput));
+        call.primary.whenComplete((response, error) -> call.onComplete(false, response, error));
+
+        long delayNanos = hedgeDelayNanos();
+        if (delayNanos >= 0 && !call.result.isDone()) {
+            ScheduledFuture<?> timer = scheduler.schedule(call::hedge, delayNanos, TimeUnit.NANOSECONDS);
+            call.result.whenComplete((response, error) -> timer.cancel(false));
+        }
+        return call.result;
+    }
+
+    /**
+     * 发出对冲请求前的等待时间，样本不足时返回-1，不对冲
+     */
+    long hedgeDelayNanos() {
+        if (latencies.getCount() < minSamples) {
+            return -1;
+        }
+        return (long) (latencies.percentileMs(percentile) * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private synchronized boolean takeCredit() {
+        if (credits < 1) {
+            return false;
+        }
+        credits--;
+        return true;
+    }
+
+    @Override
+    public boolean isCached(ApiRequest request) {
+        return delegate.isCached(request);
+    }
+
+    @Override
+    public long readyInNanos() {
+        return delegate.readyInNanos();
+    }
+
+    @Override
+    public int countTokens(String text) throws Exception {
+        return delegate.countTokens(text);
+    }
+
+    /**
+     * 一次调用的普通请求和对冲请求，result在其中一份成功或两份都失败时完成
+     */
+    private class HedgedCall {
+        private final ApiRequest request;
+        private final long startNanos = nanoClock.getAsLong();
+        private final CompletableFuture<ApiResponse> result = new CompletableFuture<>();
+        // 两份请求各自的流式输出文件，非流式请求为null
+        private final Path primaryOutput;
+        private final Path hedgeOutput;
+        private volatile CompletableFuture<ApiResponse> primary;
+        private volatile CompletableFuture<ApiResponse> hedge;
+        // 以下字段由this加锁访问
+        private int pending = 1;
+        // 已经有一份请求成功，另一份的结果不再使用
+        private boolean settled;
+        private ApiResponse lastFailure;
+        private Throwable lastError;
+
+        HedgedCall(ApiRequest request) {
+            this.request = request;
+            Path output = request.getStreamOutput();
+            this.primaryOutput = output != null ? output.resolveSibling(output.getFileName() + PRIMARY_SUFFIX) : null;
+            this.hedgeOutput = output != null ? output.resolveSibling(output.getFileName() + HEDGE_SUFFIX) : null;
+            // 调用方取消时两份请求都取消
+            result.whenComplete((response, error) -> {
+                if (result.isCancelled()) {
+                    cancel(primary);
+                    cancel(hedge);
+                }
+            });
+        }
+
+        /**
+         * 一份请求：流式请求改为写入该份自己的输出文件
+         */
+        ApiRequest attempt(Path attemptOutput) {
+            return attemptOutput != null ? request.withStreamOutput(attemptOutput) : request;
+        }
+
+        private void cancel(CompletableFuture<ApiResponse> attempt) {
+            if (attempt != null) {
+                attempt.cancel(true);
+            }
+        }
+
+        void hedge() {
+            synchronized (this) {
+                // 原请求已经失败时直接返回它的结果，不再对冲
+                if (result.isDone() || settled || pending == 0) {
+                    return;
+                }
+                if (!takeCredit()) {
+                    metrics.recordHedge("skipped");
+                    logger.debug("对冲额度不足，继续等待原请求");
+                    return;
+                }
+                pending++;
+            }
+            metrics.recordHedge("launched");
+            logger.info("请求已等待{}ms仍未返回，发出对冲请求",
+                    TimeUnit.NANOSECONDS.toMillis(nanoClock.getAsLong() - startNanos));
+            hedge = delegate.callApiAsync(attempt(hedgeOutput));
+            hedge.whenComplete((response, error) -> onComplete(true, response, error));
+            // 发出期间原请求可能已经胜出，它取消对冲请求时对冲请求还没有赋值
+            boolean lost;
+            synchronized (this) {
+                lost = settled;
+            }
+            if (lost || result.isDone()) {
+                hedge.cancel(true);
+            }
+        }
+
+        void onComplete(boolean isHedge, ApiResponse response, Throwable error) {
+            boolean cancelled = isHedge ? hedge.isCancelled() : primary.isCancelled();
+            if (!isHedge && (cancelled || (error == null && response.isSuccess()))) {
+                // 被取消的原请求至少等了这么久，同样计入样本，否则胜出的对冲请求会让分位数越来越低
+                latencies.record(nanoClock.getAsLong() - startNanos);
+            }
+            Path attemptOutput = isHedge ? hedgeOutput : primaryOutput;
+            if (cancelled) {
+                deleteOutput(attemptOutput);
+                return;
+            }
+
+            if (error == null && response.isSuccess()) {
+                synchronized (this) {
+                    if (settled) {
+                        deleteOutput(attemptOutput);
+                        return;
+                    }
+                    settled = true;
+                }
+                // 输出文件和指标都在完成结果之前就绪，调用方拿到结果时可以直接读取输出文件
+                promoteOutput(attemptOutput);
+                CompletableFuture<ApiResponse> loser = isHedge ? primary : hedge;
+                if (loser != null) {
+                    cancel(loser);
+                    metrics.recordHedge(isHedge ? "won" : "lost");
+                }
+                result.complete(response);
+                return;
+            }
+
+            // 失败时等待另一份请求，两份都失败才返回最后一个错误
+            boolean last;
+            synchronized (this) {
+                pending--;
+                last = pending == 0 && !settled;
+                lastFailure = response;
+                lastError = error;
+            }
+            deleteOutput(attemptOutput);
+            if (last) {
+                if (lastError != null) {
+                    result.completeExceptionally(lastError);
+                } else {
+                    result.complete(lastFailure);
+                }
+            }
+        }
+
+        /**
+         * 把胜出的一份请求的流式输出移动为原请求的输出文件
+         */
+        private void promoteOutput(Path attemptOutput) {
+            if (attemptOutput == null) {
+                return;
+            }
+            try {
+                Files.move(attemptOutput, request.getStreamOutput(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.warn("替换流式输出文件失败: {}", request.getStreamOutput(), e);
+            }
+        }
+
+        private void deleteOutput(Path attemptOutput) {
+            if (attemptOutput == null) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(attemptOutput);
+            } catch (IOException e) {
+                logger.warn("删除流式输出的临时文件失败: {}", attemptOutput, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.novel.service.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 只在本进程内存中的预约状态，时间线就是本进程的纳秒时钟，当天的请求数从创建起每24小时清零
+ */
+class InMemoryRateLimiterState implements RateLimiterState {
+    private static final long ONE_DAY_NANOS = TimeUnit.DAYS.toNanos(1);
+
+    private final LongSupplier nanoClock;
+    private final long origin;
+    private long requestTat;
+    private long tokenTat;
+    private long day;
+    private long dailyCount;
+
+    InMemoryRateLimiterState(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.origin = nanoClock.getAsLong();
+        this.requestTat = origin;
+        this.tokenTat = origin;
+    }
+
+    @Override
+    public long now() {
+        return nanoClock.getAsLong();
+    }
+
+    @Override
+    public synchronized long locked(LongSupplier operation) {
+        return operation.getAsLong();
+    }
+
+    @Override
+    public long getRequestTat() {
+        return requestTat;
+    }
+
+    @Override
+    public void setRequestTat(long requestTat) {
+        this.requestTat = requestTat;
+    }
+
+    @Override
+    public long getTokenTat() {
+        return tokenTat;
+    }
+
+    @Override
+    public void setTokenTat(long tokenTat) {
+        this.tokenTat = tokenTat;
+    }
+
+    @Override
+    public long getDailyCount(long now) {
+        long today = (now - origin) / ONE_DAY_NANOS;
+        if (day != today) {
+            day = today;
+            dailyCount = 0;
+        }
+        return dailyCount;
+    }
+
+    @Override
+    public void setDailyCount(long dailyCount) {
+        this.dailyCount = dailyCount;
+    }
+
+    @Override
+    public void close() {
+    }
+}
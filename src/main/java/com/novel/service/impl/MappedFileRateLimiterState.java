@@ -0,0 +1,142 @@
+package com.novel.service.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * 保存在内存映射文件中的预约状态，同一台机器上打开同一个文件的所有进程共享。
+ * 时间线是墙上时钟（自1970年起的纳秒数），各进程之间可比；当天的请求数在配额时区的零点清零。
+ * FileLock只在进程之间互斥，同一个进程内打开同一个文件的状态另外按文件加锁
+ */
+class MappedFileRateLimiterState implements RateLimiterState {
+    private static final Logger logger = LoggerFactory.getLogger(MappedFileRateLimiterState.class);
+
+    // 文件布局：魔数、版本、请求TAT、token TAT、计数所属的日期（epoch day）、当天请求数
+    private static final int MAGIC = 0x4E514C31;  // "NQL1"
+    private static final int VERSION = 1;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int REQUEST_TAT_OFFSET = 8;
+    private static final int TOKEN_TAT_OFFSET = 16;
+    private static final int DAY_OFFSET = 24;
+    private static final int DAILY_COUNT_OFFSET = 32;
+    private static final int FILE_SIZE = 64;
+
+    private static final ConcurrentHashMap<Path, Object> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer state;
+    private final Object processLock;
+    private final LongSupplier epochNanoClock;
+    private final ZoneId quotaZone;
+
+    /**
+     * 打开或创建状态文件，文件不是有效的状态文件时从当前时间重新开始
+     */
+    MappedFileRateLimiterState(Path file, LongSupplier epochNanoClock, ZoneId quotaZone) throws IOException {
+        this.file = file.toAbsolutePath().normalize();
+        this.epochNanoClock = epochNanoClock;
+        this.quotaZone = quotaZone;
+        this.processLock = PROCESS_LOCKS.computeIfAbsent(this.file, path -> new Object());
+
+        if (this.file.getParent() != null) {
+            Files.createDirectories(this.file.getParent());
+        }
+        this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.state = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+        locked(() -> {
+            if (state.getInt(MAGIC_OFFSET) != MAGIC || state.getInt(VERSION_OFFSET) != VERSION) {
+                long now = epochNanoClock.getAsLong();
+                state.putLong(REQUEST_TAT_OFFSET, now);
+                state.putLong(TOKEN_TAT_OFFSET, now);
+                state.putLong(DAY_OFFSET, day(now));
+                state.putLong(DAILY_COUNT_OFFSET, 0);
+                state.putInt(VERSION_OFFSET, VERSION);
+                state.putInt(MAGIC_OFFSET, MAGIC);
+            }
+            return 0;
+        });
+    }
+
+    @Override
+    public long now() {
+        return epochNanoClock.getAsLong();
+    }
+
+    /**
+     * 先取得进程内的锁，再取得文件锁，在两者之内读写映射的状态
+     */
+    @Override
+    public long locked(LongSupplier operation) {
+        synchronized (processLock) {
+            try (FileLock ignored = channel.lock()) {
+                return operation.getAsLong();
+            } catch (IOException e) {
+                throw new UncheckedIOException("锁定配额状态文件失败: " + file, e);
+            }
+        }
+    }
+
+    @Override
+    public long getRequestTat() {
+        return state.getLong(REQUEST_TAT_OFFSET);
+    }
+
+    @Override
+    public void setRequestTat(long requestTat) {
+        state.putLong(REQUEST_TAT_OFFSET, requestTat);
+    }
+
+    @Override
+    public long getTokenTat() {
+        return state.getLong(TOKEN_TAT_OFFSET);
+    }
+
+    @Override
+    public void setTokenTat(long tokenTat) {
+        state.putLong(TOKEN_TAT_OFFSET, tokenTat);
+    }
+
+    @Override
+    public long getDailyCount(long now) {
+        long today = day(now);
+        if (state.getLong(DAY_OFFSET) != today) {
+            state.putLong(DAY_OFFSET, today);
+            state.putLong(DAILY_COUNT_OFFSET, 0);
+        }
+        return state.getLong(DAILY_COUNT_OFFSET);
+    }
+
+    @Override
+    public void setDailyCount(long dailyCount) {
+        state.putLong(DAILY_COUNT_OFFSET, dailyCount);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("关闭配额状态文件失败: {}", file, e);
+        }
+    }
+
+    private long day(long epochNanos) {
+        return Instant.ofEpochSecond(0, epochNanos).atZone(quotaZone).toLocalDate().toEpochDay();
+    }
+}
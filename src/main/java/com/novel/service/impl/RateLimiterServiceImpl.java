@@ -1,44 +1,202 @@
 package com.novel.service.impl;
 
+import com.novel.metrics.PipelineMetrics;
+import com.novel.service.DailyQuotaExceededException;
 import com.novel.service.RateLimiterService;
 import com.novel.util.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 
+/**
+ * 基于GCRA（通用信元速率算法）的平滑限流器，同时限制每分钟请求数和每分钟输入token数。
+ * 每个请求按到达顺序预约一个发出时间：请求之间至少间隔 1分钟/RPM，
+ * 一个n token的请求之后至少间隔 n×(1分钟/TPM) 才允许下一个请求，因此不会出现窗口边界的突发，
+ * 空闲之后也不会积攒额度。等待只需按预约时间睡眠或调度一次，不会为每个调用者堆积定时任务。
+ * 预约状态（两个TAT和当天的请求数）保存在RateLimiterState中，默认只在本进程内存中
+ */
 public class RateLimiterServiceImpl implements RateLimiterService {
     private static final Logger logger = LoggerFactory.getLogger(RateLimiterServiceImpl.class);
-    private final AtomicInteger requestCounter;
+    private static final long ONE_MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final long requestIntervalNanos;
+    private final long tokensPerMinute;
+    private final int requestsPerDay;
+    private final RateLimiterState state;
     private final ScheduledExecutorService scheduler;
+    // 调度器由限流器自己创建时关闭限流器时一并关闭，调用方传入的调度器由调用方负责关闭
+    private final boolean ownsScheduler;
+    private final LongSupplier nanoClock;
+    private final String name;
+    private final PipelineMetrics metrics;
+
+    /**
+     * 使用默认配额和限流器自己的调度线程，shutdown时关闭该线程
+     */
+    public RateLimiterServiceImpl() {
+        this(Constants.MAX_REQUESTS_PER_MINUTE, Constants.MAX_INPUT_TOKENS_PER_MINUTE,
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "rate-limiter");
+                    thread.setDaemon(true);
+                    return thread;
+                }), true, System::nanoTime, "global", PipelineMetrics.getDefault());
+    }
 
     public RateLimiterServiceImpl(ScheduledExecutorService scheduler) {
-        this.requestCounter = new AtomicInteger(0);
+        this(Constants.MAX_REQUESTS_PER_MINUTE, Constants.MAX_INPUT_TOKENS_PER_MINUTE, scheduler, System::nanoTime);
+    }
+
+    /**
+     * @param nanoClock 纳秒时钟，测试时可以注入虚拟时钟
+     */
+    public RateLimiterServiceImpl(int requestsPerMinute, long tokensPerMinute,
+                                  ScheduledExecutorService scheduler, LongSupplier nanoClock) {
+        this(requestsPerMinute, tokensPerMinute, scheduler, nanoClock, "global", PipelineMetrics.getDefault());
+    }
+
+    /**
+     * @param scheduler 异步等待使用的调度器，由调用方创建和关闭，可以与其他组件共用
+     * @param name 在指标中区分各个限流器的名称
+     */
+    public RateLimiterServiceImpl(int requestsPerMinute, long tokensPerMinute,
+                                  ScheduledExecutorService scheduler, LongSupplier nanoClock,
+                                  String name, PipelineMetrics metrics) {
+        this(requestsPerMinute, tokensPerMinute, scheduler, false, nanoClock, name, metrics);
+    }
+
+    private RateLimiterServiceImpl(int requestsPerMinute, long tokensPerMinute,
+                                   ScheduledExecutorService scheduler, boolean ownsScheduler, LongSupplier nanoClock,
+                                   String name, PipelineMetrics metrics) {
+        this(requestsPerMinute, tokensPerMinute, 0, new InMemoryRateLimiterState(nanoClock), scheduler, ownsScheduler,
+                nanoClock, name, metrics);
+    }
+
+    /**
+     * @param requestsPerDay 每天最大请求数，0表示不限
+     * @param state          预约状态，关闭限流器时一并关闭
+     */
+    RateLimiterServiceImpl(int requestsPerMinute, long tokensPerMinute, int requestsPerDay, RateLimiterState state,
+                           ScheduledExecutorService scheduler, boolean ownsScheduler, LongSupplier nanoClock,
+                           String name, PipelineMetrics metrics) {
+        this.requestIntervalNanos = ONE_MINUTE_NANOS / requestsPerMinute;
+        this.tokensPerMinute = tokensPerMinute;
+        this.requestsPerDay = requestsPerDay;
+        this.state = state;
         this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+        this.nanoClock = nanoClock;
+        this.name = name;
+        this.metrics = metrics;
     }
 
     @Override
     public void acquire() throws InterruptedException {
-        int currentCount = requestCounter.incrementAndGet();
-        
-        if (currentCount > Constants.MAX_REQUESTS_PER_MINUTE) {
-            logger.info("已达到每分钟请求限制，等待下一个时间窗口...");
-            
-            CountDownLatch latch = new CountDownLatch(1);
-            scheduler.schedule(() -> {
-                requestCounter.set(1);
-                latch.countDown();
-            }, 60, TimeUnit.SECONDS);
-            
-            latch.await();
+        acquire(0);
+    }
+
+    @Override
+    public void acquire(int tokens) throws InterruptedException {
+        long waitNanos = reserve(tokens) - nanoClock.getAsLong();
+        metrics.recordLimiterWait(name, waitNanos);
+        if (waitNanos > 0) {
+            logger.info("已达到限流速率，等待{}ms", TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
         }
     }
 
+    @Override
+    public CompletableFuture<Void> acquireAsync(int tokens) {
+        long grantAt;
+        try {
+            grantAt = reserve(tokens);
+        } catch (RuntimeException e) {
+            // 如当天的配额已经用完，交给调用方处理，不在调用线程中抛出
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        long waitNanos = grantAt - nanoClock.getAsLong();
+        metrics.recordLimiterWait(name, waitNanos);
+        if (waitNanos <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // 预约的时间点已经确定，取消future不会归还这次预约
+        logger.debug("已达到限流速率，{}ms后发出请求", TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        scheduler.schedule(() -> future.complete(null), waitNanos, TimeUnit.NANOSECONDS);
+        return future;
+    }
+
+    /**
+     * 现在预约时的放行时间点（纳秒时钟），不实际预约。本次请求的token数只影响之后的请求，不影响本次放行时间
+     */
+    public long availableAt() {
+        return state.locked(() -> {
+            long now = state.now();
+            return toLocal(Math.max(now, Math.max(state.getRequestTat(), state.getTokenTat())), now);
+        });
+    }
+
+    /**
+     * 按到达顺序预约一次请求，返回允许发出请求的时间点（纳秒时钟）。当天的请求数达到上限时抛出DailyQuotaExceededException
+     */
+    long reserve(int tokens) {
+        return state.locked(() -> {
+            long now = state.now();
+            long count = state.getDailyCount(now);
+            if (requestsPerDay > 0 && count >= requestsPerDay) {
+                throw new DailyQuotaExceededException(name + "今天的" + requestsPerDay + "次请求已经用完");
+            }
+            long grantAt = Math.max(now, Math.max(state.getRequestTat(), state.getTokenTat()));
+            state.setRequestTat(grantAt + requestIntervalNanos);
+            // token按实际消耗在发出之后计入，长期速率恰好为每分钟tokensPerMinute
+            state.setTokenTat(grantAt + tokens * ONE_MINUTE_NANOS / tokensPerMinute);
+            state.setDailyCount(count + 1);
+            return toLocal(grantAt, now);
+        });
+    }
+
+    @Override
+    public void recordUsage(int estimatedTokens, int actualTokens) {
+        // 没有返回usageMetadata时保留估算值
+        if (actualTokens <= 0) {
+            return;
+        }
+        state.locked(() -> {
+            state.setTokenTat(state.getTokenTat()
+                    + (long) (actualTokens - estimatedTokens) * ONE_MINUTE_NANOS / tokensPerMinute);
+            return 0;
+        });
+    }
+
+    /**
+     * 今天已经预约的请求数，状态共享时包括其他进程的请求
+     */
+    public long getDailyCount() {
+        return state.locked(() -> state.getDailyCount(state.now()));
+    }
+
+    /**
+     * 只关闭限流器自己创建的调度器，共用的调度器由创建它的一方关闭
+     */
     @Override
     public void shutdown() {
-        scheduler.shutdown();
+        if (ownsScheduler) {
+            scheduler.shutdown();
+        }
+        state.close();
+    }
+
+    /**
+     * 把状态时间线上的时间点换算到本进程的纳秒时钟上
+     */
+    private long toLocal(long stateNanos, long stateNow) {
+        return nanoClock.getAsLong() + (stateNanos - stateNow);
     }
 }
@@ -0,0 +1,40 @@
+package com.novel.service.impl;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 限流器的预约状态：请求和token的理论到达时间（TAT）以及当天的请求数。
+ * 各个值只在locked之内读写，同一份状态上的操作互斥；时间都取自状态自己的时间线（now），
+ * 限流器再换算到本进程的纳秒时钟上
+ */
+interface RateLimiterState {
+    /**
+     * 状态时间线上的当前时间（纳秒）
+     */
+    long now();
+
+    /**
+     * 在互斥区内执行操作并返回其结果
+     */
+    long locked(LongSupplier operation);
+
+    long getRequestTat();
+
+    void setRequestTat(long requestTat);
+
+    long getTokenTat();
+
+    void setTokenTat(long tokenTat);
+
+    /**
+     * 当天的请求数，日期变化时先清零
+     */
+    long getDailyCount(long now);
+
+    void setDailyCount(long dailyCount);
+
+    /**
+     * 释放状态占用的资源
+     */
+    void close();
+}
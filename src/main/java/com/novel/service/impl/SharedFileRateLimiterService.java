@@ -0,0 +1,76 @@
+package com.novel.service.impl;
+
+import com.novel.metrics.PipelineMetrics;
+import com.novel.model.ApiKey;
+import com.novel.util.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 状态保存在内存映射文件中的GCRA限流器，同一台机器上使用同一个密钥的多个进程共享一份配额。
+ * 限流逻辑与RateLimiterServiceImpl相同，只是预约状态换成MappedFileRateLimiterState：
+ * 每次预约都在文件锁内读取、修改、写回映射的内存，进程重启后继续沿用；当天的请求数在配额时区的零点清零，
+ * 达到每日上限后预约抛出DailyQuotaExceededException
+ */
+public class SharedFileRateLimiterService extends RateLimiterServiceImpl {
+    private static final Logger logger = LoggerFactory.getLogger(SharedFileRateLimiterService.class);
+
+    /**
+     * @param directory 状态文件所在的目录，文件名取自密钥的哈希，不暴露密钥本身
+     */
+    public SharedFileRateLimiterService(Path directory, ApiKey key, ScheduledExecutorService scheduler,
+                                        PipelineMetrics metrics) throws IOException {
+        this(stateFile(directory, key.getKey()), key.getRequestsPerMinute(),
+                key.getTokensPerMinute(), key.getRequestsPerDay(), scheduler, System::nanoTime,
+                SharedFileRateLimiterService::epochNanos, ZoneId.of(Constants.DAILY_QUOTA_ZONE),
+                "key:" + key.getName(), metrics);
+    }
+
+    /**
+     * @param requestsPerDay 每天最大请求数，0表示不限
+     * @param nanoClock      本进程的纳秒时钟，用于等待
+     * @param epochNanoClock 墙上时钟（自1970年起的纳秒数），用于文件中各进程共享的时间
+     * @param quotaZone      每日配额在该时区的零点重置
+     */
+    public SharedFileRateLimiterService(Path file, int requestsPerMinute, long tokensPerMinute, int requestsPerDay,
+                                        ScheduledExecutorService scheduler, LongSupplier nanoClock,
+                                        LongSupplier epochNanoClock, ZoneId quotaZone, String name,
+                                        PipelineMetrics metrics) throws IOException {
+        super(requestsPerMinute, tokensPerMinute, requestsPerDay,
+                new MappedFileRateLimiterState(file, epochNanoClock, quotaZone), scheduler, false, nanoClock,
+                name, metrics);
+        logger.info("{}的配额与其他进程共享，状态文件: {}", name, file.toAbsolutePath().normalize());
+    }
+
+    /**
+     * 状态文件的路径：目录下以密钥SHA-256的前16个十六进制字符命名
+     */
+    public static Path stateFile(Path directory, String apiKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(apiKey.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return directory.resolve(hex + ".quota");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("不支持SHA-256", e);
+        }
+    }
+
+    private static long epochNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * TimeUnit.SECONDS.toNanos(1) + now.getNano();
+    }
+}
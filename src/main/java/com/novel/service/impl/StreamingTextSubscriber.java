@@ -0,0 +1,158 @@
+package com.novel.service.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * 解析streamGenerateContent返回的SSE（server-sent events）响应体。
+ * 按字节切分行，不需要缓存整个响应；每个事件的data是一个GenerateContentResponse片段，
+ * 交给解析器取出其中的文本后立即追加到输出文件并刷新。文本只保存在输出文件中，不在内存中累加，
+ * 响应体的结果为null，结束原因和token数从解析器中读取。
+ * 最后一个事件带有finishReason，连接在此之前正常关闭说明响应不完整，按传输错误失败，由调用方重试
+ */
+public class StreamingTextSubscriber implements HttpResponse.BodySubscriber<String> {
+    private final GenerateContentParser parser;
+    private final Path output;
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private final StringBuilder eventData = new StringBuilder();
+    private Flow.Subscription subscription;
+    private Writer writer;
+    // 本次onNext是否写出了文本，有写出时才刷新
+    private boolean written;
+
+    public StreamingTextSubscriber(GenerateContentParser parser, Path output) {
+        this.parser = parser;
+        this.output = output;
+    }
+
+    @Override
+    public CompletionStage<String> getBody() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        try {
+            if (output.getParent() != null) {
+                Files.createDirectories(output.getParent());
+            }
+            writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            subscription.cancel();
+            result.completeExceptionally(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        try {
+            written = false;
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        handleLine();
+                    } else {
+                        line.write(b);
+                    }
+                }
+            }
+            if (written) {
+                writer.flush();
+            }
+            subscription.request(1);
+        } catch (Exception e) {
+            subscription.cancel();
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        fail(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            if (line.size() > 0) {
+                handleLine();
+            }
+            dispatchEvent();
+            writer.close();
+            if (parser.getFinishReason() == null) {
+                result.completeExceptionally(new IOException("流式响应在最后一个事件之前结束: " + output));
+                return;
+            }
+            result.complete(null);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private void handleLine() throws IOException {
+        // '\n'不会出现在UTF-8多字节字符中，按字节切分行是安全的
+        byte[] bytes = line.toByteArray();
+        line.reset();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        if (length == 0) {
+            // 空行表示一个事件结束
+            dispatchEvent();
+            return;
+        }
+
+        String field = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        if (field.startsWith("data:")) {
+            String value = field.substring(5);
+            if (value.startsWith(" ")) {
+                value = value.substring(1);
+            }
+            if (eventData.length() > 0) {
+                eventData.append('\n');
+            }
+            eventData.append(value);
+        }
+        // 忽略event、id、retry字段和以冒号开头的注释行
+    }
+
+    private void dispatchEvent() throws IOException {
+        if (eventData.length() == 0) {
+            return;
+        }
+        String chunk = parser.parse(new StringReader(eventData.toString()));
+        eventData.setLength(0);
+        if (!chunk.isEmpty()) {
+            writer.write(chunk);
+            written = true;
+        }
+    }
+
+    private void fail(Throwable throwable) {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (IOException ignored) {
+            // 已经失败，关闭异常不再处理
+        }
+        result.completeExceptionally(throwable);
+    }
+}
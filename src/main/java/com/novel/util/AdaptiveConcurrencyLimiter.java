@@ -0,0 +1,198 @@
+package com.novel.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 按AIMD（加性增、乘性减）自动调整的并发上限。
+ * 上限被用到一半以上且响应正常时，每完成约“上限”个请求把上限加一；
+ * 收到429/503、超时或延迟明显高于基线时把上限按比例降低，同一批在途请求只降低一次。
+ * 超过上限的请求排队等待，等待期间不占用线程
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    // 过载时的降低比例，延迟升高只是早期信号，降得少一些
+    private static final double OVERLOAD_BACKOFF = 0.5;
+    private static final double LATENCY_BACKOFF = 0.9;
+    // 延迟超过基线的倍数时视为延迟升高
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // 最近延迟和基线延迟的指数平滑系数
+    private static final double RECENT_ALPHA = 0.3;
+    private static final double BASELINE_ALPHA = 0.05;
+    // 积累足够样本之后才根据延迟调整
+    private static final int WARMUP_SAMPLES = 5;
+
+    /**
+     * 一次请求的结果对并发上限的影响
+     */
+    public enum Outcome {
+        // 成功，延迟正常时可以增加上限
+        SUCCESS,
+        // 429、503或超时，说明服务已经饱和
+        OVERLOAD,
+        // 与负载无关的失败（如400、401），只归还名额
+        IGNORE
+    }
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final LongSupplier nanoClock;
+
+    // 以下字段由this加锁访问
+    private double limit;
+    private int inFlight;
+    private final Deque<CompletableFuture<Long>> waiters = new ArrayDeque<>();
+    private double recentLatencyNanos;
+    private double baselineLatencyNanos;
+    private long samples;
+    // 上次降低上限的时间，在此之前发出的请求不再触发降低
+    private long lastDecreaseAt = Long.MIN_VALUE;
+
+    public AdaptiveConcurrencyLimiter(String name) {
+        this(name, Constants.INITIAL_CONCURRENCY_LIMIT, Constants.MIN_CONCURRENCY_LIMIT,
+                Constants.MAX_CONCURRENCY_LIMIT, System::nanoTime);
+    }
+
+    /**
+     * @param nanoClock 纳秒时钟，测试时可以注入虚拟时钟
+     */
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+                                      LongSupplier nanoClock) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("并发上限范围无效: " + minLimit + "-" + maxLimit);
+        }
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.nanoClock = nanoClock;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * 申请一个并发名额，有空余时立即完成，否则排队。
+     * future的值是发出请求的时间，完成请求后连同结果传给release；排队中的future可以取消，取消后不占用名额
+     */
+    public CompletableFuture<Long> acquire() {
+        synchronized (this) {
+            if (waiters.isEmpty() && inFlight < getLimit()) {
+                inFlight++;
+                return CompletableFuture.completedFuture(nanoClock.getAsLong());
+            }
+            CompletableFuture<Long> waiter = new CompletableFuture<>();
+            waiters.addLast(waiter);
+            return waiter;
+        }
+    }
+
+    /**
+     * 归还名额并根据结果调整上限，唤醒的排队请求在锁外完成
+     *
+     * @param startNanos acquire返回的发出时间
+     */
+    public void release(long startNanos, Outcome outcome) {
+        List<CompletableFuture<Long>> ready = new ArrayList<>();
+        long now = nanoClock.getAsLong();
+        synchronized (this) {
+            boolean saturated = inFlight * 2 >= limit;
+            inFlight--;
+            if (outcome == Outcome.SUCCESS) {
+                onSuccess(startNanos, now - startNanos, saturated);
+            } else if (outcome == Outcome.OVERLOAD) {
+                decrease(startNanos, now, OVERLOAD_BACKOFF, "服务饱和");
+            }
+            while (!waiters.isEmpty() && inFlight < getLimit()) {
+                CompletableFuture<Long> waiter = waiters.pollFirst();
+                if (!waiter.isDone()) {
+                    inFlight++;
+                    ready.add(waiter);
+                }
+            }
+        }
+        for (CompletableFuture<Long> waiter : ready) {
+            if (!waiter.complete(now)) {
+                // 排队期间被取消的请求不占用名额，立即归还
+                release(now, Outcome.IGNORE);
+            }
+        }
+    }
+
+    private void onSuccess(long startNanos, long latencyNanos, boolean saturated) {
+        samples++;
+        if (samples == 1) {
+            recentLatencyNanos = latencyNanos;
+            baselineLatencyNanos = latencyNanos;
+            return;
+        }
+        recentLatencyNanos += RECENT_ALPHA * (latencyNanos - recentLatencyNanos);
+        boolean spike = samples > WARMUP_SAMPLES && latencyNanos > LATENCY_TOLERANCE * baselineLatencyNanos;
+        baselineLatencyNanos += BASELINE_ALPHA * (latencyNanos - baselineLatencyNanos);
+        if (spike) {
+            decrease(startNanos, startNanos + latencyNanos, LATENCY_BACKOFF, "延迟升高");
+        } else if (saturated) {
+            // 上限没有被用到时增加它没有意义，每完成约limit个请求增加1
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    private void decrease(long startNanos, long now, double backoff, String reason) {
+        if (startNanos <= lastDecreaseAt) {
+            return;
+        }
+        double previous = limit;
+        limit = Math.max(minLimit, limit * backoff);
+        lastDecreaseAt = now;
+        if ((int) previous != (int) limit) {
+            logger.info("{}的并发上限因{}从{}降为{}", name, reason, (int) previous, (int) limit);
+        }
+    }
+
+    /**
+     * 限流器时钟的当前时间。取得名额之后还要等待其他条件时，用它重新记录发出请求的时间
+     */
+    public long now() {
+        return nanoClock.getAsLong();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 当前的并发上限
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return waiters.size();
+    }
+
+    /**
+     * 最近成功请求的平滑延迟（毫秒），还没有样本时为0
+     */
+    public synchronized double getRecentLatencyMs() {
+        return recentLatencyNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * 长期的基线延迟（毫秒），判断延迟升高的参照
+     */
+    public synchronized double getBaselineLatencyMs() {
+        return baselineLatencyNanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
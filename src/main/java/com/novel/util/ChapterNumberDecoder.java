@@ -0,0 +1,291 @@
+package com.novel.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 章节号解码器，识别“[空白][正文[空白]]第<数字>章(空白|行尾)”形式的标题行。
+ * 数字可以是阿拉伯数字（123）、中文数字（一百二十三、一千零二十、两百）、
+ * 省略末尾单位的口语写法（三百五即350、一千二即1200）、逐位书写的中文数字（一二三）以及两者混用（1百23）。
+ * 同一套状态机既可以处理CharSequence，也可以直接处理UTF-8字节，只扫描一遍，不分配对象，不依赖正则和异常
+ */
+public final class ChapterNumberDecoder {
+    /**
+     * 不是章节标题或数字无法解码时的返回值
+     */
+    public static final int NOT_FOUND = -1;
+
+    // 章节号的上限，超过时视为无效，避免溢出
+    private static final int MAX_NUMBER = 999_999_999;
+
+    // 数字字符的取值：0-9为数字，其余为单位
+    private static final int NOT_NUMERAL = -1;
+    private static final int TEN = 10;
+    private static final int HUNDRED = 100;
+    private static final int THOUSAND = 1000;
+
+    // 解码状态打包在一个long中：低30位为当前数字，其后30位为已累计的值，
+    // 再往上2位为上一个单位的档位（0无，1千，2百，3十），第62位标记上一个字符是否为数字，
+    // 符号位标记末尾是否为紧跟在千或百之后的单个非零数字（省略了下一级单位）
+    private static final int VALUE_BITS = 30;
+    private static final long VALUE_MASK = (1L << VALUE_BITS) - 1;
+    private static final int UNIT_SHIFT = 2 * VALUE_BITS;
+    private static final long UNIT_MASK = 3L;
+    private static final long LAST_WAS_DIGIT = 1L << 62;
+    private static final long ABBREVIATED = 1L << 63;
+    private static final long INITIAL = 0;
+    private static final long INVALID = -1;
+
+    private static final char DI = '第';
+    private static final char ZHANG = '章';
+    private static final char ZHENG = '正';
+    private static final char WEN = '文';
+    private static final char IDEOGRAPHIC_SPACE = '\u3000';
+    private static final char BOM = '\uFEFF';
+
+    private ChapterNumberDecoder() {
+    }
+
+    /**
+     * 解析标题行，返回章节号，不是章节标题时返回NOT_FOUND
+     */
+    public static int parseTitle(CharSequence line) {
+        return parseTitle(line, 0, line.length());
+    }
+
+    /**
+     * 解析line[from, to)中的标题行
+     */
+    public static int parseTitle(CharSequence line, int from, int to) {
+        int p = from;
+        if (p < to && line.charAt(p) == BOM) {
+            p++;
+        }
+        p = skipSpaces(line, p, to);
+        if (p + 1 < to && line.charAt(p) == ZHENG && line.charAt(p + 1) == WEN) {
+            p = skipSpaces(line, p + 2, to);
+        }
+        if (p >= to || line.charAt(p) != DI) {
+            return NOT_FOUND;
+        }
+        p++;
+
+        long state = INITIAL;
+        int numeralStart = p;
+        while (p < to) {
+            int value = numeralValue(line.charAt(p));
+            if (value == NOT_NUMERAL) {
+                break;
+            }
+            state = step(state, value);
+            if (state == INVALID) {
+                return NOT_FOUND;
+            }
+            p++;
+        }
+        if (p == numeralStart || p >= to || line.charAt(p) != ZHANG) {
+            return NOT_FOUND;
+        }
+        p++;
+
+        // “章”字后必须是空白或行尾
+        if (p < to && !isSpace(line.charAt(p)) && line.charAt(p) != '\r' && line.charAt(p) != '\n') {
+            return NOT_FOUND;
+        }
+        return result(state);
+    }
+
+    /**
+     * 解析UTF-8字节buffer[from, to)中的标题行，不解码为字符串
+     */
+    public static int parseTitle(ByteBuffer buffer, int from, int to) {
+        int p = from;
+        if (p + 2 < to && codePointAt(buffer, p, to) == BOM) {
+            p += 3;
+        }
+        p = skipSpaces(buffer, p, to);
+        if (p + 5 < to && codePointAt(buffer, p, to) == ZHENG && codePointAt(buffer, p + 3, to) == WEN) {
+            p = skipSpaces(buffer, p + 6, to);
+        }
+        if (p + 2 >= to || codePointAt(buffer, p, to) != DI) {
+            return NOT_FOUND;
+        }
+        p += 3;
+
+        long state = INITIAL;
+        int numeralStart = p;
+        while (p < to) {
+            int codePoint = codePointAt(buffer, p, to);
+            int value = numeralValue(codePoint);
+            if (value == NOT_NUMERAL) {
+                break;
+            }
+            state = step(state, value);
+            if (state == INVALID) {
+                return NOT_FOUND;
+            }
+            p += utf8Length(codePoint);
+        }
+        if (p == numeralStart || p + 2 >= to || codePointAt(buffer, p, to) != ZHANG) {
+            return NOT_FOUND;
+        }
+        p += 3;
+
+        // “章”字后必须是空白或行尾
+        if (p < to) {
+            int next = codePointAt(buffer, p, to);
+            if (!isSpace(next) && next != '\r' && next != '\n') {
+                return NOT_FOUND;
+            }
+        }
+        return result(state);
+    }
+
+    /**
+     * 只解码数字部分，如“一百二十三”，含有非数字字符或数字无效时返回NOT_FOUND
+     */
+    public static int decode(CharSequence numeral) {
+        if (numeral.length() == 0) {
+            return NOT_FOUND;
+        }
+        long state = INITIAL;
+        for (int i = 0; i < numeral.length(); i++) {
+            int value = numeralValue(numeral.charAt(i));
+            if (value == NOT_NUMERAL) {
+                return NOT_FOUND;
+            }
+            state = step(state, value);
+            if (state == INVALID) {
+                return NOT_FOUND;
+            }
+        }
+        return result(state);
+    }
+
+    /**
+     * 数字字符的取值，不是数字字符时返回NOT_NUMERAL
+     */
+    private static int numeralValue(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= '０' && c <= '９') {
+            return c - '０';
+        }
+        switch (c) {
+            case '零':
+            case '〇':
+                return 0;
+            case '一':
+                return 1;
+            case '二':
+            case '两':
+                return 2;
+            case '三':
+                return 3;
+            case '四':
+                return 4;
+            case '五':
+                return 5;
+            case '六':
+                return 6;
+            case '七':
+                return 7;
+            case '八':
+                return 8;
+            case '九':
+                return 9;
+            case '十':
+                return TEN;
+            case '百':
+                return HUNDRED;
+            case '千':
+                return THOUSAND;
+            default:
+                return NOT_NUMERAL;
+        }
+    }
+
+    /**
+     * 处理一个数字字符。
+     * 连续的数字按位拼接（123、一二三、一百零五中的“零五”），
+     * 单位把前面的数字乘以单位后累计（省略的系数视为一，如“十二”），单位必须从大到小出现。
+     * 千或百之后直接跟一个非零数字时先记为省略写法，后面再有数字（如1百23）则按位拼接
+     */
+    private static long step(long state, int value) {
+        long current = state & VALUE_MASK;
+        long total = (state >>> VALUE_BITS) & VALUE_MASK;
+        long lastUnit = (state >>> UNIT_SHIFT) & UNIT_MASK;
+        boolean lastWasDigit = (state & LAST_WAS_DIGIT) != 0;
+
+        if (value < TEN) {
+            current = lastWasDigit ? current * 10 + value : value;
+            if (total + current > MAX_NUMBER) {
+                return INVALID;
+            }
+            boolean abbreviated = !lastWasDigit && value != 0 && (lastUnit == 1 || lastUnit == 2);
+            return pack(current, total, lastUnit, true) | (abbreviated ? ABBREVIATED : 0);
+        }
+
+        long unitRank = value == THOUSAND ? 1 : value == HUNDRED ? 2 : 3;
+        if (lastUnit != 0 && unitRank <= lastUnit) {
+            return INVALID;
+        }
+        long coefficient = lastWasDigit ? current : 1;
+        total += coefficient * value;
+        if (total > MAX_NUMBER) {
+            return INVALID;
+        }
+        return pack(0, total, unitRank, false);
+    }
+
+    private static long pack(long current, long total, long unitRank, boolean lastWasDigit) {
+        return current | (total << VALUE_BITS) | (unitRank << UNIT_SHIFT) | (lastWasDigit ? LAST_WAS_DIGIT : 0);
+    }
+
+    private static int result(long state) {
+        long current = state & VALUE_MASK;
+        if ((state & ABBREVIATED) != 0) {
+            // 三百五中的“五”是十位，一千二中的“二”是百位
+            current *= ((state >>> UNIT_SHIFT) & UNIT_MASK) == 1 ? HUNDRED : TEN;
+        }
+        return (int) (current + ((state >>> VALUE_BITS) & VALUE_MASK));
+    }
+
+    private static boolean isSpace(int c) {
+        return c == ' ' || c == '\t' || c == IDEOGRAPHIC_SPACE;
+    }
+
+    private static int skipSpaces(CharSequence line, int p, int to) {
+        while (p < to && isSpace(line.charAt(p))) {
+            p++;
+        }
+        return p;
+    }
+
+    private static int skipSpaces(ByteBuffer buffer, int p, int to) {
+        while (p < to) {
+            int codePoint = codePointAt(buffer, p, to);
+            if (!isSpace(codePoint) || p + utf8Length(codePoint) > to) {
+                break;
+            }
+            p += utf8Length(codePoint);
+        }
+        return p;
+    }
+
+    /**
+     * 读取位置p处的字符，只解码单字节和三字节的UTF-8序列（章节标题用到的字符都在其中），
+     * 其他字节序列以及被行尾to截断的三字节序列返回其首字节，调用方把它当作不匹配的字符
+     */
+    private static int codePointAt(ByteBuffer buffer, int p, int to) {
+        int b0 = buffer.get(p) & 0xFF;
+        if ((b0 & 0xF0) != 0xE0 || p + 2 >= to) {
+            return b0;
+        }
+        return ((b0 & 0x0F) << 12) | ((buffer.get(p + 1) & 0x3F) << 6) | (buffer.get(p + 2) & 0x3F);
+    }
+
+    private static int utf8Length(int codePoint) {
+        return codePoint < 0x80 ? 1 : 3;
+    }
+}
@@ -0,0 +1,67 @@
+package com.novel.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 所有请求共享的熔断器。连续多次收到429或503说明服务已经饱和，
+ * 此时暂停所有请求一段时间（不短于服务端建议的等待时间），而不是让每个请求各自重试继续消耗额度；
+ * 暂停结束后放行请求试探，再次饱和立即重新暂停，成功一次即恢复正常
+ */
+public class CircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final int failureThreshold;
+    private final long cooldownMs;
+    private final LongSupplier clockMs;
+
+    private int consecutiveSaturations;
+    private long openUntil;
+
+    public CircuitBreaker() {
+        this(Constants.CIRCUIT_BREAKER_THRESHOLD, Constants.CIRCUIT_BREAKER_COOLDOWN_MS, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clockMs 毫秒时钟，测试时可以注入虚拟时钟
+     */
+    public CircuitBreaker(int failureThreshold, long cooldownMs, LongSupplier clockMs) {
+        this.failureThreshold = failureThreshold;
+        this.cooldownMs = cooldownMs;
+        this.clockMs = clockMs;
+    }
+
+    /**
+     * 还需要暂停多久才能发出请求，未熔断时返回0
+     */
+    public synchronized long pauseRemainingMs() {
+        return Math.max(0, openUntil - clockMs.getAsLong());
+    }
+
+    public synchronized void recordSuccess() {
+        if (consecutiveSaturations >= failureThreshold) {
+            logger.info("服务已恢复，熔断器关闭");
+        }
+        consecutiveSaturations = 0;
+    }
+
+    /**
+     * 记录一次饱和响应（429或503）
+     *
+     * @param retryHintMs 服务端建议的等待时间，没有时为-1
+     */
+    public synchronized void recordSaturation(long retryHintMs) {
+        consecutiveSaturations++;
+        if (consecutiveSaturations < failureThreshold) {
+            return;
+        }
+        long now = clockMs.getAsLong();
+        long until = now + Math.max(cooldownMs, retryHintMs);
+        if (until > openUntil) {
+            openUntil = until;
+            logger.warn("连续{}次收到饱和响应，暂停所有请求{}ms", consecutiveSaturations, until - now);
+        }
+    }
+}
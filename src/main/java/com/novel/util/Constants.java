@@ -1,5 +1,6 @@
 package com.novel.util;
 
+import java.io.File;
 import java.nio.file.Paths;
 
 /**
@@ -7,26 +8,73 @@ import java.nio.file.Paths;
  */
 public class Constants {
     // 文件路径
-    public static final String NOVEL_FILE_PATH = Paths.get(System.getProperty("user.dir"), "牧神记.txt").toString();
+    // 可以通过 -Dnovel.file=... 指定其他小说文件；默认路径直接拼接，文件名编码不支持中文时类初始化也不会失败
+    public static final String NOVEL_FILE_PATH = System.getProperty("novel.file",
+            System.getProperty("user.dir") + File.separator + "牧神记.txt");
     public static final String OUTPUT_DIR = Paths.get(System.getProperty("user.dir"), "output").toString();
     public static final String SPLIT_CHAPTERS_DIR = Paths.get(OUTPUT_DIR, "split_chapters").toString();
     public static final String API_RESULTS_DIR = Paths.get(OUTPUT_DIR, "api_results").toString();
     public static final String FINAL_RESULT_FILE = Paths.get(OUTPUT_DIR, "final_analysis.txt").toString();
+    public static final String API_CACHE_DIR = Paths.get(OUTPUT_DIR, "api_cache").toString();
+    public static final String BATCH_JOURNAL_FILE = Paths.get(OUTPUT_DIR, "batch_journal.log").toString();
+    public static final String METRICS_JSON_FILE = Paths.get(OUTPUT_DIR, "metrics.json").toString();
+    public static final String METRICS_PROMETHEUS_FILE = Paths.get(OUTPUT_DIR, "metrics.prom").toString();
+    public static final String PROMPT_FILE = Paths.get(System.getProperty("user.dir"), "prompt.txt").toString();
+    public static final String BATCH_PLAN_FILE_NAME = "batch_plan.json";  // 批次计划，与分割文件保存在同一目录
+    public static final String LEASES_DIR = Paths.get(OUTPUT_DIR, "leases").toString();  // 工作进程认领批次的租约文件
     
     // API配置
     public static final String API_KEY_FILE = Paths.get(System.getProperty("user.dir"), "apikey.yml").toString();
     public static final int MAX_REQUESTS_PER_MINUTE = 15;
-    public static final int THREAD_COUNT = 10;
+    public static final long MAX_INPUT_TOKENS_PER_MINUTE = 1_000_000;  // 每分钟最大输入token数
+    public static final int MAX_REQUESTS_PER_DAY = 1500;     // 每个密钥每天最大请求数，0表示不限
+    public static final String DAILY_QUOTA_ZONE = "America/Los_Angeles";  // 每日配额在该时区的零点重置
+    // 同一台机器上的多个进程通过该目录下的状态文件共享各密钥的配额，可以通过 -Dnovel.quota.dir=... 指定其他目录，
+    // -Dnovel.quota.shared=false 时每个进程只统计自己的请求
+    public static final boolean SHARE_QUOTA_ACROSS_PROCESSES =
+            Boolean.parseBoolean(System.getProperty("novel.quota.shared", "true"));
+    public static final String QUOTA_STATE_DIR = System.getProperty("novel.quota.dir",
+            System.getProperty("user.home") + File.separator + ".novel-reader" + File.separator + "quota");
+    public static final int INITIAL_CONCURRENCY_LIMIT = 4;   // 每个密钥的初始并发上限，之后按响应情况自动调整
+    public static final int MIN_CONCURRENCY_LIMIT = 1;
+    public static final int MAX_CONCURRENCY_LIMIT = 32;
+    public static final int PREPARED_BATCH_QUEUE_SIZE = 4;  // 已构建好请求体、等待发出的批次数上限
+    public static final int MAX_IN_FLIGHT_BATCHES = 32;     // 已发出请求、尚未保存结果的批次数上限
+    public static final long API_KEY_COOLDOWN_MS = 60000;  // 密钥收到429后暂停使用的时间
+    public static final long METRICS_REPORT_INTERVAL_MS = 10000;  // 指标文件的写入间隔
+    // 可以通过 -Dnovel.hedge=true 开启对冲请求：调用超过延迟分位数仍未返回时再发一份，取先完成的结果
+    public static final boolean HEDGE_REQUESTS = Boolean.parseBoolean(System.getProperty("novel.hedge", "false"));
+    public static final double HEDGE_PERCENTILE = 0.95;     // 超过该分位数的延迟后发出对冲请求
+    public static final double HEDGE_BUDGET_RATIO = 0.1;    // 对冲请求数不超过普通请求数的比例
+    public static final int HEDGE_MIN_SAMPLES = 20;         // 积累足够的延迟样本之后才开始对冲
+    // 多个工作进程（--worker）通过租约文件分配批次，超过该时间没有心跳的租约可以被其他进程接手，
+    // 可以通过 -Dnovel.lease.ttl.ms=... 调整
+    public static final long LEASE_TTL_MS = Long.getLong("novel.lease.ttl.ms", 60000);
+    public static final long LEASE_HEARTBEAT_MS = LEASE_TTL_MS / 3;  // 刷新租约的间隔
+    public static final long LEASE_POLL_INTERVAL_MS = Math.min(5000, LEASE_TTL_MS / 4);  // 等待其他进程时的检查间隔
+    public static final long API_CACHE_MAX_BYTES = 256L * 1024 * 1024;  // API响应缓存的总大小上限
     
     // 章节配置
     public static final String CHAPTER_PATTERN = "\\s*第[一二三四五六七八九十百千0-9]+章\\s+.*";
-    public static final int CHAPTERS_PER_FILE = 10;
+    public static final int MAX_INPUT_TOKENS_PER_BATCH = 60000;  // 单批次输入token预算（含提示词）
+    public static final int MAX_CHAPTERS_PER_BATCH = 20;        // 单批次最多章节数，保证分析结果不超过MAX_OUTPUT_TOKENS
+    public static final int PROMPT_TOKEN_RESERVE = 2000;        // 为提示词预留的token数
+    public static final boolean VERIFY_TOKEN_ESTIMATE = true;   // 是否调用countTokens校准本地token估算
     public static final int MAX_CHAPTER_NUMBER = 1828;  // 最大章节数
+    public static final String CHAPTER_INDEX_SUFFIX = ".idx";  // 章节索引文件后缀，保存在小说文件旁
     
     // Gemini API配置
+    // 可以通过 -Dgemini.base.url=... 指向本地的模拟服务做压测
+    public static final String GEMINI_BASE_URL = System.getProperty("gemini.base.url",
+            "https://generativelanguage.googleapis.com/v1beta");
+    public static final boolean STREAM_RESPONSES = true;  // 使用streamGenerateContent边生成边写入结果文件
     public static final String GEMINI_MODEL = "gemini-2.0-flash";
     public static final int MAX_OUTPUT_TOKENS = 8192;
     public static final double TEMPERATURE = 0.8;
     public static final int MAX_RETRIES = 3;
-    public static final long RETRY_DELAY_MS = 5000;
+    public static final int MAX_TRUNCATION_RETRIES = 1;      // 输出被截断（MAX_TOKENS）时重新请求的次数
+    public static final long RETRY_DELAY_MS = 5000;          // 第一次重试的退避上限，之后每次翻倍
+    public static final long MAX_RETRY_DELAY_MS = 60000;     // 单次重试等待的上限
+    public static final int CIRCUIT_BREAKER_THRESHOLD = 3;   // 连续多少次429/503后暂停所有请求
+    public static final long CIRCUIT_BREAKER_COOLDOWN_MS = 30000;  // 熔断后至少暂停的时间
 }
@@ -0,0 +1,147 @@
+package com.novel.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 直接以UTF-8字节构建generateContent的JSON请求体，整个请求体只生成一份。
+ * 文本按字节转义：JSON中需要转义的只有引号、反斜杠和控制字符，都是ASCII，
+ * 而UTF-8多字节字符的每个字节都不小于0x80，因此章节文件的字节可以边读边转义直接写入，不需要解码成字符串
+ */
+public class RequestBodyBuilder {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PREFIX = "{\"contents\":[{\"parts\":[{\"text\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private byte[] bytes;
+    private int size;
+    private boolean built;
+
+    /**
+     * @param expectedTextBytes 预计文本的字节数，用于一次分配足够的空间
+     */
+    public RequestBodyBuilder(int expectedTextBytes) {
+        bytes = new byte[Math.max(256, expectedTextBytes + expectedTextBytes / 32 + 256)];
+        write(PREFIX, 0, PREFIX.length);
+    }
+
+    /**
+     * 追加一段文本
+     */
+    public RequestBodyBuilder appendText(String text) {
+        byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+        appendEscaped(encoded, 0, encoded.length);
+        return this;
+    }
+
+    /**
+     * 追加一个UTF-8文本文件的全部内容，文件开头的BOM会被跳过
+     */
+    public RequestBodyBuilder appendFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // 预留少量转义和结尾所需的空间，避免读取过程中扩容
+            long fileSize = channel.size();
+            ensureCapacity((int) Math.min(Integer.MAX_VALUE - 8, size + fileSize + fileSize / 32 + 256));
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            boolean first = true;
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                int offset = 0;
+                if (first && buffer.remaining() >= 3 && (buffer.get(0) & 0xFF) == 0xEF
+                        && (buffer.get(1) & 0xFF) == 0xBB && (buffer.get(2) & 0xFF) == 0xBF) {
+                    offset = 3;
+                }
+                first = false;
+                appendEscaped(buffer.array(), offset, buffer.limit());
+                buffer.clear();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 结束文本并追加生成配置，返回完整的请求体
+     */
+    public byte[] build() {
+        if (built) {
+            throw new IllegalStateException("请求体已经构建");
+        }
+        built = true;
+        String suffix = "\"}]}],\"generationConfig\":{\"temperature\":" + Constants.TEMPERATURE
+                + ",\"maxOutputTokens\":" + Constants.MAX_OUTPUT_TOKENS + "}}";
+        byte[] encoded = suffix.getBytes(StandardCharsets.US_ASCII);
+        write(encoded, 0, encoded.length);
+        return size == bytes.length ? bytes : Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * 只包含一段文本的请求体
+     */
+    public static byte[] of(String text) {
+        return new RequestBodyBuilder(text.length() * 3).appendText(text).build();
+    }
+
+    private void appendEscaped(byte[] source, int from, int to) {
+        ensureCapacity(size + (to - from));
+        int runStart = from;
+        for (int i = from; i < to; i++) {
+            byte b = source[i];
+            if (b < 0 || (b >= 0x20 && b != '"' && b != '\\')) {
+                continue;
+            }
+            write(source, runStart, i);
+            writeEscape(b);
+            runStart = i + 1;
+        }
+        write(source, runStart, to);
+    }
+
+    private void writeEscape(byte b) {
+        ensureCapacity(size + 6);
+        bytes[size++] = '\\';
+        switch (b) {
+            case '"':
+                bytes[size++] = '"';
+                break;
+            case '\\':
+                bytes[size++] = '\\';
+                break;
+            case '\n':
+                bytes[size++] = 'n';
+                break;
+            case '\r':
+                bytes[size++] = 'r';
+                break;
+            case '\t':
+                bytes[size++] = 't';
+                break;
+            default:
+                bytes[size++] = 'u';
+                bytes[size++] = '0';
+                bytes[size++] = '0';
+                bytes[size++] = HEX[(b >> 4) & 0xF];
+                bytes[size++] = HEX[b & 0xF];
+        }
+    }
+
+    private void write(byte[] source, int from, int to) {
+        int length = to - from;
+        if (length <= 0) {
+            return;
+        }
+        ensureCapacity(size + length);
+        System.arraycopy(source, from, bytes, size, length);
+        size += length;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(required, bytes.length + (bytes.length >> 1)));
+        }
+    }
+}
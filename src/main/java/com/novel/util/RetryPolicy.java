@@ -0,0 +1,95 @@
+package com.novel.util;
+
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 按状态码决定是否重试以及重试前等待多久。
+ * 只重试限流（429）、超时和服务端错误；400等请求本身有问题的错误重试也不会成功，直接失败。
+ * 等待时间为指数退避加全抖动（在0到上限之间随机），避免多个请求同时失败后又同时重试；
+ * 服务端通过Retry-After头或错误体中的retryDelay给出等待时间时，至少等待该时间
+ */
+public class RetryPolicy {
+    private static final Pattern RETRY_DELAY_PATTERN = Pattern.compile("\"retryDelay\"\\s*:\\s*\"(\\d+(?:\\.\\d+)?)s\"");
+
+    private final long maxDelayMs;
+    private final DoubleSupplier random;
+
+    public RetryPolicy() {
+        this(Constants.MAX_RETRY_DELAY_MS, () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * @param random 返回[0, 1)之间随机数的函数，测试时可以固定
+     */
+    public RetryPolicy(long maxDelayMs, DoubleSupplier random) {
+        this.maxDelayMs = maxDelayMs;
+        this.random = random;
+    }
+
+    /**
+     * 该状态码的失败是否值得重试，0表示没有收到响应（网络错误）
+     */
+    public static boolean isRetryable(int statusCode) {
+        return statusCode == 0 || statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * 是否表示服务已经饱和，需要所有请求一起暂停
+     */
+    public static boolean isSaturated(int statusCode) {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    /**
+     * 第attempt次重试（从1开始）前的等待时间
+     *
+     * @param baseDelayMs 第一次重试的退避上限，之后每次翻倍
+     * @param retryHintMs 服务端建议的等待时间，没有时为-1
+     */
+    public long delayMs(int attempt, long baseDelayMs, long retryHintMs) {
+        long ceiling = baseDelayMs << Math.min(attempt - 1, 20);
+        ceiling = Math.min(Math.max(ceiling, 0), maxDelayMs);
+        long jitter = (long) (random.getAsDouble() * ceiling);
+        if (retryHintMs < 0) {
+            return jitter;
+        }
+        // 服务端要求的时间必须等够，在此之上再加一小段抖动把重试错开
+        return retryHintMs + (long) (random.getAsDouble() * Math.min(baseDelayMs, ceiling));
+    }
+
+    /**
+     * 从Retry-After头（秒数或HTTP日期）或错误体的retryDelay字段中读取服务端建议的等待时间，没有时返回-1
+     */
+    public static long retryHintMs(HttpHeaders headers, String body) {
+        if (headers != null) {
+            String retryAfter = headers.firstValue("Retry-After").orElse(null);
+            if (retryAfter != null) {
+                try {
+                    return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+                } catch (NumberFormatException e) {
+                    try {
+                        ZonedDateTime at = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                        return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toMillis());
+                    } catch (DateTimeParseException ignored) {
+                        // 无法识别的Retry-After，继续查看错误体
+                    }
+                }
+            }
+        }
+        if (body != null) {
+            Matcher matcher = RETRY_DELAY_PATTERN.matcher(body);
+            if (matcher.find()) {
+                return (long) (Double.parseDouble(matcher.group(1)) * 1000);
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,81 @@
+package com.novel.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 本地快速估算文本的token数，无需调用API。
+ * 中文等三字节UTF-8字符按每字约1个token计，ASCII字符按每4个字符1个token计；
+ * 估算偏保守，可通过countTokens接口得到的比例进行校准
+ */
+public class TokenEstimator {
+    private static final double CJK_TOKENS_PER_CHAR = 1.0;
+    private static final double ASCII_CHARS_PER_TOKEN = 4.0;
+
+    private long cjkChars;
+    private long asciiChars;
+    private long otherChars;
+
+    /**
+     * 累加缓冲区中剩余的UTF-8字节，只统计字符的首字节，不需要解码，分块传入也不会重复计数
+     */
+    public void update(ByteBuffer buffer) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            byte b = buffer.get(i);
+            if (b >= 0) {
+                asciiChars++;
+            } else if ((b & 0xF0) == 0xE0) {
+                cjkChars++;
+            } else if ((b & 0xC0) == 0xC0) {
+                otherChars++;
+            }
+            // 0x80-0xBF 为多字节字符的后续字节，不计数
+        }
+    }
+
+    /**
+     * 累加一段文本
+     */
+    public void update(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                asciiChars++;
+            } else if (c >= 0x800 && !Character.isSurrogate(c)) {
+                cjkChars++;
+            } else if (!Character.isLowSurrogate(c)) {
+                otherChars++;
+            }
+        }
+    }
+
+    /**
+     * 当前累计的预估token数
+     */
+    public int getTokens() {
+        return (int) Math.ceil(cjkChars * CJK_TOKENS_PER_CHAR + otherChars + asciiChars / ASCII_CHARS_PER_TOKEN);
+    }
+
+    public void reset() {
+        cjkChars = 0;
+        asciiChars = 0;
+        otherChars = 0;
+    }
+
+    /**
+     * 估算一段文本的token数
+     */
+    public static int estimate(CharSequence text) {
+        TokenEstimator estimator = new TokenEstimator();
+        estimator.update(text);
+        return estimator.getTokens();
+    }
+
+    /**
+     * 估算一段UTF-8字节的token数
+     */
+    public static int estimate(byte[] utf8) {
+        TokenEstimator estimator = new TokenEstimator();
+        estimator.update(ByteBuffer.wrap(utf8));
+        return estimator.getTokens();
+    }
+}
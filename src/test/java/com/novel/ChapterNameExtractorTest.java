@@ -0,0 +1,38 @@
+package com.novel;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChapterNameExtractorTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testOnlyTitlesAtLineStartAreExtracted() throws Exception {
+        Path novel = tempDir.resolve("novel.txt");
+        Files.writeString(novel, String.join("\n",
+                "第1章 开始",
+                "他想起了第3章里的事情。",
+                "　　正文 第2章 继续",
+                "回到第二章之前，",
+                "第一百二十三章 结尾",
+                ""), StandardCharsets.UTF_8);
+        File output = tempDir.resolve("names.txt").toFile();
+
+        int count = ChapterNameExtractor.extract(novel.toFile(), output);
+
+        // 原来的“第.{1,5}章”在行内任意位置匹配，会把正文中的两句也当作章节名称；
+        // 现在只取行首的标题，并去掉前导空白
+        assertEquals(3, count);
+        assertEquals(Arrays.asList("第1章 开始", "正文 第2章 继续", "第一百二十三章 结尾"),
+                Files.readAllLines(output.toPath(), StandardCharsets.UTF_8));
+    }
+}
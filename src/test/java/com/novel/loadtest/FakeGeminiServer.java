@@ -0,0 +1,395 @@
+package com.novel.loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.novel.util.TokenEstimator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地的Gemini API模拟服务，用于不消耗真实额度的端到端压测和故障注入。
+ * 支持generateContent、streamGenerateContent（SSE）和countTokens，
+ * 可以配置响应延迟分布、按比例注入429/503、按每分钟请求数限流以及返回被截断（MAX_TOKENS）的响应
+ */
+public class FakeGeminiServer implements AutoCloseable {
+    private static final long ONE_MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * 响应延迟的分布，返回毫秒数
+     */
+    public interface LatencyDistribution {
+        long sampleMs(Random random);
+
+        static LatencyDistribution fixed(long ms) {
+            return random -> ms;
+        }
+
+        static LatencyDistribution uniform(long minMs, long maxMs) {
+            return random -> minMs + (long) (random.nextDouble() * (maxMs - minMs));
+        }
+
+        /**
+         * 对数正态分布，中位数为medianMs，sigma越大长尾越明显
+         */
+        static LatencyDistribution logNormal(long medianMs, double sigma) {
+            return random -> (long) (medianMs * Math.exp(sigma * random.nextGaussian()));
+        }
+    }
+
+    /**
+     * 模拟服务的行为配置
+     */
+    public static class Config {
+        LatencyDistribution latency = LatencyDistribution.fixed(0);
+        double rateLimitedRatio;
+        double unavailableRatio;
+        double truncatedRatio;
+        int requestsPerMinute;
+        int maxConcurrentRequests;
+        int outputChars = 200;
+        int streamChunks = 4;
+        long seed = 42;
+
+        public Config latency(LatencyDistribution latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * 按比例随机返回429（带retryDelay）
+         */
+        public Config rateLimitedRatio(double ratio) {
+            this.rateLimitedRatio = ratio;
+            return this;
+        }
+
+        /**
+         * 按比例随机返回503
+         */
+        public Config unavailableRatio(double ratio) {
+            this.unavailableRatio = ratio;
+            return this;
+        }
+
+        /**
+         * 按比例返回finishReason为MAX_TOKENS的响应
+         */
+        public Config truncatedRatio(double ratio) {
+            this.truncatedRatio = ratio;
+            return this;
+        }
+
+        /**
+         * 每个API密钥在任意60秒内最多接受的generateContent请求数，超过时返回429，0表示不限制
+         */
+        public Config requestsPerMinute(int requestsPerMinute) {
+            this.requestsPerMinute = requestsPerMinute;
+            return this;
+        }
+
+        /**
+         * 所有密钥合计同时处理的generateContent请求数上限，超过时返回503，0表示不限制
+         */
+        public Config maxConcurrentRequests(int maxConcurrentRequests) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        public Config outputChars(int outputChars) {
+            this.outputChars = outputChars;
+            return this;
+        }
+
+        public Config streamChunks(int streamChunks) {
+            this.streamChunks = streamChunks;
+            return this;
+        }
+
+        public Config seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+    }
+
+    private final Config config;
+    private final Random random;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "fake-gemini");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Gson gson = new Gson();
+
+    // 以下字段由this加锁访问
+    private final Map<String, Deque<Long>> acceptedByKey = new TreeMap<>();
+    private final Map<Integer, Integer> responsesByStatus = new TreeMap<>();
+    private final List<Long> acceptedAt = new ArrayList<>();
+    private int countTokensCalls;
+    private int truncated;
+    private int active;
+    private int peakActive;
+
+    public FakeGeminiServer(Config config) throws IOException {
+        this.config = config;
+        this.random = new Random(config.seed);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/v1beta/models/", this::handle);
+        server.start();
+    }
+
+    /**
+     * 传给 -Dgemini.base.url 的地址
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String query = exchange.getRequestURI().getQuery();
+            byte[] body = readAll(exchange.getRequestBody());
+            if (path.endsWith(":countTokens")) {
+                countTokens(exchange, body);
+            } else if (path.endsWith(":generateContent") || path.endsWith(":streamGenerateContent")) {
+                if (!enter()) {
+                    reject(exchange, 503, "UNAVAILABLE");
+                    return;
+                }
+                try {
+                    generate(exchange, body, keyOf(query), path.endsWith(":streamGenerateContent"));
+                } finally {
+                    exit();
+                }
+            } else {
+                respond(exchange, 404, "application/json", "{\"error\":{\"code\":404,\"message\":\"not found\"}}");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void countTokens(HttpExchange exchange, byte[] body) throws IOException {
+        synchronized (this) {
+            countTokensCalls++;
+        }
+        respond(exchange, 200, "application/json", "{\"totalTokens\":" + TokenEstimator.estimate(body) + "}");
+    }
+
+    private void generate(HttpExchange exchange, byte[] body, String key, boolean stream)
+            throws IOException, InterruptedException {
+        long latencyMs;
+        double roll;
+        double truncateRoll;
+        synchronized (this) {
+            latencyMs = Math.max(0, config.latency.sampleMs(random));
+            roll = random.nextDouble();
+            truncateRoll = random.nextDouble();
+        }
+
+        if (roll < config.rateLimitedRatio) {
+            reject(exchange, 429, "RESOURCE_EXHAUSTED");
+            return;
+        }
+        if (roll < config.rateLimitedRatio + config.unavailableRatio) {
+            reject(exchange, 503, "UNAVAILABLE");
+            return;
+        }
+        if (!admit(key)) {
+            reject(exchange, 429, "RESOURCE_EXHAUSTED");
+            return;
+        }
+
+        boolean truncate = truncateRoll < config.truncatedRatio;
+        String finishReason = truncate ? "MAX_TOKENS" : "STOP";
+        int promptTokens = TokenEstimator.estimate(body);
+        String text = outputText(body.length);
+        synchronized (this) {
+            responsesByStatus.merge(200, 1, Integer::sum);
+            if (truncate) {
+                truncated++;
+            }
+        }
+
+        if (!stream) {
+            Thread.sleep(latencyMs);
+            respond(exchange, 200, "application/json", gson.toJson(chunk(text, finishReason, promptTokens)));
+            return;
+        }
+
+        // SSE：延迟平均分摊到各个事件之间，最后一个事件带结束原因和usageMetadata
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        int chunks = Math.max(1, config.streamChunks);
+        int chunkSize = (text.length() + chunks - 1) / chunks;
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int i = 0; i < chunks; i++) {
+                Thread.sleep(latencyMs / chunks);
+                String part = text.substring(Math.min(text.length(), i * chunkSize),
+                        Math.min(text.length(), (i + 1) * chunkSize));
+                JsonObject event = i == chunks - 1 ? chunk(part, finishReason, promptTokens) : chunk(part, null, 0);
+                out.write(("data: " + gson.toJson(event) + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        }
+    }
+
+    private synchronized boolean enter() {
+        if (config.maxConcurrentRequests > 0 && active >= config.maxConcurrentRequests) {
+            return false;
+        }
+        active++;
+        peakActive = Math.max(peakActive, active);
+        return true;
+    }
+
+    private synchronized void exit() {
+        active--;
+    }
+
+    /**
+     * 按每个密钥的滑动60秒窗口限流
+     */
+    private synchronized boolean admit(String key) {
+        long now = System.nanoTime();
+        if (config.requestsPerMinute > 0) {
+            Deque<Long> window = acceptedByKey.computeIfAbsent(key, k -> new ArrayDeque<>());
+            while (!window.isEmpty() && now - window.peekFirst() >= ONE_MINUTE_NANOS) {
+                window.pollFirst();
+            }
+            if (window.size() >= config.requestsPerMinute) {
+                return false;
+            }
+            window.addLast(now);
+        }
+        acceptedAt.add(now);
+        return true;
+    }
+
+    private void reject(HttpExchange exchange, int status, String reason) throws IOException {
+        synchronized (this) {
+            responsesByStatus.merge(status, 1, Integer::sum);
+        }
+        String body = "{\"error\":{\"code\":" + status + ",\"status\":\"" + reason + "\",\"details\":"
+                + "[{\"@type\":\"type.googleapis.com/google.rpc.RetryInfo\",\"retryDelay\":\"1s\"}]}}";
+        respond(exchange, status, "application/json", body);
+    }
+
+    private String outputText(int inputBytes) {
+        StringBuilder text = new StringBuilder("分析（输入").append(inputBytes).append("字节）：");
+        while (text.length() < config.outputChars) {
+            text.append("秦牧在大墟中成长，");
+        }
+        text.setLength(Math.max(config.outputChars, 1));
+        return text.toString();
+    }
+
+    private static JsonObject chunk(String text, String finishReason, int promptTokens) {
+        JsonObject part = new JsonObject();
+        part.addProperty("text", text);
+        JsonArray parts = new JsonArray();
+        parts.add(part);
+        JsonObject content = new JsonObject();
+        content.add("parts", parts);
+        content.addProperty("role", "model");
+        JsonObject candidate = new JsonObject();
+        candidate.add("content", content);
+        if (finishReason != null) {
+            candidate.addProperty("finishReason", finishReason);
+        }
+        JsonArray candidates = new JsonArray();
+        candidates.add(candidate);
+        JsonObject response = new JsonObject();
+        response.add("candidates", candidates);
+        if (finishReason != null) {
+            int outputTokens = TokenEstimator.estimate(text);
+            JsonObject usage = new JsonObject();
+            usage.addProperty("promptTokenCount", promptTokens);
+            usage.addProperty("candidatesTokenCount", outputTokens);
+            usage.addProperty("totalTokenCount", promptTokens + outputTokens);
+            response.add("usageMetadata", usage);
+        }
+        return response;
+    }
+
+    private static String keyOf(String query) {
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith("key=")) {
+                    return param.substring(4);
+                }
+            }
+        }
+        return "";
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            return input.readAllBytes();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * 已接受的generateContent请求的时间点（纳秒时钟），按接受顺序排列
+     */
+    public synchronized List<Long> getAcceptedTimes() {
+        return Collections.unmodifiableList(new ArrayList<>(acceptedAt));
+    }
+
+    public synchronized Map<Integer, Integer> getResponsesByStatus() {
+        return new TreeMap<>(responsesByStatus);
+    }
+
+    public synchronized int getCountTokensCalls() {
+        return countTokensCalls;
+    }
+
+    public synchronized int getTruncated() {
+        return truncated;
+    }
+
+    /**
+     * 同时处理的generateContent请求数的最大值
+     */
+    public synchronized int getPeakConcurrentRequests() {
+        return peakActive;
+    }
+}
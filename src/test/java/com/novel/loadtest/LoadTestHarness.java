@@ -0,0 +1,331 @@
+package com.novel.loadtest;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端压测：生成合成小说和apikey.yml，在子进程中运行完整的NovelReaderApp，
+ * 通过 -Dgemini.base.url 指向本地的FakeGeminiServer，统计总耗时和实际达到的每分钟请求数。
+ * 子进程的工作目录就是压测目录，所有输出都写在那里。
+ * runWorkers在同一个压测目录中同时启动多个工作进程（--worker），模拟共用文件系统的多台机器。
+ * 手动运行：mvn test-compile 后执行
+ * java -cp target/classes:target/test-classes:&lt;依赖&gt; com.novel.loadtest.LoadTestHarness [批次数] [密钥数] [每个密钥RPM] [工作进程数]
+ */
+public class LoadTestHarness {
+    private static final long ONE_MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Path workDir;
+    private int chapters = 40;
+    private int charsPerChapter = 2000;
+    private int keys = 1;
+    private int requestsPerMinutePerKey = 600;
+    private long tokensPerMinutePerKey;
+    private int requestsPerDayPerKey;
+    private Path quotaDir;
+    private long timeoutMs = TimeUnit.MINUTES.toMillis(5);
+    private int killFirstWorkerAfterResults = -1;
+    private final List<String> jvmArgs = new ArrayList<>();
+    private final List<String> appArgs = new ArrayList<>();
+
+    public LoadTestHarness(Path workDir) {
+        this.workDir = workDir;
+    }
+
+    public LoadTestHarness chapters(int chapters, int charsPerChapter) {
+        this.chapters = chapters;
+        this.charsPerChapter = charsPerChapter;
+        return this;
+    }
+
+    /**
+     * apikey.yml中的密钥数和每个密钥的每分钟请求数
+     */
+    public LoadTestHarness keys(int keys, int requestsPerMinutePerKey) {
+        this.keys = keys;
+        this.requestsPerMinutePerKey = requestsPerMinutePerKey;
+        return this;
+    }
+
+    /**
+     * 每个密钥的每分钟输入token数，0表示使用默认值
+     */
+    public LoadTestHarness tokensPerMinute(long tokensPerMinutePerKey) {
+        this.tokensPerMinutePerKey = tokensPerMinutePerKey;
+        return this;
+    }
+
+    /**
+     * 每个密钥的每天请求数，默认0表示不限
+     */
+    public LoadTestHarness requestsPerDay(int requestsPerDayPerKey) {
+        this.requestsPerDayPerKey = requestsPerDayPerKey;
+        return this;
+    }
+
+    /**
+     * 保存各密钥共享配额状态的目录，默认在压测目录下；多个压测进程使用同一个目录时共用配额
+     */
+    public LoadTestHarness quotaDir(Path quotaDir) {
+        this.quotaDir = quotaDir;
+        return this;
+    }
+
+    public LoadTestHarness timeoutMs(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        return this;
+    }
+
+    /**
+     * runWorkers中第一个工作进程完成了这么多个批次之后将它强制结束，模拟机器宕机，
+     * 此时它通常还持有已认领、尚未完成的批次
+     */
+    public LoadTestHarness killFirstWorkerAfterResults(int killFirstWorkerAfterResults) {
+        this.killFirstWorkerAfterResults = killFirstWorkerAfterResults;
+        return this;
+    }
+
+    /**
+     * 子进程的JVM参数，如 -Xmx64m
+     */
+    public LoadTestHarness jvmArg(String arg) {
+        jvmArgs.add(arg);
+        return this;
+    }
+
+    public LoadTestHarness appArg(String arg) {
+        appArgs.add(arg);
+        return this;
+    }
+
+    /**
+     * 压测结果
+     */
+    public static class Report {
+        public int exitCode;
+        public long makespanMs;
+        public int acceptedRequests;
+        public double achievedRequestsPerMinute;
+        public int peakRequestsPerMinute;
+        public Map<Integer, Integer> responsesByStatus;
+        public int truncatedResponses;
+        // runWorkers中各工作进程的退出码，被强制结束的进程也在其中
+        public List<Integer> workerExitCodes = new ArrayList<>();
+        public Path workDir;
+
+        @Override
+        public String toString() {
+            return String.format("退出码%d，总耗时%dms，成功请求%d次，平均%.1f次/分钟，任意60秒内最多%d次，"
+                            + "各状态码响应%s，截断响应%d次，各工作进程退出码%s，输出目录%s",
+                    exitCode, makespanMs, acceptedRequests, achievedRequestsPerMinute, peakRequestsPerMinute,
+                    responsesByStatus, truncatedResponses, workerExitCodes, workDir);
+        }
+    }
+
+    /**
+     * 准备输入并运行一次完整流程
+     */
+    public Report run(FakeGeminiServer server) throws IOException, InterruptedException {
+        Files.createDirectories(workDir);
+        Path novel = writeNovel();
+        writeApiKeys();
+
+        Path quota = quotaDir != null ? quotaDir : workDir.resolve("quota");
+        Path console = workDir.resolve("app-console.log");
+        long start = System.nanoTime();
+        Process process = start(server, novel, quota, console, appArgs);
+        if (!process.waitFor(timeoutMs, TimeUnit.MILLISECONDS)) {
+            process.destroyForcibly();
+            throw new IllegalStateException("压测超时，日志见" + console);
+        }
+        return report(server, process.exitValue(), System.nanoTime() - start);
+    }
+
+    /**
+     * 在压测目录中同时启动count个工作进程。每个进程有自己的配额状态目录，相当于各自在一台机器上，
+     * 日志写入 app-console-worker-序号.log；报告的退出码取没有被强制结束的进程中第一个非0的值
+     */
+    public Report runWorkers(FakeGeminiServer server, int count) throws IOException, InterruptedException {
+        Files.createDirectories(workDir);
+        Path novel = writeNovel();
+        writeApiKeys();
+
+        Path quota = quotaDir != null ? quotaDir : workDir.resolve("quota");
+        long start = System.nanoTime();
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            List<String> args = new ArrayList<>(appArgs);
+            args.add("--worker=worker-" + i);
+            processes.add(start(server, novel, quota.resolve("worker-" + i),
+                    workDir.resolve("app-console-worker-" + i + ".log"), args));
+        }
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        if (killFirstWorkerAfterResults >= 0) {
+            Process first = processes.get(0);
+            Path journal = workDir.resolve("output").resolve("batch_journal-worker-0.log");
+            while (first.isAlive() && System.nanoTime() < deadline
+                    && countDone(journal) < killFirstWorkerAfterResults) {
+                Thread.sleep(10);
+            }
+            first.destroyForcibly();
+        }
+
+        int exitCode = 0;
+        List<Integer> exitCodes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Process process = processes.get(i);
+            if (!process.waitFor(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                processes.forEach(Process::destroyForcibly);
+                throw new IllegalStateException(
+                        "压测超时，日志见" + workDir.resolve("app-console-worker-" + i + ".log"));
+            }
+            exitCodes.add(process.exitValue());
+            boolean killed = i == 0 && killFirstWorkerAfterResults >= 0;
+            if (!killed && exitCode == 0) {
+                exitCode = process.exitValue();
+            }
+        }
+        Report report = report(server, exitCode, System.nanoTime() - start);
+        report.workerExitCodes = exitCodes;
+        return report;
+    }
+
+    private Process start(FakeGeminiServer server, Path novel, Path quota, Path console, List<String> args)
+            throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-Dgemini.base.url=" + server.getBaseUrl());
+        command.add("-Dnovel.file=" + novel);
+        command.add("-Dnovel.quota.dir=" + quota.toAbsolutePath());
+        command.add("-Dfile.encoding=UTF-8");
+        command.add("-Dsun.jnu.encoding=UTF-8");
+        command.add("-cp");
+        command.add(absoluteClassPath());
+        command.add("com.novel.NovelReaderApp");
+        command.addAll(args);
+
+        ProcessBuilder builder = new ProcessBuilder(command)
+                .directory(workDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(console.toFile());
+        // 输出文件名包含中文，子进程需要UTF-8的文件名编码
+        builder.environment().put("LANG", "C.UTF-8");
+        builder.environment().put("LC_ALL", "C.UTF-8");
+        return builder.start();
+    }
+
+    private Report report(FakeGeminiServer server, int exitCode, long makespanNanos) {
+        Report report = new Report();
+        report.exitCode = exitCode;
+        report.makespanMs = TimeUnit.NANOSECONDS.toMillis(makespanNanos);
+        List<Long> accepted = server.getAcceptedTimes();
+        report.acceptedRequests = accepted.size();
+        report.achievedRequestsPerMinute = accepted.size() * (double) ONE_MINUTE_NANOS / Math.max(1, makespanNanos);
+        report.peakRequestsPerMinute = peakInWindow(accepted, ONE_MINUTE_NANOS);
+        report.responsesByStatus = server.getResponsesByStatus();
+        report.truncatedResponses = server.getTruncated();
+        report.workDir = workDir;
+        return report;
+    }
+
+    /**
+     * 工作进程的批次日志中标记为完成的记录数
+     */
+    private static long countDone(Path journal) throws IOException {
+        if (!Files.exists(journal)) {
+            return 0;
+        }
+        return Files.readAllLines(journal, StandardCharsets.UTF_8).stream()
+                .filter(line -> line.startsWith("DONE"))
+                .count();
+    }
+
+    /**
+     * 子进程在压测目录中运行，类路径中的相对路径要先转成绝对路径
+     */
+    private static String absoluteClassPath() {
+        StringJoiner classPath = new StringJoiner(File.pathSeparator);
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.add(Paths.get(entry).toAbsolutePath().toString());
+        }
+        return classPath.toString();
+    }
+
+    /**
+     * 任意长度为window的时间窗口内最多的请求数
+     */
+    static int peakInWindow(List<Long> times, long window) {
+        int peak = 0;
+        int left = 0;
+        for (int right = 0; right < times.size(); right++) {
+            while (times.get(right) - times.get(left) >= window) {
+                left++;
+            }
+            peak = Math.max(peak, right - left + 1);
+        }
+        return peak;
+    }
+
+    private Path writeNovel() throws IOException {
+        Path novel = workDir.resolve("novel.txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(novel, StandardCharsets.UTF_8)) {
+            for (int chapter = 1; chapter <= chapters; chapter++) {
+                writer.write("第" + chapter + "章 压测章节" + chapter + "\n\n");
+                int written = 0;
+                while (written < charsPerChapter) {
+                    String paragraph = "　　秦牧在残老村长大，村里的老人们各有绝技，大墟之中黑暗降临。\n";
+                    writer.write(paragraph);
+                    written += paragraph.length();
+                }
+            }
+        }
+        return novel;
+    }
+
+    private void writeApiKeys() throws IOException {
+        StringBuilder yaml = new StringBuilder("api_keys:\n");
+        for (int i = 1; i <= keys; i++) {
+            yaml.append("  - key: fake-key-").append(i).append('\n')
+                    .append("    name: fake-").append(i).append('\n')
+                    .append("    requests_per_minute: ").append(requestsPerMinutePerKey).append('\n')
+                    .append("    requests_per_day: ").append(requestsPerDayPerKey).append('\n');
+            if (tokensPerMinutePerKey > 0) {
+                yaml.append("    tokens_per_minute: ").append(tokensPerMinutePerKey).append('\n');
+            }
+        }
+        Files.writeString(workDir.resolve("apikey.yml"), yaml.toString(), StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int chapters = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int keys = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int rpm = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        int workers = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+        FakeGeminiServer.Config config = new FakeGeminiServer.Config()
+                .latency(FakeGeminiServer.LatencyDistribution.logNormal(800, 0.6))
+                .unavailableRatio(0.05)
+                .truncatedRatio(0.05)
+                .requestsPerMinute(rpm);
+        Path workDir = Files.createTempDirectory("novel-loadtest-");
+        try (FakeGeminiServer server = new FakeGeminiServer(config)) {
+            LoadTestHarness harness = new LoadTestHarness(workDir)
+                    .chapters(chapters, 3000)
+                    .keys(keys, rpm)
+                    .timeoutMs(TimeUnit.HOURS.toMillis(1));
+            Report report = workers > 0 ? harness.runWorkers(server, workers) : harness.run(server);
+            System.out.println(report);
+        }
+        System.out.println("日志: " + workDir);
+    }
+}
@@ -0,0 +1,193 @@
+package com.novel.loadtest;
+
+import com.novel.metrics.PipelineMetrics;
+import com.novel.model.ApiKey;
+import com.novel.service.impl.SharedFileRateLimiterService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadTestHarnessTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void testFullRunAgainstFakeServer() throws Exception {
+        FakeGeminiServer.Config config = new FakeGeminiServer.Config()
+                .latency(FakeGeminiServer.LatencyDistribution.logNormal(50, 0.5))
+                .unavailableRatio(0.1)
+                .truncatedRatio(0.1)
+                .requestsPerMinute(300);
+
+        LoadTestHarness.Report report;
+        try (FakeGeminiServer server = new FakeGeminiServer(config)) {
+            report = new LoadTestHarness(dir)
+                    .chapters(60, 2000)
+                    .keys(2, 300)
+                    .timeoutMs(TimeUnit.MINUTES.toMillis(3))
+                    .run(server);
+        }
+
+        assertEquals(0, report.exitCode, report.toString());
+        // 限流器把请求控制在配额内，模拟服务的60秒窗口不应拒绝任何请求
+        assertFalse(report.responsesByStatus.containsKey(429), report.toString());
+        assertTrue(report.peakRequestsPerMinute <= 2 * 300, report.toString());
+
+        // 所有批次都完成，每个批次的分析都进入了最终报告
+        String prometheus = Files.readString(dir.resolve("output/metrics.prom"), StandardCharsets.UTF_8);
+        long total = sample(prometheus, "total");
+        assertTrue(total >= 3, prometheus);
+        assertEquals(total, sample(prometheus, "completed"), prometheus);
+        assertEquals(0, sample(prometheus, "failed"), prometheus);
+
+        String finalReport = Files.readString(dir.resolve("output/final_analysis.txt"), StandardCharsets.UTF_8);
+        assertEquals(total, finalReport.split("分析（输入", -1).length - 1);
+    }
+
+    @Test
+    void testRerunWithUnchangedInputsMakesNoNetworkCalls() throws Exception {
+        try (FakeGeminiServer server = new FakeGeminiServer(new FakeGeminiServer.Config())) {
+            LoadTestHarness harness = new LoadTestHarness(dir)
+                    .chapters(100, 500)
+                    .keys(1, 600)
+                    .timeoutMs(TimeUnit.MINUTES.toMillis(3));
+            LoadTestHarness.Report first = harness.run(server);
+            assertEquals(0, first.exitCode, first.toString());
+            int requests = server.getAcceptedTimes().size();
+            int countTokensCalls = server.getCountTokensCalls();
+            assertTrue(requests > 0 && countTokensCalls > 0, first.toString());
+            String firstReport = Files.readString(dir.resolve("output/final_analysis.txt"), StandardCharsets.UTF_8);
+
+            // 不使用--resume重新运行：重新分割、校准并处理所有批次，全部由缓存提供
+            LoadTestHarness.Report second = harness.run(server);
+            assertEquals(0, second.exitCode, second.toString());
+            assertEquals(requests, server.getAcceptedTimes().size());
+            assertEquals(countTokensCalls, server.getCountTokensCalls());
+            assertEquals(firstReport, Files.readString(dir.resolve("output/final_analysis.txt"), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void testProcessesShareKeyQuota() throws Exception {
+        // 两个进程同时使用同一个密钥，每分钟600次即每100ms一个请求（token额度足够，不构成限制）；共享配额时合计也不超过这个速率
+        Path quotaDir = dir.resolve("quota");
+        List<Long> accepted;
+        List<LoadTestHarness.Report> reports = new ArrayList<>();
+        try (FakeGeminiServer server = new FakeGeminiServer(new FakeGeminiServer.Config())) {
+            ExecutorService runners = Executors.newFixedThreadPool(2);
+            try {
+                List<Future<LoadTestHarness.Report>> futures = new ArrayList<>();
+                for (int i = 0; i < 2; i++) {
+                    LoadTestHarness harness = new LoadTestHarness(dir.resolve("process-" + i))
+                            .chapters(300, 500)
+                            .keys(1, 600)
+                            .tokensPerMinute(1_000_000_000L)
+                            .quotaDir(quotaDir)
+                            .timeoutMs(TimeUnit.MINUTES.toMillis(3));
+                    futures.add(runners.submit(() -> harness.run(server)));
+                }
+                for (Future<LoadTestHarness.Report> future : futures) {
+                    reports.add(future.get());
+                }
+            } finally {
+                runners.shutdownNow();
+            }
+            accepted = new ArrayList<>(server.getAcceptedTimes());
+        }
+
+        for (LoadTestHarness.Report report : reports) {
+            assertEquals(0, report.exitCode, report.toString());
+        }
+        Collections.sort(accepted);
+        int peak = LoadTestHarness.peakInWindow(accepted, TimeUnit.SECONDS.toNanos(1));
+        assertTrue(peak <= 12, "任意1秒内最多" + peak + "个请求");
+
+        // 两个进程的请求都计入同一个共享计数
+        SharedFileRateLimiterService ledger = new SharedFileRateLimiterService(quotaDir,
+                new ApiKey("ledger", "fake-key-1", 600, 1_000_000_000L, 0),
+                Executors.newSingleThreadScheduledExecutor(), new PipelineMetrics(System::nanoTime));
+        try {
+            assertEquals(accepted.size(), ledger.getDailyCount());
+        } finally {
+            ledger.shutdown();
+        }
+    }
+
+    @Test
+    void testWorkersShareBatchesAndTakeOverFromKilledWorker() throws Exception {
+        // 三个工作进程共用一个目录，第一个进程完成两个批次后被强制结束，它持有的批次在租约过期后由其他进程接手
+        LoadTestHarness.Report report;
+        try (FakeGeminiServer server = new FakeGeminiServer(new FakeGeminiServer.Config()
+                .latency(FakeGeminiServer.LatencyDistribution.logNormal(200, 0.3)))) {
+            report = new LoadTestHarness(dir)
+                    .chapters(600, 500)
+                    .keys(1, 240)
+                    .jvmArg("-Dnovel.lease.ttl.ms=2000")
+                    .killFirstWorkerAfterResults(2)
+                    .timeoutMs(TimeUnit.MINUTES.toMillis(3))
+                    .runWorkers(server, 3);
+        }
+        assertEquals(0, report.exitCode, report.toString());
+        assertEquals(Arrays.asList(0, 0), report.workerExitCodes.subList(1, 3), report.toString());
+
+        // 每个批次都有结果，最终报告中每个批次的分析恰好出现一次
+        long batches;
+        try (Stream<Path> files = Files.list(dir.resolve("output/split_chapters"))) {
+            batches = files.filter(file -> file.getFileName().toString().endsWith(".txt")).count();
+        }
+        long results;
+        try (Stream<Path> files = Files.list(dir.resolve("output/api_results"))) {
+            results = files.filter(file -> file.getFileName().toString().endsWith(".json")).count();
+        }
+        assertTrue(batches >= 10, report.toString());
+        assertEquals(batches, results, report.toString());
+        String finalReport = Files.readString(dir.resolve("output/final_analysis.txt"), StandardCharsets.UTF_8);
+        assertEquals(batches, finalReport.split("分析（输入", -1).length - 1);
+
+        String survivorLogs = Files.readString(dir.resolve("app-console-worker-1.log"), StandardCharsets.UTF_8)
+                + Files.readString(dir.resolve("app-console-worker-2.log"), StandardCharsets.UTF_8);
+        assertTrue(survivorLogs.contains("接手了已过期的租约"), report.toString());
+
+        // 存活的进程都处理了批次，正常结束的进程归还了所有租约（被结束的进程可能留下已完成批次的租约）
+        for (int i = 1; i < 3; i++) {
+            String prometheus = Files.readString(dir.resolve("output/metrics-worker-" + i + ".prom"),
+                    StandardCharsets.UTF_8);
+            assertTrue(sample(prometheus, "completed") > 0, prometheus);
+        }
+        try (Stream<Path> files = Files.list(dir.resolve("output/leases"))) {
+            for (Path lease : (Iterable<Path>) files::iterator) {
+                assertTrue(Files.readString(lease, StandardCharsets.UTF_8).startsWith("worker-0 "), lease.toString());
+            }
+        }
+    }
+
+    @Test
+    void testPeakInWindow() {
+        long second = TimeUnit.SECONDS.toNanos(1);
+        assertEquals(3, LoadTestHarness.peakInWindow(
+                Arrays.asList(0L, 10 * second, 59 * second, 60 * second, 130 * second), 60 * second));
+        assertEquals(0, LoadTestHarness.peakInWindow(Arrays.asList(), 60 * second));
+    }
+
+    private static long sample(String prometheus, String state) {
+        Matcher matcher = Pattern.compile("novel_batches\\{state=\"" + state + "\"} (\\d+)").matcher(prometheus);
+        assertTrue(matcher.find(), state);
+        return Long.parseLong(matcher.group(1));
+    }
+}
@@ -0,0 +1,118 @@
+package com.novel.metrics;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineMetricsTest {
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testPercentilesAreWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int ms = 1; ms <= 1000; ms++) {
+            histogram.record(ms * MILLI);
+        }
+
+        // 桶上界按2^(1/4)增长，分位数不小于真实值且误差不超过19%
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMaxMs(), 1e-9);
+        assertEquals(500.5, histogram.getMeanMs(), 1e-9);
+        assertBetween(500, 500 * 1.19, histogram.percentileMs(0.5));
+        assertBetween(950, 950 * 1.19, histogram.percentileMs(0.95));
+        assertBetween(990, 1000, histogram.percentileMs(0.99));
+        assertEquals(0, new LatencyHistogram().percentileMs(0.5));
+    }
+
+    @Test
+    void testProgressAndEta() {
+        AtomicLong clock = new AtomicLong();
+        PipelineMetrics metrics = new PipelineMetrics(clock::get);
+        metrics.setBatchesTotal(10);
+        metrics.batchSkipped();
+        metrics.batchSkipped();
+        assertEquals(-1, metrics.getEtaSeconds());
+
+        // 本次运行开始4个批次，10秒内完成2个：每批5秒，剩余4个排队加2个在途约30秒
+        for (int i = 0; i < 4; i++) {
+            metrics.batchStarted();
+        }
+        clock.set(10 * SECOND);
+        metrics.batchFinished(true);
+        metrics.batchFinished(false);
+
+        assertEquals(4, metrics.getQueueDepth());
+        assertEquals(2, metrics.getInFlight());
+        assertEquals(30, metrics.getEtaSeconds());
+    }
+
+    @Test
+    void testSnapshotFormats() {
+        PipelineMetrics metrics = new PipelineMetrics(System::nanoTime);
+        metrics.recordApiCall(200, 2 * SECOND);
+        metrics.recordApiCall(429, 100 * MILLI);
+        metrics.recordRetry(429);
+        metrics.recordLimiterWait("global", 4 * SECOND);
+        metrics.recordStage("save", 3 * MILLI);
+        metrics.recordTokens(1000, 200);
+
+        JsonObject json = metrics.toJson();
+        assertEquals(1, json.getAsJsonObject("api").getAsJsonObject("retries_by_status").get("429").getAsInt());
+        assertEquals(2, json.getAsJsonObject("api").getAsJsonObject("latency_ms").get("count").getAsInt());
+        assertEquals(1000, json.getAsJsonObject("tokens").get("input").getAsInt());
+        assertTrue(json.getAsJsonObject("stages_ms").has("save"));
+
+        String text = metrics.toPrometheus();
+        assertTrue(text.contains("novel_api_requests_total{status=\"200\"} 1\n"));
+        assertTrue(text.contains("novel_api_retries_total{status=\"429\"} 1\n"));
+        assertTrue(text.contains("novel_api_latency_seconds_count 2\n"));
+        assertTrue(text.contains("novel_limiter_wait_seconds{limiter=\"global\",quantile=\"0.99\"} 4\n"));
+        assertTrue(text.contains("novel_tokens_total{direction=\"output\"} 200\n"));
+    }
+
+    @Test
+    void testReporterWritesFilesAndServesEndpoints() throws Exception {
+        PipelineMetrics metrics = new PipelineMetrics(System::nanoTime);
+        metrics.setBatchesTotal(3);
+        Path json = dir.resolve("metrics.json");
+        Path prometheus = dir.resolve("metrics.prom");
+
+        try (MetricsReporter reporter = new MetricsReporter(metrics, json, prometheus)) {
+            int port = reporter.startHttpServer(0);
+            HttpClient client = HttpClient.newHttpClient();
+            HttpResponse<String> progress = client.send(HttpRequest.newBuilder(
+                    URI.create("http://127.0.0.1:" + port + "/progress")).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, progress.statusCode());
+            assertEquals(3, JsonParser.parseString(progress.body()).getAsJsonObject()
+                    .getAsJsonObject("batches").get("queued").getAsInt());
+
+            HttpResponse<String> scrape = client.send(HttpRequest.newBuilder(
+                    URI.create("http://127.0.0.1:" + port + "/metrics")).build(), HttpResponse.BodyHandlers.ofString());
+            assertTrue(scrape.body().contains("novel_batches{state=\"total\"} 3\n"));
+        }
+
+        // 关闭时写入最终快照
+        assertTrue(Files.readString(prometheus).contains("novel_batches{state=\"queued\"} 3\n"));
+        assertTrue(Files.exists(json));
+    }
+
+    private static void assertBetween(double low, double high, double actual) {
+        assertTrue(actual >= low && actual <= high, actual + " 不在 [" + low + ", " + high + "] 之间");
+    }
+}
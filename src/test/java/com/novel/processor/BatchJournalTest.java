@@ -0,0 +1,59 @@
+package com.novel.processor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchJournalTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void testResumeReplaysLatestState() throws Exception {
+        Path path = dir.resolve("batch_journal.log");
+        try (BatchJournal journal = BatchJournal.open(path, false)) {
+            journal.recordAll(Arrays.asList("001第1-10章.txt", "002第11-20章.txt", "003第21-30章.txt"),
+                    BatchJournal.State.PENDING);
+            journal.record("001第1-10章.txt", BatchJournal.State.IN_FLIGHT);
+            journal.record("001第1-10章.txt", BatchJournal.State.DONE);
+            journal.record("002第11-20章.txt", BatchJournal.State.IN_FLIGHT);
+        }
+
+        // 模拟崩溃：末尾留下写了一半的记录
+        Files.write(path, "DONE\t003第21".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (BatchJournal journal = BatchJournal.open(path, true)) {
+            assertEquals(BatchJournal.State.DONE, journal.getState("001第1-10章.txt"));
+            assertEquals(BatchJournal.State.IN_FLIGHT, journal.getState("002第11-20章.txt"));
+            assertEquals(BatchJournal.State.PENDING, journal.getState("003第21-30章.txt"));
+
+            // 不完整的末行被截断，新记录从完整的行开始
+            journal.record("003第21-30章.txt", BatchJournal.State.DONE);
+        }
+
+        try (BatchJournal journal = BatchJournal.open(path, true)) {
+            assertEquals(BatchJournal.State.DONE, journal.getState("003第21-30章.txt"));
+            assertEquals(3, journal.summary().values().stream().mapToInt(Integer::intValue).sum());
+        }
+    }
+
+    @Test
+    void testFreshRunClearsJournal() throws Exception {
+        Path path = dir.resolve("batch_journal.log");
+        try (BatchJournal journal = BatchJournal.open(path, false)) {
+            journal.record("001第1-10章.txt", BatchJournal.State.DONE);
+        }
+
+        try (BatchJournal journal = BatchJournal.open(path, false)) {
+            assertEquals(BatchJournal.State.PENDING, journal.getState("001第1-10章.txt"));
+        }
+        assertEquals(0, Files.size(path));
+    }
+}
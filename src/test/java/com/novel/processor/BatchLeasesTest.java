@@ -0,0 +1,195 @@
+package com.novel.processor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 使用虚拟时钟验证租约的认领、心跳、过期接手和归还
+ */
+class BatchLeasesTest {
+    private static final long TTL = 1000;
+
+    @TempDir
+    Path dir;
+
+    private final AtomicLong clock = new AtomicLong(1_700_000_000_000L);
+
+    private BatchLeases open(String workerId) throws Exception {
+        return new BatchLeases(dir, workerId, TTL, clock::get);
+    }
+
+    @Test
+    void testOnlyOneWorkerHoldsLease() throws Exception {
+        BatchLeases first = open("first");
+        BatchLeases second = open("second");
+
+        assertTrue(first.tryAcquire("001"));
+        assertTrue(first.tryAcquire("001"));
+        assertFalse(second.tryAcquire("001"));
+        assertTrue(second.isHeldByOthers("001"));
+        assertFalse(first.isHeldByOthers("001"));
+
+        // 归还之后其他进程可以认领，只能归还自己持有的租约
+        second.release("001");
+        assertTrue(Files.exists(dir.resolve("001.lease")));
+        first.release("001");
+        assertFalse(second.isHeldByOthers("001"));
+        assertTrue(second.tryAcquire("001"));
+    }
+
+    @Test
+    void testExpiredLeaseIsStolenAndOwnerNotices() throws Exception {
+        BatchLeases first = open("first");
+        BatchLeases second = open("second");
+        assertTrue(first.tryAcquire("001"));
+
+        // 心跳让租约一直有效
+        for (int i = 0; i < 5; i++) {
+            clock.addAndGet(TTL / 2);
+            first.renewAll();
+            assertFalse(second.tryAcquire("001"));
+        }
+
+        // 持有者停止心跳后租约过期，被其他进程接手，原持有者刷新时放弃它，归还时也不会删除新租约
+        clock.addAndGet(TTL + 1);
+        assertFalse(second.isHeldByOthers("001"));
+        assertTrue(second.tryAcquire("001"));
+        first.renewAll();
+        assertTrue(first.isHeldByOthers("001"));
+        first.release("001");
+        assertTrue(first.isHeldByOthers("001"));
+        assertFalse(first.tryAcquire("001"));
+
+        // 接手时的墓碑文件已经清理
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void testCloseReleasesAllLeases() throws Exception {
+        BatchLeases first = open("first");
+        assertTrue(first.tryAcquire("001"));
+        assertTrue(first.tryAcquire("002"));
+        first.close();
+
+        BatchLeases second = open("second");
+        assertTrue(second.tryAcquire("001"));
+        assertTrue(second.tryAcquire("002"));
+    }
+
+    @Test
+    void testThreeWorkersRaceForOneExpiredLease() throws Exception {
+        List<BatchLeases> workers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            workers.add(open("worker-" + i));
+        }
+        BatchLeases owner = open("owner");
+        CyclicBarrier start = new CyclicBarrier(workers.size());
+        ExecutorService pool = Executors.newFixedThreadPool(workers.size());
+        try {
+            for (int round = 0; round < 200; round++) {
+                String name = String.format("%03d", round);
+                assertTrue(owner.tryAcquire(name));
+                clock.addAndGet(TTL + 1);
+
+                List<Future<Boolean>> attempts = new ArrayList<>();
+                for (BatchLeases worker : workers) {
+                    attempts.add(pool.submit(() -> {
+                        start.await();
+                        return worker.tryAcquire(name);
+                    }));
+                }
+                // 所有进程都结束后再检查，检查中的进程会暂时把租约改名
+                List<Boolean> acquired = new ArrayList<>();
+                for (Future<Boolean> attempt : attempts) {
+                    acquired.add(attempt.get(5, TimeUnit.SECONDS));
+                }
+                // 恰好一个进程接手，租约文件里是它的令牌，其他进程都认为租约被别人持有
+                int winners = 0;
+                for (int i = 0; i < workers.size(); i++) {
+                    if (acquired.get(i)) {
+                        winners++;
+                        assertTrue(Files.readString(dir.resolve(name + ".lease")).startsWith("worker-" + i + " "));
+                    } else {
+                        assertTrue(workers.get(i).isHeldByOthers(name), name);
+                    }
+                }
+                assertEquals(1, winners, name);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // 没有遗留的墓碑文件
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(200, files.count());
+        }
+    }
+
+    @Test
+    void testGivingBackLeaseNeverReplacesNewerLease() throws Exception {
+        // 第二个进程的时钟偏快，把第一个进程的有效租约误判为过期并改名；
+        // 它再次检查之前第三个进程发现租约不存在并新建了租约，还回去时不能覆盖它
+        BatchLeases first = open("first");
+        BatchLeases third = open("third");
+        AtomicLong calls = new AtomicLong();
+        BatchLeases second = new BatchLeases(dir, "second", TTL, () -> {
+            if (calls.incrementAndGet() == 1) {
+                return clock.get() + 2 * TTL;
+            }
+            try {
+                assertTrue(third.tryAcquire("001"));
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+            return clock.get();
+        });
+        assertTrue(first.tryAcquire("001"));
+
+        assertFalse(second.tryAcquire("001"));
+        assertTrue(Files.readString(dir.resolve("001.lease")).startsWith("third "));
+
+        // 原持有者在心跳时发现租约已属于第三个进程，之后只有一个持有者
+        first.renewAll();
+        assertTrue(first.isHeldByOthers("001"));
+        assertFalse(third.isHeldByOthers("001"));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void testLeaseTemporarilyRenamedAwayIsKept() throws Exception {
+        BatchLeases first = open("first");
+        assertTrue(first.tryAcquire("001"));
+        Path lease = dir.resolve("001.lease");
+        Path tombstone = dir.resolve("001.lease.checking");
+
+        // 其他进程改名检查期间发生心跳，不能因此放弃租约
+        Files.move(lease, tombstone, StandardCopyOption.ATOMIC_MOVE);
+        first.renewAll();
+        Files.move(tombstone, lease, StandardCopyOption.ATOMIC_MOVE);
+
+        clock.addAndGet(TTL / 2);
+        first.renewAll();
+        clock.addAndGet(TTL / 2 + 1);
+        assertFalse(open("second").tryAcquire("001"));
+        assertFalse(first.isHeldByOthers("001"));
+    }
+}
@@ -0,0 +1,158 @@
+package com.novel.processor;
+
+import com.novel.model.ApiRequest;
+import com.novel.model.ApiResponse;
+import com.novel.model.Batch;
+import com.novel.model.Chapter;
+import com.novel.service.GeminiApiService;
+import com.novel.util.Constants;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 每章只包含若干个汉字，本地估算的token数等于汉字数；单批预算扣除提示词预留后为100个token
+ */
+class BatchPlannerTest {
+    private static final int BUDGET = 100;
+
+    @TempDir
+    Path dir;
+
+    private File novel;
+    private final List<Chapter> chapters = new ArrayList<>();
+
+    private void writeNovel(int... tokensPerChapter) throws Exception {
+        StringBuilder content = new StringBuilder();
+        long offset = 0;
+        for (int i = 0; i < tokensPerChapter.length; i++) {
+            StringBuilder chapter = new StringBuilder();
+            for (int j = 0; j < tokensPerChapter[i]; j++) {
+                chapter.append('字');
+            }
+            long length = chapter.toString().getBytes(StandardCharsets.UTF_8).length;
+            chapters.add(new Chapter(i + 1, "第" + (i + 1) + "章", i + 1, offset, length));
+            offset += length;
+            content.append(chapter);
+        }
+        novel = dir.resolve("novel.txt").toFile();
+        Files.writeString(novel.toPath(), content, StandardCharsets.UTF_8);
+    }
+
+    private List<Batch> plan(int maxChapters, GeminiApiService tokenCounter) throws Exception {
+        return new BatchPlanner(BUDGET + Constants.PROMPT_TOKEN_RESERVE, maxChapters, tokenCounter)
+                .plan(novel, chapters);
+    }
+
+    private static List<Integer> counts(List<Batch> batches) {
+        return batches.stream().map(Batch::getChapterCount).collect(Collectors.toList());
+    }
+
+    private static List<Integer> tokens(List<Batch> batches) {
+        return batches.stream().map(Batch::getEstimatedTokens).collect(Collectors.toList());
+    }
+
+    @Test
+    void testChaptersPackedGreedilyUpToBudget() throws Exception {
+        writeNovel(40, 40, 40, 30, 70);
+        List<Batch> batches = plan(20, null);
+
+        assertEquals(Arrays.asList(2, 2, 1), counts(batches));
+        assertEquals(Arrays.asList(80, 70, 70), tokens(batches));
+
+        // 批次按顺序首尾相接，覆盖整个文件
+        long position = 0;
+        for (int i = 0; i < batches.size(); i++) {
+            Batch batch = batches.get(i);
+            assertEquals(i + 1, batch.getFileIndex());
+            assertEquals(position, batch.getByteOffset());
+            position += batch.getByteLength();
+        }
+        assertEquals(novel.length(), position);
+        assertEquals(3, batches.get(1).getStartChapter());
+        assertEquals(4, batches.get(1).getEndChapter());
+    }
+
+    @Test
+    void testChapterCountCapped() throws Exception {
+        writeNovel(1, 1, 1, 1, 1);
+        assertEquals(Arrays.asList(2, 2, 1), counts(plan(2, null)));
+    }
+
+    @Test
+    void testChapterLargerThanBudgetGetsOwnBatch() throws Exception {
+        writeNovel(30, 250, 30);
+        List<Batch> batches = plan(20, null);
+        assertEquals(Arrays.asList(1, 1, 1), counts(batches));
+        assertEquals(Arrays.asList(30, 250, 30), tokens(batches));
+    }
+
+    @Test
+    void testCalibrationRatioClamped() throws Exception {
+        writeNovel(40, 40, 40, 40, 40, 40, 40, 40, 40, 40);
+
+        // countTokens的结果远大于估算时比例限制为3倍：每章120个token，各自成批
+        assertEquals(Arrays.asList(120, 120, 120, 120, 120, 120, 120, 120, 120, 120),
+                tokens(plan(20, tokenCounter(1_000_000))));
+
+        // 远小于估算时限制为0.3倍：每章12个token，8章一批
+        assertEquals(Arrays.asList(8, 2), counts(plan(20, tokenCounter(1))));
+
+        // 调用失败时使用本地估算
+        assertEquals(Arrays.asList(2, 2, 2, 2, 2), counts(plan(20, tokenCounter(-1))));
+    }
+
+    @Test
+    void testCalibrationSampleEndsOnCharacterBoundary() throws Exception {
+        // 64KB不是3的倍数，样本的原始截断位置落在汉字中间
+        writeNovel(30_000, 40);
+        List<String> samples = new ArrayList<>();
+        plan(20, tokenCounter(1, samples));
+
+        assertEquals(1, samples.size());
+        String sample = samples.get(0);
+        assertEquals(64 * 1024 / 3, sample.length());
+        assertFalse(sample.contains("\uFFFD"));
+    }
+
+    private static GeminiApiService tokenCounter(int tokens) {
+        return tokenCounter(tokens, new ArrayList<>());
+    }
+
+    /**
+     * countTokens返回固定值的服务，为负数时抛出异常；收到的样本记录在samples中
+     */
+    private static GeminiApiService tokenCounter(int tokens, List<String> samples) {
+        return new GeminiApiService() {
+            @Override
+            public ApiResponse callApi(ApiRequest request) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public CompletableFuture<ApiResponse> callApiAsync(ApiRequest request) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int countTokens(String text) throws Exception {
+                samples.add(text);
+                if (tokens < 0) {
+                    throw new Exception("countTokens失败");
+                }
+                return tokens;
+            }
+        };
+    }
+}
@@ -0,0 +1,146 @@
+package com.novel.processor;
+
+import com.novel.model.Chapter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChapterIndexTest {
+    @TempDir
+    Path tempDir;
+
+    /**
+     * 记录扫描次数的顺序扫描器，用来判断索引是否被重建
+     */
+    private static class CountingScanner extends ChapterScanner {
+        int scans;
+
+        @Override
+        public List<Chapter> scan(File novelFile) throws IOException {
+            scans++;
+            return super.scan(novelFile);
+        }
+    }
+
+    private File writeNovel(String firstTitle) throws IOException {
+        Path path = tempDir.resolve("novel.txt");
+        Files.writeString(path, firstTitle + "\n正文一\n第2章 标题二\n正文二\n", StandardCharsets.UTF_8);
+        return path.toFile();
+    }
+
+    @Test
+    void testUnchangedNovelReusesIndex() throws Exception {
+        File novel = writeNovel("第1章 标题一");
+        CountingScanner scanner = new CountingScanner();
+
+        ChapterIndex built = ChapterIndex.loadOrBuild(novel, scanner);
+        assertTrue(Files.exists(ChapterIndex.indexPathFor(novel)));
+        ChapterIndex loaded = ChapterIndex.loadOrBuild(novel, scanner);
+
+        assertEquals(1, scanner.scans);
+        assertEquals(2, loaded.getChapters().size());
+        for (int i = 0; i < built.getChapters().size(); i++) {
+            Chapter expected = built.getChapters().get(i);
+            Chapter actual = loaded.getChapters().get(i);
+            assertEquals(expected.getNumber(), actual.getNumber());
+            assertEquals(expected.getTitle(), actual.getTitle());
+            assertEquals(expected.getLineNumber(), actual.getLineNumber());
+            assertEquals(expected.getByteOffset(), actual.getByteOffset());
+            assertEquals(expected.getByteLength(), actual.getByteLength());
+        }
+    }
+
+    @Test
+    void testTouchedNovelIsCheckedByContentHash() throws Exception {
+        File novel = writeNovel("第1章 标题一");
+        CountingScanner scanner = new CountingScanner();
+        ChapterIndex.loadOrBuild(novel, scanner);
+
+        // 只有修改时间变化：内容哈希相同，沿用索引并记下新的修改时间
+        assertTrue(novel.setLastModified(novel.lastModified() + 10_000));
+        assertEquals(2, ChapterIndex.loadOrBuild(novel, scanner).getChapters().size());
+        assertEquals(1, scanner.scans);
+        ChapterIndex.loadOrBuild(novel, scanner);
+        assertEquals(1, scanner.scans);
+    }
+
+    @Test
+    void testChangedContentRebuildsIndex() throws Exception {
+        File novel = writeNovel("第1章 标题一");
+        CountingScanner scanner = new CountingScanner();
+        ChapterIndex.loadOrBuild(novel, scanner);
+        long mtime = novel.lastModified();
+
+        // 大小不变、内容变化：修改时间不同时由内容哈希发现
+        writeNovel("第3章 标题一");
+        assertEquals(novel.length(), Files.size(novel.toPath()));
+        assertTrue(novel.setLastModified(mtime + 10_000));
+        ChapterIndex rebuilt = ChapterIndex.loadOrBuild(novel, scanner);
+        assertEquals(2, scanner.scans);
+        assertEquals(3, rebuilt.getChapters().get(0).getNumber());
+
+        // 大小变化时直接重建
+        Files.writeString(novel.toPath(), "第1章 标题一\n第2章 标题二\n第3章 标题三\n", StandardCharsets.UTF_8);
+        assertEquals(3, ChapterIndex.loadOrBuild(novel, scanner).getChapters().size());
+        assertEquals(3, scanner.scans);
+    }
+
+    @Test
+    void testCorruptIndexIsRebuilt() throws Exception {
+        File novel = writeNovel("第1章 标题一");
+        Path indexPath = ChapterIndex.indexPathFor(novel);
+        CountingScanner scanner = new CountingScanner();
+        ChapterIndex.loadOrBuild(novel, scanner);
+
+        // 写了一半的索引
+        byte[] complete = Files.readAllBytes(indexPath);
+        Files.write(indexPath, Arrays.copyOf(complete, complete.length - 5));
+        assertEquals(2, ChapterIndex.loadOrBuild(novel, scanner).getChapters().size());
+        assertEquals(2, scanner.scans);
+
+        // 不是索引文件
+        Files.writeString(indexPath, "不是索引", StandardCharsets.UTF_8);
+        assertEquals(2, ChapterIndex.loadOrBuild(novel, scanner).getChapters().size());
+        assertEquals(3, scanner.scans);
+
+        // 旧版本的索引：文件属性都匹配，但版本号不同，必须重新扫描
+        writeHeader(indexPath, novel, 1, 0);
+        assertEquals(2, ChapterIndex.loadOrBuild(novel, scanner).getChapters().size());
+        assertEquals(4, scanner.scans);
+        // 重建后的索引可以直接使用
+        ChapterIndex.loadOrBuild(novel, scanner);
+        assertEquals(4, scanner.scans);
+
+        // 章节数为负数或远超文件长度：不按它分配列表，直接重建
+        writeHeader(indexPath, novel, 3, -1);
+        assertEquals(2, ChapterIndex.loadOrBuild(novel, scanner).getChapters().size());
+        assertEquals(5, scanner.scans);
+        writeHeader(indexPath, novel, 3, Integer.MAX_VALUE);
+        assertEquals(2, ChapterIndex.loadOrBuild(novel, scanner).getChapters().size());
+        assertEquals(6, scanner.scans);
+    }
+
+    /**
+     * 写出只有文件头的索引，文件属性与小说一致
+     */
+    private static void writeHeader(Path indexPath, File novel, int version, int count) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(indexPath))) {
+            out.writeInt(0x4E434958);
+            out.writeInt(version);
+            out.writeLong(novel.length());
+            out.writeLong(novel.lastModified());
+            out.writeLong(ChapterIndex.contentHash(novel));
+            out.writeInt(count);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.novel.processor;
+
+import com.novel.model.Chapter;
+import com.novel.util.Constants;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChapterProcessorTest {
+    @TempDir
+    Path tempDir;
+
+    private File writeNovel(String name, int chapterCount) throws Exception {
+        Path path = tempDir.resolve(name);
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (int i = 1; i <= chapterCount; i++) {
+                writer.write("第" + i + "章 标题" + i + "\n");
+                writer.write("　　秦牧在残老村长大，村里的老人们各有绝技。\n\n");
+                for (int j = 0; j < i % 4; j++) {
+                    writer.write("　　大墟之中黑暗降临，没有人敢在夜里走出村子。\n");
+                }
+            }
+        }
+        return path.toFile();
+    }
+
+    /**
+     * 原来的分割方式：逐行读取整个文件，每10章从章节标题行开始取到下一组的标题行之前，按行重新写出
+     */
+    private static List<byte[]> legacySplit(File novel, List<Chapter> chapters) throws Exception {
+        List<String> lines = Files.readAllLines(novel.toPath(), StandardCharsets.UTF_8);
+        List<byte[]> files = new ArrayList<>();
+        for (int i = 0; i < chapters.size(); i += 10) {
+            int end = Math.min(i + 10, chapters.size());
+            int startLine = chapters.get(i).getLineNumber() - 1;
+            int endLine = end < chapters.size() ? chapters.get(end).getLineNumber() - 1 : lines.size();
+            StringBuilder content = new StringBuilder();
+            for (String line : lines.subList(startLine, endLine)) {
+                content.append(line).append('\n');
+            }
+            files.add(content.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return files;
+    }
+
+    private static List<Path> splitFiles(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> !path.getFileName().toString().equals(Constants.BATCH_PLAN_FILE_NAME))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void testSplitIsByteIdenticalToLegacySplitter() throws Exception {
+        File novel = writeNovel("novel.txt", 25);
+        Path target = tempDir.resolve("split_chapters");
+        // 预算足够大，只按每批10章分组，与原来的分割方式一致
+        ChapterProcessor processor = new ChapterProcessor(new BatchPlanner(Integer.MAX_VALUE / 2, 10, null));
+
+        assertTrue(processor.validateAndSplitChapters(novel, target));
+
+        List<byte[]> expected = legacySplit(novel, processor.getChapters());
+        List<Path> actual = splitFiles(target);
+        assertEquals(3, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), Files.readAllBytes(actual.get(i)), actual.get(i).toString());
+        }
+        // 原来的最后一个文件名写作第21-30章，现在按实际包含的章节号命名
+        assertEquals("003第21-25章.txt", actual.get(2).getFileName().toString());
+    }
+
+    @Test
+    void testResplitReplacesDirectoryAndFailureKeepsIt() throws Exception {
+        Path target = tempDir.resolve("split_chapters");
+        assertTrue(new ChapterProcessor().validateAndSplitChapters(writeNovel("first.txt", 3), target));
+        Files.writeString(target.resolve("stale.txt"), "上次运行留下的文件");
+
+        // 重新分割整体替换目录，不留下备份和临时目录
+        assertTrue(new ChapterProcessor().validateAndSplitChapters(writeNovel("second.txt", 5), target));
+        assertFalse(Files.exists(target.resolve("stale.txt")));
+        assertTrue(Files.exists(target.resolve(Constants.BATCH_PLAN_FILE_NAME)));
+        try (Stream<Path> siblings = Files.list(tempDir)) {
+            assertEquals(1, siblings.filter(path -> path.getFileName().toString().startsWith("split_chapters"))
+                    .count());
+        }
+
+        // 验证失败（缺少第2章）时保留原来的分割结果
+        Path broken = tempDir.resolve("broken.txt");
+        Files.writeString(broken, "第1章 一\n正文\n第3章 三\n正文\n", StandardCharsets.UTF_8);
+        List<Path> before = splitFiles(target);
+        assertFalse(new ChapterProcessor().validateAndSplitChapters(broken.toFile(), target));
+        assertEquals(before, splitFiles(target));
+    }
+
+    @Test
+    void testInterruptedReplaceIsRecovered() throws Exception {
+        Path target = tempDir.resolve("split_chapters");
+        Path backup = tempDir.resolve("split_chapters.old");
+
+        // 两次移动之间崩溃：只剩备份，恢复为目标目录
+        Files.createDirectories(backup);
+        Files.writeString(backup.resolve("001第1-10章.txt"), "旧的分割结果");
+        ChapterProcessor.recoverInterruptedReplace(target);
+        assertFalse(Files.exists(backup));
+        assertEquals("旧的分割结果", Files.readString(target.resolve("001第1-10章.txt")));
+
+        // 新目录已经就位、备份还没删除：删除备份，保留新目录
+        Files.createDirectories(backup);
+        Files.writeString(backup.resolve("001第1-10章.txt"), "更旧的分割结果");
+        ChapterProcessor.recoverInterruptedReplace(target);
+        assertFalse(Files.exists(backup));
+        assertEquals("旧的分割结果", Files.readString(target.resolve("001第1-10章.txt")));
+
+        // 替换前同样先处理遗留的备份
+        Files.createDirectories(backup);
+        Path temp = Files.createDirectory(tempDir.resolve("split_chapters.tmp-1"));
+        Files.writeString(temp.resolve("001第1-10章.txt"), "新的分割结果");
+        ChapterProcessor.replaceDirectory(temp, target);
+        assertFalse(Files.exists(backup));
+        assertFalse(Files.exists(temp));
+        assertEquals("新的分割结果", Files.readString(target.resolve("001第1-10章.txt")));
+    }
+}
@@ -0,0 +1,78 @@
+package com.novel.processor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderedResultWriterTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void testOutOfOrderResultsAreWrittenInOrder() throws Exception {
+        Path report = dir.resolve("final_analysis.txt");
+        try (OrderedResultWriter writer = new OrderedResultWriter(report, "报告\n\n")) {
+            writer.complete(2, "第三批");
+            writer.complete(1, null);  // 第二批失败
+            assertEquals("报告\n\n", Files.readString(report));
+
+            // 第一批完成后，前三批一起写出
+            writer.complete(0, "第一批");
+            assertEquals("报告\n\n第一批\n\n第三批\n\n", Files.readString(report));
+        }
+    }
+
+    @Test
+    void testDeferredResultIsReadWhenItsTurnComes() throws Exception {
+        Path report = dir.resolve("final_analysis.txt");
+        try (OrderedResultWriter writer = new OrderedResultWriter(report, "")) {
+            // 已保存在磁盘上的结果轮到时才读取
+            boolean[] loaded = new boolean[1];
+            writer.completeLater(1, () -> {
+                loaded[0] = true;
+                return "第二批";
+            });
+            assertFalse(loaded[0]);
+            writer.complete(0, "第一批");
+            assertTrue(loaded[0]);
+            assertEquals(2, writer.getWritten());
+        }
+        assertEquals("第一批\n\n第二批\n\n", Files.readString(report));
+    }
+
+    @Test
+    void testDuplicateResultIsRejected() throws Exception {
+        try (OrderedResultWriter writer = new OrderedResultWriter(dir.resolve("final_analysis.txt"), "")) {
+            writer.complete(0, "第一批");
+            assertThrows(IllegalStateException.class, () -> writer.complete(0, "第一批"));
+        }
+    }
+
+    @Test
+    void testFailedLoaderLeavesPlaceholderAndLaterBatchesAreWritten() throws Exception {
+        Path report = dir.resolve("final_analysis.txt");
+        try (OrderedResultWriter writer = new OrderedResultWriter(report, "")) {
+            writer.completeLater(1, () -> {
+                throw new NoSuchFileException("002第11-20章_分析.json");
+            });
+            writer.complete(2, "第三批");
+
+            // 第二批的结果文件读取失败：错误交给调用方，但报告在该位置写入占位说明并继续写出第三批
+            IOException error = assertThrows(IOException.class, () -> writer.complete(0, "第一批"));
+            assertTrue(error instanceof NoSuchFileException);
+            assertEquals(2, writer.getWritten());
+
+            // 之后的批次照常写出
+            writer.complete(3, "第四批");
+        }
+        String content = Files.readString(report);
+        assertTrue(content.startsWith("第一批\n\n【第2个批次的结果读取失败"), content);
+        assertTrue(content.endsWith("】\n\n第三批\n\n第四批\n\n"), content);
+    }
+}
@@ -0,0 +1,135 @@
+package com.novel.processor;
+
+import com.novel.model.Chapter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelChapterScannerTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSameResultAsSequentialScan() throws Exception {
+        // 准备测试数据：带BOM、全角缩进、“正文”前缀、CRLF换行和正文中提到章节号的行
+        File novel = tempDir.resolve("novel.txt").toFile();
+        try (BufferedWriter writer = Files.newBufferedWriter(novel.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("\uFEFF前言 第3章 不是标题\n");
+            for (int i = 1; i <= 300; i++) {
+                String indent = i % 3 == 0 ? "　　" : "";
+                String prefix = i % 5 == 0 ? "正文 " : "";
+                writer.write(indent + prefix + "第" + i + "章 标题" + i + "\r\n");
+                writer.write("他想起了第" + (i + 1) + "章里的事情。\n\n");
+            }
+        }
+
+        // 执行测试：使用很小的切分阈值，使文件被切成大量区间
+        List<Chapter> expected = new ChapterScanner().scan(novel);
+        List<Chapter> actual = new ParallelChapterScanner(new ForkJoinPool(4), 64).scan(novel);
+
+        // 验证结果
+        assertEquals(300, expected.size());
+        assertChaptersEqual(expected, actual);
+        assertEquals("正文 第5章 标题5", actual.get(4).getTitle());
+        assertEquals(novel.length(), actual.get(299).getByteOffset() + actual.get(299).getByteLength());
+    }
+
+    @Test
+    void testChineseNumeralTitles() throws Exception {
+        File novel = tempDir.resolve("chinese.txt").toFile();
+        try (BufferedWriter writer = Files.newBufferedWriter(novel.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 1; i <= 1828; i++) {
+                String number = i % 2 == 0 ? chineseNumeral(i) : String.valueOf(i);
+                writer.write("第" + number + "章 标题" + i + "\n");
+                writer.write("他想起了第" + chineseNumeral(i + 1) + "章里的事情。\n\n");
+            }
+        }
+
+        List<Chapter> expected = new ChapterScanner().scan(novel);
+        List<Chapter> actual = new ParallelChapterScanner(new ForkJoinPool(4), 4096).scan(novel);
+
+        assertEquals(1828, expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(i + 1, expected.get(i).getNumber());
+        }
+        assertEquals("第一百二十四章 标题124", expected.get(123).getTitle());
+        assertChaptersEqual(expected, actual);
+    }
+
+    /**
+     * 标准写法的中文数字，如1020写作一千零二十，10到19省略“一”
+     */
+    private static String chineseNumeral(int n) {
+        String digits = "零一二三四五六七八九";
+        String[] units = {"千", "百", "十", ""};
+        int[] divisors = {1000, 100, 10, 1};
+        StringBuilder result = new StringBuilder();
+        boolean pendingZero = false;
+        for (int i = 0; i < divisors.length; i++) {
+            int digit = n / divisors[i] % 10;
+            if (digit == 0) {
+                pendingZero = result.length() > 0;
+                continue;
+            }
+            if (pendingZero) {
+                result.append('零');
+                pendingZero = false;
+            }
+            if (!(digit == 1 && divisors[i] == 10 && result.length() == 0)) {
+                result.append(digits.charAt(digit));
+            }
+            result.append(units[i]);
+        }
+        return result.toString();
+    }
+
+    /**
+     * 不同并行度和切分阈值下结果都与顺序扫描一致，吞吐量见jmh中的ParallelScanBenchmark
+     */
+    @Test
+    void testSameResultForEveryParallelism() throws Exception {
+        File novel = tempDir.resolve("small.txt").toFile();
+        String paragraph = "他抬头看向远处的群山，心中思绪万千。\n";
+        try (BufferedWriter writer = Files.newBufferedWriter(novel.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 1; i <= 200; i++) {
+                writer.write("第" + i + "章 标题" + i + "\n");
+                writer.write(paragraph.repeat(1 + i % 7));
+            }
+        }
+
+        List<Chapter> expected = new ChapterScanner().scan(novel);
+        assertEquals(200, expected.size());
+        for (int parallelism = 1; parallelism <= 4; parallelism++) {
+            for (int threshold : new int[]{16, 1000, 1 << 20}) {
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    assertChaptersEqual(expected, new ParallelChapterScanner(pool, threshold).scan(novel));
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    private static void assertChaptersEqual(List<Chapter> expected, List<Chapter> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Chapter e = expected.get(i);
+            Chapter a = actual.get(i);
+            assertEquals(e.getNumber(), a.getNumber());
+            assertEquals(e.getTitle(), a.getTitle());
+            assertEquals(e.getLineNumber(), a.getLineNumber());
+            assertEquals(e.getByteOffset(), a.getByteOffset());
+            assertEquals(e.getByteLength(), a.getByteLength());
+        }
+    }
+}
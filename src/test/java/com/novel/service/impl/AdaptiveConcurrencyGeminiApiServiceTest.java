@@ -0,0 +1,85 @@
+package com.novel.service.impl;
+
+import com.novel.metrics.PipelineMetrics;
+import com.novel.model.ApiRequest;
+import com.novel.model.ApiResponse;
+import com.novel.service.DailyQuotaExceededException;
+import com.novel.service.GeminiApiService;
+import com.novel.util.AdaptiveConcurrencyLimiter;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyGeminiApiServiceTest {
+    private final AtomicLong clock = new AtomicLong();
+    private final List<CompletableFuture<ApiResponse>> calls = new ArrayList<>();
+
+    /**
+     * 不返回的假服务，记录每次调用
+     */
+    private final GeminiApiService pendingService = new GeminiApiService() {
+        @Override
+        public ApiResponse callApi(ApiRequest request) {
+            return callApiAsync(request).join();
+        }
+
+        @Override
+        public CompletableFuture<ApiResponse> callApiAsync(ApiRequest request) {
+            CompletableFuture<ApiResponse> call = new CompletableFuture<>();
+            calls.add(call);
+            return call;
+        }
+
+        @Override
+        public int countTokens(String text) {
+            return 0;
+        }
+    };
+
+    @Test
+    void testQuotaIsReservedOnlyAfterPermit() {
+        AtomicInteger reservations = new AtomicInteger();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 1, 4, clock::get);
+        AdaptiveConcurrencyGeminiApiService service = new AdaptiveConcurrencyGeminiApiService(pendingService,
+                limiter, new PipelineMetrics(clock::get), request -> {
+                    reservations.incrementAndGet();
+                    return CompletableFuture.completedFuture(null);
+                });
+
+        CompletableFuture<ApiResponse> first = service.callApiAsync(new ApiRequest("第一批", 0, 0));
+        CompletableFuture<ApiResponse> second = service.callApiAsync(new ApiRequest("第二批", 0, 0));
+
+        // 第二个请求在等并发名额，不能提前预约配额
+        assertEquals(1, reservations.get());
+        assertEquals(1, calls.size());
+        assertEquals(1, limiter.getQueued());
+
+        calls.get(0).complete(ApiResponse.success(200, "ok"));
+        assertEquals("ok", first.join().getContent());
+        assertEquals(2, reservations.get());
+        assertEquals(2, calls.size());
+        assertFalse(second.isDone());
+    }
+
+    @Test
+    void testAdmissionFailureReleasesPermit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 1, 1, 4, clock::get);
+        AdaptiveConcurrencyGeminiApiService service = new AdaptiveConcurrencyGeminiApiService(pendingService,
+                limiter, new PipelineMetrics(clock::get), request -> CompletableFuture.failedFuture(
+                        new DailyQuotaExceededException("今天的请求已经用完")));
+
+        CompletableFuture<ApiResponse> result = service.callApiAsync(new ApiRequest("批次", 0, 0));
+
+        ExecutionException error = assertThrows(ExecutionException.class, result::get);
+        assertTrue(error.getCause() instanceof DailyQuotaExceededException);
+        assertTrue(calls.isEmpty());
+        assertEquals(0, limiter.getInFlight());
+    }
+}
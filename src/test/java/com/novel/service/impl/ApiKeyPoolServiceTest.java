@@ -0,0 +1,256 @@
+package com.novel.service.impl;
+
+import com.novel.model.ApiKey;
+import com.novel.model.ApiRequest;
+import com.novel.model.ApiResponse;
+import com.novel.service.GeminiApiService;
+import com.novel.service.NoApiKeyAvailableException;
+import com.novel.util.RetryPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApiKeyPoolServiceTest {
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final Map<String, AtomicInteger> calls = new HashMap<>();
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 为每个密钥创建固定返回某个状态码的假服务
+     */
+    private ApiKeyPoolService pool(Map<String, Integer> statusByKey, int requestsPerMinute) {
+        List<ApiKey> keys = new ArrayList<>();
+        for (String name : statusByKey.keySet()) {
+            keys.add(new ApiKey(name, "secret-" + name, requestsPerMinute, 10_000_000));
+            calls.put(name, new AtomicInteger());
+        }
+        return new ApiKeyPoolService(keys, key -> new GeminiApiService() {
+            @Override
+            public ApiResponse callApi(ApiRequest request) {
+                return callApiAsync(request).join();
+            }
+
+            @Override
+            public CompletableFuture<ApiResponse> callApiAsync(ApiRequest request) {
+                calls.get(key.getName()).incrementAndGet();
+                int status = statusByKey.get(key.getName());
+                return CompletableFuture.completedFuture(status == 200
+                        ? ApiResponse.success(200, key.getName())
+                        : ApiResponse.error(status, "error"));
+            }
+
+            @Override
+            public int countTokens(String text) {
+                return 0;
+            }
+        }, scheduler, new RetryPolicy(10, () -> 0));
+    }
+
+    private static List<ApiResponse> callAll(ApiKeyPoolService pool, int count) throws Exception {
+        List<CompletableFuture<ApiResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            futures.add(pool.callApiAsync(new ApiRequest("prompt " + i, 3, 10)));
+        }
+        List<ApiResponse> responses = new ArrayList<>();
+        for (CompletableFuture<ApiResponse> future : futures) {
+            responses.add(future.get(10, TimeUnit.SECONDS));
+        }
+        return responses;
+    }
+
+    @Test
+    void testRequestsAreSpreadAcrossKeys() throws Exception {
+        Map<String, Integer> status = new HashMap<>();
+        status.put("a", 200);
+        status.put("b", 200);
+        ApiKeyPoolService pool = pool(status, 600);
+
+        callAll(pool, 10);
+
+        assertEquals(5, calls.get("a").get());
+        assertEquals(5, calls.get("b").get());
+    }
+
+    @Test
+    void testThroughputScalesWithKeyCount() throws Exception {
+        // 每个密钥每分钟600次即每100ms一个，10个请求单密钥约900ms，两个密钥约400ms
+        Map<String, Integer> status = new HashMap<>();
+        status.put("a", 200);
+        status.put("b", 200);
+        ApiKeyPoolService pool = pool(status, 600);
+
+        long start = System.nanoTime();
+        callAll(pool, 10);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis >= 350 && elapsedMillis < 800, "两个密钥处理10个请求耗时" + elapsedMillis + "ms");
+    }
+
+    @Test
+    void testFailoverOnRateLimitedKey() throws Exception {
+        Map<String, Integer> status = new HashMap<>();
+        status.put("limited", 429);
+        status.put("ok", 200);
+        ApiKeyPoolService pool = pool(status, 60_000);
+
+        List<ApiResponse> responses = callAll(pool, 5);
+
+        // 被限流的密钥进入冷却，之后的请求都转到另一个密钥
+        for (ApiResponse response : responses) {
+            assertTrue(response.isSuccess());
+            assertEquals("ok", response.getContent());
+        }
+        assertEquals(1, calls.get("limited").get());
+        assertTrue(pool.getUtilisationReport().contains("limited: 请求1次，成功0次，429 1次"));
+    }
+
+    @Test
+    void testInvalidKeyIsDisabled() throws Exception {
+        Map<String, Integer> status = new HashMap<>();
+        status.put("revoked", 403);
+        status.put("ok", 200);
+        ApiKeyPoolService pool = pool(status, 60_000);
+
+        List<ApiResponse> responses = callAll(pool, 4);
+        assertTrue(responses.stream().allMatch(ApiResponse::isSuccess));
+        assertEquals(1, calls.get("revoked").get());
+        assertTrue(pool.getUtilisationReport().contains("已停用"));
+
+        // 所有密钥都停用后以专门的异常失败，而不是伪造一个HTTP状态码
+        Map<String, Integer> allRevoked = new HashMap<>();
+        allRevoked.put("x", 401);
+        ApiKeyPoolService revokedPool = pool(allRevoked, 60_000);
+        assertThrows(NoApiKeyAvailableException.class, () -> revokedPool.callApi(new ApiRequest("prompt", 3, 10)));
+        assertEquals(1, calls.get("x").get());
+    }
+
+    @Test
+    void testReadyInNanosReflectsKeyQuota() throws Exception {
+        // 每分钟60次即每秒一个：空闲时可以立即发出，发出一个请求后要等约1秒
+        Map<String, Integer> status = new HashMap<>();
+        status.put("a", 200);
+        ApiKeyPoolService pool = pool(status, 60);
+        assertEquals(0, pool.readyInNanos());
+
+        pool.callApi(new ApiRequest("prompt", 3, 10));
+        long readyIn = pool.readyInNanos();
+        assertTrue(readyIn > TimeUnit.MILLISECONDS.toNanos(500) && readyIn <= TimeUnit.SECONDS.toNanos(1),
+                "还需等待" + readyIn + "ns");
+    }
+
+    /**
+     * 只有一个密钥的密钥池，假服务依次返回给定的响应
+     */
+    private ApiKeyPoolService scripted(ApiResponse... responses) {
+        Queue<ApiResponse> script = new ArrayDeque<>(Arrays.asList(responses));
+        List<ApiKey> keys = new ArrayList<>();
+        keys.add(new ApiKey("a", "secret-a", 60_000, 10_000_000));
+        return new ApiKeyPoolService(keys, key -> new GeminiApiService() {
+            @Override
+            public ApiResponse callApi(ApiRequest request) {
+                return callApiAsync(request).join();
+            }
+
+            @Override
+            public synchronized CompletableFuture<ApiResponse> callApiAsync(ApiRequest request) {
+                return CompletableFuture.completedFuture(script.poll());
+            }
+
+            @Override
+            public int countTokens(String text) {
+                return 0;
+            }
+        }, scheduler, new RetryPolicy(10, () -> 0));
+    }
+
+    @Test
+    void testRateLimitCooldownFollowsServerHint() throws Exception {
+        // 服务端要求等待200ms，密钥只冷却这么久，而不是默认的冷却时间
+        ApiKeyPoolService pool = scripted(ApiResponse.error(429, "限流", 200), ApiResponse.success(200, "ok"));
+
+        long start = System.nanoTime();
+        assertEquals("ok", pool.callApiAsync(new ApiRequest("prompt", 3, 10)).get(10, TimeUnit.SECONDS).getContent());
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis >= 200 && elapsedMillis < 5000, "冷却" + elapsedMillis + "ms");
+    }
+
+    @Test
+    void testRetryBackoffHonoursServerHint() throws Exception {
+        // 退避本身为0（随机数固定为0），服务端建议的300ms必须等够
+        ApiKeyPoolService pool = scripted(ApiResponse.error(503, "过载", 300), ApiResponse.success(200, "ok"));
+
+        long start = System.nanoTime();
+        assertEquals("ok", pool.callApiAsync(new ApiRequest("prompt", 3, 10)).get(10, TimeUnit.SECONDS).getContent());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 300);
+    }
+
+    @Test
+    void testDuplicateRequestUsesOtherKeyAndStopsWhenCancelled() throws Exception {
+        // 假服务不返回，记录每个密钥收到的调用
+        Map<String, CompletableFuture<ApiResponse>> pending = new HashMap<>();
+        List<ApiKey> keys = new ArrayList<>();
+        keys.add(new ApiKey("a", "secret-a", 60_000, 10_000_000));
+        keys.add(new ApiKey("b", "secret-b", 60_000, 10_000_000));
+        ApiKeyPoolService pool = new ApiKeyPoolService(keys, key -> new GeminiApiService() {
+            @Override
+            public ApiResponse callApi(ApiRequest request) {
+                return callApiAsync(request).join();
+            }
+
+            @Override
+            public CompletableFuture<ApiResponse> callApiAsync(ApiRequest request) {
+                CompletableFuture<ApiResponse> call = new CompletableFuture<>();
+                synchronized (pending) {
+                    pending.put(key.getName(), call);
+                }
+                return call;
+            }
+
+            @Override
+            public int countTokens(String text) {
+                return 0;
+            }
+        }, scheduler, new RetryPolicy(10, () -> 0));
+
+        // 同一个请求体的两份调用（对冲请求）分配到不同的密钥，即使第一个密钥仍然最早可用
+        ApiRequest request = new ApiRequest("prompt", 3, 10);
+        CompletableFuture<ApiResponse> primary = pool.callApiAsync(request);
+        CompletableFuture<ApiResponse> hedge = pool.callApiAsync(request);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            synchronized (pending) {
+                if (pending.size() == 2) {
+                    break;
+                }
+            }
+            Thread.sleep(1);
+        }
+        assertEquals(2, pending.size());
+
+        // 取消后密钥上的调用也被取消，之后失败的结果不再触发重试
+        hedge.cancel(true);
+        CompletableFuture<ApiResponse> cancelledCall = pending.get("a").isCancelled() ? pending.get("a") : pending.get("b");
+        assertTrue(cancelledCall.isCancelled());
+        CompletableFuture<ApiResponse> liveCall = cancelledCall == pending.get("a") ? pending.get("b") : pending.get("a");
+        liveCall.complete(ApiResponse.success(200, "ok"));
+        assertEquals("ok", primary.get(5, TimeUnit.SECONDS).getContent());
+    }
+}
@@ -0,0 +1,180 @@
+package com.novel.service.impl;
+
+import com.novel.model.ApiRequest;
+import com.novel.model.ApiResponse;
+import com.novel.service.GeminiApiService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingGeminiApiServiceTest {
+    @TempDir
+    Path cacheDir;
+    @TempDir
+    Path outputDir;
+
+    /**
+     * 记录调用次数的假API服务，响应由测试手动完成
+     */
+    private static class CountingApiService implements GeminiApiService {
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger countTokensCalls = new AtomicInteger();
+        CompletableFuture<ApiResponse> pending = new CompletableFuture<>();
+        boolean autoComplete = true;
+
+        @Override
+        public ApiResponse callApi(ApiRequest request) {
+            return callApiAsync(request).join();
+        }
+
+        @Override
+        public CompletableFuture<ApiResponse> callApiAsync(ApiRequest request) {
+            calls.incrementAndGet();
+            if (autoComplete) {
+                return CompletableFuture.completedFuture(
+                        ApiResponse.success(200, "分析:" + request.getPrompt(), "STOP", 120, 30, 150));
+            }
+            return pending;
+        }
+
+        @Override
+        public int countTokens(String text) {
+            countTokensCalls.incrementAndGet();
+            return text.length();
+        }
+    }
+
+    @Test
+    void testRerunIsServedFromDisk() throws Exception {
+        CountingApiService api = new CountingApiService();
+        ApiRequest request = new ApiRequest("第1章到第10章", 0, 0);
+
+        // 第一次运行：调用API并写入缓存
+        CachingGeminiApiService first = new CachingGeminiApiService(api, cacheDir, 1024 * 1024, "model-a");
+        assertFalse(first.isCached(request));
+        assertEquals("分析:第1章到第10章", first.callApi(request).getContent());
+
+        // 重新运行：新实例从磁盘加载，不再调用API
+        CachingGeminiApiService second = new CachingGeminiApiService(api, cacheDir, 1024 * 1024, "model-a");
+        assertTrue(second.isCached(request));
+        ApiResponse response = second.callApiAsync(request).get();
+        assertTrue(response.isSuccess());
+        assertTrue(response.isCached());
+        assertEquals("分析:第1章到第10章", response.getContent());
+        assertEquals(1, api.calls.get());
+
+        // 重放的响应保留结束原因和token用量
+        assertEquals("STOP", response.getFinishReason());
+        assertEquals(120, response.getPromptTokens());
+        assertEquals(30, response.getCandidatesTokens());
+        assertEquals(150, response.getTotalTokens());
+
+        // 生成配置变化后缓存不命中
+        CachingGeminiApiService otherModel = new CachingGeminiApiService(api, cacheDir, 1024 * 1024, "model-b");
+        assertFalse(otherModel.isCached(request));
+    }
+
+    @Test
+    void testCountTokensIsCached() throws Exception {
+        CountingApiService api = new CountingApiService();
+        CachingGeminiApiService first = new CachingGeminiApiService(api, cacheDir, 1024 * 1024, "model-a");
+        assertEquals(4, first.countTokens("校准样本"));
+
+        CachingGeminiApiService second = new CachingGeminiApiService(api, cacheDir, 1024 * 1024, "model-a");
+        assertEquals(4, second.countTokens("校准样本"));
+        assertEquals(1, api.countTokensCalls.get());
+
+        // 不同文本或不同模型时重新调用
+        assertEquals(2, second.countTokens("其他"));
+        new CachingGeminiApiService(api, cacheDir, 1024 * 1024, "model-b").countTokens("校准样本");
+        assertEquals(3, api.countTokensCalls.get());
+    }
+
+    @Test
+    void testStreamedResponseIsCachedFromOutputFile() throws Exception {
+        // 流式响应的文本只在输出文件中，缓存条目从文件读取
+        CountingApiService api = new CountingApiService();
+        api.autoComplete = false;
+        Path output = outputDir.resolve("batch_001_stream.txt");
+        Files.writeString(output, "流式分析");
+        api.pending.complete(ApiResponse.success(200, null, "STOP", 10, 4, 14));
+        ApiRequest request = new ApiRequest("提示词", 0, 0, output);
+        new CachingGeminiApiService(api, cacheDir, 1024 * 1024, "model-a").callApi(request);
+
+        // 重新运行时从缓存把文本写回输出文件
+        Files.delete(output);
+        ApiResponse replayed = new CachingGeminiApiService(api, cacheDir, 1024 * 1024, "model-a").callApi(request);
+        assertTrue(replayed.isCached());
+        assertEquals("流式分析", Files.readString(output));
+        assertEquals(1, api.calls.get());
+    }
+
+    @Test
+    void testIdenticalInFlightRequestsAreCoalesced() throws Exception {
+        CountingApiService api = new CountingApiService();
+        api.autoComplete = false;
+        CachingGeminiApiService cache = new CachingGeminiApiService(api, cacheDir, 1024 * 1024, "model-a");
+
+        CompletableFuture<ApiResponse> a = cache.callApiAsync(new ApiRequest("相同的提示词", 0, 0));
+        CompletableFuture<ApiResponse> b = cache.callApiAsync(new ApiRequest("相同的提示词", 0, 0));
+        api.pending.complete(ApiResponse.success(200, "结果"));
+
+        assertEquals("结果", a.get().getContent());
+        assertEquals("结果", b.get().getContent());
+        assertEquals(1, api.calls.get());
+    }
+
+    @Test
+    void testFailedResponsesAreNotCached() throws Exception {
+        CountingApiService api = new CountingApiService();
+        api.autoComplete = false;
+        api.pending.complete(ApiResponse.error(503, "服务不可用"));
+        CachingGeminiApiService cache = new CachingGeminiApiService(api, cacheDir, 1024 * 1024, "model-a");
+
+        ApiRequest request = new ApiRequest("提示词", 0, 0);
+        assertFalse(cache.callApi(request).isSuccess());
+        assertFalse(cache.isCached(request));
+    }
+
+    @Test
+    void testTruncatedResponsesAreNotCached() throws Exception {
+        CountingApiService api = new CountingApiService();
+        api.autoComplete = false;
+        api.pending.complete(ApiResponse.success(200, "被截断的分析", "MAX_TOKENS", 100, 8192, 8292));
+        CachingGeminiApiService cache = new CachingGeminiApiService(api, cacheDir, 1024 * 1024, "model-a");
+
+        ApiRequest request = new ApiRequest("提示词", 0, 0);
+        assertTrue(cache.callApi(request).isTruncated());
+        assertFalse(cache.isCached(request));
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+        CountingApiService api = new CountingApiService();
+        CachingGeminiApiService probe = new CachingGeminiApiService(api, cacheDir, Long.MAX_VALUE, "model-a");
+        ApiRequest probeRequest = new ApiRequest("probe", 0, 0);
+        probe.callApi(probeRequest);
+        long entrySize = Files.size(cacheDir.resolve(probe.cacheKey(probeRequest) + ".gz"));
+        Files.delete(cacheDir.resolve(probe.cacheKey(probeRequest) + ".gz"));
+
+        // 上限只能容纳两个条目
+        CachingGeminiApiService cache = new CachingGeminiApiService(api, cacheDir, entrySize * 2 + entrySize / 2, "model-a");
+        ApiRequest a = new ApiRequest("aaaaa", 0, 0);
+        ApiRequest b = new ApiRequest("bbbbb", 0, 0);
+        ApiRequest c = new ApiRequest("ccccc", 0, 0);
+        cache.callApi(a);
+        cache.callApi(b);
+        cache.callApi(a);  // 访问a，b成为最久未使用
+        cache.callApi(c);
+
+        assertTrue(cache.isCached(a));
+        assertFalse(cache.isCached(b));
+        assertTrue(cache.isCached(c));
+    }
+}
@@ -3,6 +3,9 @@ package com.novel.service.impl;
 import com.google.gson.Gson;
 import com.novel.model.ApiRequest;
 import com.novel.model.ApiResponse;
+import com.novel.util.CircuitBreaker;
+import com.novel.util.Constants;
+import com.novel.util.RetryPolicy;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
@@ -10,9 +13,15 @@ import org.mockito.MockitoAnnotations;
 
 import java.net.http.HttpClient;
 import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class GeminiApiServiceImplTest {
@@ -20,8 +29,7 @@ class GeminiApiServiceImplTest {
     private HttpClient httpClient;
     @Mock
     private HttpResponse<String> httpResponse;
-    @Mock
-    private Gson gson;
+    private final Gson gson = new Gson();
 
     private GeminiApiServiceImpl apiService;
 
@@ -31,22 +39,54 @@ class GeminiApiServiceImplTest {
         apiService = new GeminiApiServiceImpl("test-api-key", httpClient, gson);
     }
 
+    /**
+     * 只包含一段文本的GenerateContentResponse
+     */
+    private static String envelope(String text) {
+        return "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + text + "\"}],\"role\":\"model\"},"
+                + "\"finishReason\":\"STOP\"}]}";
+    }
+
     @Test
     void testCallApiSuccess() throws Exception {
         // 准备测试数据
-        String responseBody = "{\"success\":true,\"content\":\"test content\"}";
+        String responseBody = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"test \"},{\"text\":\"content\"}],"
+                + "\"role\":\"model\"},\"finishReason\":\"MAX_TOKENS\",\"safetyRatings\":[{\"category\":\"x\"}]}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":120,\"candidatesTokenCount\":8192,\"totalTokenCount\":8312},"
+                + "\"modelVersion\":\"gemini-2.0-flash\"}";
         when(httpResponse.statusCode()).thenReturn(200);
         when(httpResponse.body()).thenReturn(responseBody);
-//        when(httpClient.send(any(), any())).thenReturn(httpResponse);
+        doReturn(CompletableFuture.completedFuture(httpResponse)).when(httpClient).sendAsync(any(), any());
 
         // 执行测试
         ApiRequest request = new ApiRequest("test prompt", 3, 1000);
         ApiResponse response = apiService.callApi(request);
 
-        // 验证结果
+        // 验证结果：只保留文本，结束原因和token数解析为字段
         assertTrue(response.isSuccess());
         assertEquals(200, response.getStatusCode());
-        assertEquals(responseBody, response.getContent());
+        assertEquals("test content", response.getContent());
+        assertEquals("MAX_TOKENS", response.getFinishReason());
+        assertTrue(response.isTruncated());
+        assertEquals(120, response.getPromptTokens());
+        assertEquals(8192, response.getCandidatesTokens());
+        assertEquals(8312, response.getTotalTokens());
+    }
+
+    @Test
+    void testMalformedSuccessBodyIsRetried() throws Exception {
+        when(httpResponse.statusCode()).thenReturn(200);
+        when(httpResponse.body())
+            .thenReturn("{\"candidates\":[{\"content\":")  // 响应体不完整
+            .thenReturn(envelope("success"));
+        doReturn(CompletableFuture.completedFuture(httpResponse)).when(httpClient).sendAsync(any(), any());
+
+        ApiResponse response = apiService.callApi(new ApiRequest("test prompt", 3, 10));
+
+        assertTrue(response.isSuccess());
+        assertEquals("success", response.getContent());
+        assertFalse(response.isTruncated());
+        verify(httpClient, times(2)).sendAsync(any(), any());
     }
 
     @Test
@@ -54,7 +94,7 @@ class GeminiApiServiceImplTest {
         // 准备测试数据
         when(httpResponse.statusCode()).thenReturn(400);
         when(httpResponse.body()).thenReturn("error message");
-//        when(httpClient.send(any(), any())).thenReturn(httpResponse);
+        doReturn(CompletableFuture.completedFuture(httpResponse)).when(httpClient).sendAsync(any(), any());
 
         // 执行测试
         ApiRequest request = new ApiRequest("test prompt", 0, 1000);
@@ -74,8 +114,8 @@ class GeminiApiServiceImplTest {
             .thenReturn(200); // 第二次成功
         when(httpResponse.body())
             .thenReturn("error")
-            .thenReturn("success");
-        when(httpClient.send(any(), any())).thenReturn(httpResponse);
+            .thenReturn(envelope("success"));
+        doReturn(CompletableFuture.completedFuture(httpResponse)).when(httpClient).sendAsync(any(), any());
 
         // 执行测试
         ApiRequest request = new ApiRequest("test prompt", 3, 100);
@@ -86,4 +126,77 @@ class GeminiApiServiceImplTest {
         assertEquals(200, response.getStatusCode());
         assertEquals("success", response.getContent());
     }
+
+    @Test
+    void testCallApiDoesNotRetryBadRequest() throws Exception {
+        // 准备测试数据
+        when(httpResponse.statusCode()).thenReturn(400);
+        when(httpResponse.body()).thenReturn("invalid argument");
+        doReturn(CompletableFuture.completedFuture(httpResponse)).when(httpClient).sendAsync(any(), any());
+
+        // 执行测试：允许重试3次，但400不是临时错误
+        ApiResponse response = apiService.callApi(new ApiRequest("test prompt", 3, 10));
+
+        // 验证结果
+        assertEquals(400, response.getStatusCode());
+        verify(httpClient, times(1)).sendAsync(any(), any());
+    }
+
+    @Test
+    void testCallApiAsyncWithRetry() throws Exception {
+        // 准备测试数据
+        when(httpResponse.statusCode())
+            .thenReturn(503)  // 第一次失败
+            .thenReturn(200); // 第二次成功
+        when(httpResponse.body())
+            .thenReturn("error")
+            .thenReturn(envelope("success"));
+        doReturn(CompletableFuture.completedFuture(httpResponse)).when(httpClient).sendAsync(any(), any());
+
+        // 执行测试
+        ApiRequest request = new ApiRequest("test prompt", 3, 100);
+        CompletableFuture<ApiResponse> future = apiService.callApiAsync(request);
+        ApiResponse response = future.get(5, TimeUnit.SECONDS);
+
+        // 验证结果
+        assertTrue(response.isSuccess());
+        assertEquals("success", response.getContent());
+    }
+
+    @Test
+    void testCallApiAsyncFailure() throws Exception {
+        // 准备测试数据
+        when(httpResponse.statusCode()).thenReturn(400);
+        when(httpResponse.body()).thenReturn("error message");
+        doReturn(CompletableFuture.completedFuture(httpResponse)).when(httpClient).sendAsync(any(), any());
+
+        // 执行测试
+        ApiResponse response = apiService.callApiAsync(new ApiRequest("test prompt", 1, 10)).get(5, TimeUnit.SECONDS);
+
+        // 验证结果：重试用尽后返回最后一次的状态码
+        assertFalse(response.isSuccess());
+        assertEquals(400, response.getStatusCode());
+    }
+
+    @Test
+    void testCircuitBreakerIsSharedAcrossKeys() throws Exception {
+        // 第一个密钥收到429后熔断器打开，共用熔断器的另一个密钥也要等它关闭才发出请求
+        when(httpResponse.statusCode())
+            .thenReturn(429)
+            .thenReturn(200);
+        when(httpResponse.body())
+            .thenReturn("rate limited")
+            .thenReturn(envelope("success"));
+        doReturn(CompletableFuture.completedFuture(httpResponse)).when(httpClient).sendAsync(any(), any());
+        CircuitBreaker shared = new CircuitBreaker(1, 300, System::currentTimeMillis);
+        GeminiApiServiceImpl first = new GeminiApiServiceImpl("key-1", Constants.GEMINI_BASE_URL, httpClient, gson,
+                Executors.newSingleThreadScheduledExecutor(), new RetryPolicy(), shared);
+        GeminiApiServiceImpl second = new GeminiApiServiceImpl("key-2", Constants.GEMINI_BASE_URL, httpClient, gson,
+                Executors.newSingleThreadScheduledExecutor(), new RetryPolicy(), shared);
+
+        assertEquals(429, first.callApi(new ApiRequest("test prompt", 0, 10)).getStatusCode());
+        long start = System.nanoTime();
+        assertTrue(second.callApi(new ApiRequest("test prompt", 0, 10)).isSuccess());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+    }
 }
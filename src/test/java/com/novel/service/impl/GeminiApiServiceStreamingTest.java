@@ -0,0 +1,130 @@
+package com.novel.service.impl;
+
+import com.google.gson.Gson;
+import com.novel.model.ApiRequest;
+import com.novel.model.ApiResponse;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 使用本地SSE服务验证streamGenerateContent的流式解析和增量写入
+ */
+class GeminiApiServiceStreamingTest {
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private final CountDownLatch releaseRest = new CountDownLatch(1);
+    private final AtomicReference<String> requestedPath = new AtomicReference<>();
+    // 还要在最后一个事件之前断开的连接数
+    private final AtomicInteger dropsLeft = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private GeminiApiServiceImpl apiService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v1beta/models/", exchange -> {
+            requestedPath.set(exchange.getRequestURI().toString());
+            requests.incrementAndGet();
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                // 第一个事件发出后等待测试确认已写入文件，再发出剩余事件
+                writeEvent(out, "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"第一段，\"}]}}]}");
+                if (dropsLeft.getAndDecrement() > 0) {
+                    // 正常结束响应体，但没有发出带finishReason的最后一个事件
+                    return;
+                }
+                releaseRest.await(5, TimeUnit.SECONDS);
+                writeEvent(out, "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"第二段\"},{\"text\":\"。\"}]}}]}");
+                out.write(": keep-alive\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+                writeEvent(out, "{\"candidates\":[{\"content\":{\"parts\":[]},\"finishReason\":\"STOP\"}],"
+                        + "\"usageMetadata\":{\"promptTokenCount\":10,\"candidatesTokenCount\":6,\"totalTokenCount\":16}}");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta";
+        apiService = new GeminiApiServiceImpl("test-api-key", baseUrl, HttpClient.newHttpClient(), new Gson(),
+                Executors.newSingleThreadScheduledExecutor());
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseRest.countDown();
+        server.stop(0);
+    }
+
+    private static void writeEvent(OutputStream out, String json) throws IOException {
+        out.write(("data: " + json + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    @Test
+    void testStreamedTextIsWrittenIncrementally() throws Exception {
+        Path output = dir.resolve("001_analysis.txt");
+        CompletableFuture<ApiResponse> future = apiService.callApiAsync(new ApiRequest("提示词", 0, 0, output));
+
+        // 响应还没有结束时，第一段文本已经出现在文件中
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!(Files.exists(output) && Files.readString(output).equals("第一段，"))) {
+            assertTrue(System.nanoTime() < deadline, "第一段文本没有及时写入文件");
+            Thread.sleep(10);
+        }
+        assertFalse(future.isDone());
+        releaseRest.countDown();
+
+        ApiResponse response = future.get(5, TimeUnit.SECONDS);
+        assertTrue(response.isSuccess());
+        // 文本只写入文件，响应中不再保留一份
+        assertNull(response.getContent());
+        assertEquals("第一段，第二段。", Files.readString(output));
+        assertEquals("STOP", response.getFinishReason());
+        assertEquals(10, response.getPromptTokens());
+        assertEquals(6, response.getCandidatesTokens());
+        assertTrue(requestedPath.get().contains(":streamGenerateContent?alt=sse&key=test-api-key"));
+    }
+
+    @Test
+    void testStreamClosedBeforeFinalEventIsRetried() throws Exception {
+        dropsLeft.set(1);
+        releaseRest.countDown();
+        Path output = dir.resolve("002_analysis.txt");
+
+        // 第一次连接只收到部分文本就结束，不能当作成功，重试后得到完整的文本
+        ApiResponse response = apiService.callApiAsync(new ApiRequest("提示词", 1, 0, output)).get(5, TimeUnit.SECONDS);
+        assertTrue(response.isSuccess());
+        assertEquals(2, requests.get());
+        assertEquals("STOP", response.getFinishReason());
+        assertEquals("第一段，第二段。", Files.readString(output));
+
+        // 不允许重试时返回错误，而不是把部分文本当作结果
+        dropsLeft.set(1);
+        ApiResponse failed = apiService.callApiAsync(new ApiRequest("提示词", 0, 0, output)).get(5, TimeUnit.SECONDS);
+        assertFalse(failed.isSuccess());
+        assertEquals(0, failed.getStatusCode());
+    }
+}
@@ -0,0 +1,168 @@
+package com.novel.service.impl;
+
+import com.novel.metrics.PipelineMetrics;
+import com.novel.model.ApiRequest;
+import com.novel.model.ApiResponse;
+import com.novel.service.GeminiApiService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgingGeminiApiServiceTest {
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private final PipelineMetrics metrics = new PipelineMetrics(System::nanoTime);
+    private final List<ApiRequest> requests = new CopyOnWriteArrayList<>();
+    private final List<CompletableFuture<ApiResponse>> calls = new CopyOnWriteArrayList<>();
+    // 为true时假服务立即成功，用来积累延迟样本
+    private volatile boolean fast = true;
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 先用立即成功的调用积累5个样本，之后的调用由测试手动完成
+     */
+    private HedgingGeminiApiService warmedUp(double budgetRatio) {
+        HedgingGeminiApiService service = new HedgingGeminiApiService(new GeminiApiService() {
+            @Override
+            public ApiResponse callApi(ApiRequest request) {
+                return callApiAsync(request).join();
+            }
+
+            @Override
+            public CompletableFuture<ApiResponse> callApiAsync(ApiRequest request) {
+                if (fast) {
+                    return CompletableFuture.completedFuture(ApiResponse.success(200, "fast"));
+                }
+                CompletableFuture<ApiResponse> call = new CompletableFuture<>();
+                requests.add(request);
+                calls.add(call);
+                return call;
+            }
+
+            @Override
+            public int countTokens(String text) {
+                return 0;
+            }
+        }, scheduler, 0.5, budgetRatio, 5, System::nanoTime, metrics);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("fast", service.callApiAsync(new ApiRequest("prompt", 0, 0)).join().getContent());
+        }
+        fast = false;
+        return service;
+    }
+
+    private void awaitCalls(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (calls.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, calls.size());
+    }
+
+    @Test
+    void testSlowCallIsHedgedAndLoserCancelled() throws Exception {
+        HedgingGeminiApiService service = warmedUp(0.5);
+        assertTrue(service.hedgeDelayNanos() >= 0);
+
+        CompletableFuture<ApiResponse> result = service.callApiAsync(new ApiRequest("slow", 0, 0));
+        awaitCalls(2);
+        assertSame(requests.get(0).getBody(), requests.get(1).getBody());
+        assertFalse(result.isDone());
+
+        calls.get(1).complete(ApiResponse.success(200, "hedge"));
+        assertEquals("hedge", result.get(5, TimeUnit.SECONDS).getContent());
+        assertTrue(calls.get(0).isCancelled());
+        assertTrue(metrics.toPrometheus().contains("novel_api_hedges_total{outcome=\"won\"} 1"));
+
+        // 原请求先成功时取消对冲请求
+        CompletableFuture<ApiResponse> second = service.callApiAsync(new ApiRequest("slow", 0, 0));
+        awaitCalls(4);
+        calls.get(2).complete(ApiResponse.success(200, "primary"));
+        assertEquals("primary", second.get(5, TimeUnit.SECONDS).getContent());
+        assertTrue(calls.get(3).isCancelled());
+        assertTrue(metrics.toPrometheus().contains("novel_api_hedges_total{outcome=\"lost\"} 1"));
+    }
+
+    @Test
+    void testHedgesLimitedByBudget() throws Exception {
+        // 6个请求积累1.2个额度，只够对冲一次
+        HedgingGeminiApiService service = warmedUp(0.2);
+        CompletableFuture<ApiResponse> first = service.callApiAsync(new ApiRequest("slow", 0, 0));
+        awaitCalls(2);
+
+        CompletableFuture<ApiResponse> second = service.callApiAsync(new ApiRequest("slow", 0, 0));
+        awaitCalls(3);
+        Thread.sleep(100);
+        assertEquals(3, calls.size());
+        assertTrue(metrics.toPrometheus().contains("novel_api_hedges_total{outcome=\"skipped\"} 1"));
+
+        // 两份都失败时返回最后一个失败的结果
+        calls.get(0).complete(ApiResponse.error(503, "unavailable"));
+        assertFalse(first.isDone());
+        calls.get(1).complete(ApiResponse.error(500, "internal"));
+        assertEquals(500, first.get(5, TimeUnit.SECONDS).getStatusCode());
+
+        calls.get(2).complete(ApiResponse.success(200, "primary"));
+        assertEquals("primary", second.get(5, TimeUnit.SECONDS).getContent());
+    }
+
+    @Test
+    void testStreamingAttemptsWriteSeparateFilesAndWinnerIsPromoted() throws Exception {
+        HedgingGeminiApiService service = warmedUp(0.5);
+        Path output = tempDir.resolve("batch.txt");
+        CompletableFuture<ApiResponse> result = service.callApiAsync(new ApiRequest("slow", 0, 0, output));
+        awaitCalls(2);
+
+        // 两份请求各自写入自己的文件，都不直接写输出文件
+        Path primaryOutput = requests.get(0).getStreamOutput();
+        Path hedgeOutput = requests.get(1).getStreamOutput();
+        assertNotEquals(output, primaryOutput);
+        assertNotEquals(output, hedgeOutput);
+        assertNotEquals(primaryOutput, hedgeOutput);
+        Files.write(primaryOutput, "partial".getBytes(StandardCharsets.UTF_8));
+        Files.write(hedgeOutput, "complete".getBytes(StandardCharsets.UTF_8));
+
+        // 结果完成时输出文件已经是胜出一份的内容
+        CompletableFuture<String> seenOnCompletion = result.thenApply(response -> {
+            try {
+                return Files.readString(output);
+            } catch (Exception e) {
+                return e.toString();
+            }
+        });
+        calls.get(1).complete(ApiResponse.success(200, null));
+        assertEquals("complete", seenOnCompletion.get(5, TimeUnit.SECONDS));
+        assertFalse(Files.exists(hedgeOutput));
+        assertFalse(Files.exists(primaryOutput));
+
+        // 被取消的原请求还在写入时只影响它自己的文件
+        Files.write(primaryOutput, "late write".getBytes(StandardCharsets.UTF_8));
+        assertEquals("complete", Files.readString(output));
+
+        // 原请求胜出时同样移动它自己的文件
+        CompletableFuture<ApiResponse> second = service.callApiAsync(new ApiRequest("slow", 0, 0, output));
+        awaitCalls(4);
+        Files.write(requests.get(2).getStreamOutput(), "primary".getBytes(StandardCharsets.UTF_8));
+        calls.get(2).complete(ApiResponse.success(200, null));
+        second.get(5, TimeUnit.SECONDS);
+        assertEquals("primary", Files.readString(output));
+    }
+}
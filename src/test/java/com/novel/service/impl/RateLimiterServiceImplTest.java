@@ -0,0 +1,195 @@
+package com.novel.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 使用虚拟时钟验证限流器：没有突发，稳态速率精确
+ */
+class RateLimiterServiceImplTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * 虚拟时钟，由测试控制时间推进
+     */
+    private static class VirtualClock implements LongSupplier {
+        private long now;
+
+        @Override
+        public long getAsLong() {
+            return now;
+        }
+
+        void set(long nanos) {
+            now = nanos;
+        }
+    }
+
+    @Test
+    void testSimultaneousRequestsAreEvenlySpaced() {
+        // 准备测试数据：100个请求同时到达
+        VirtualClock clock = new VirtualClock();
+        RateLimiterServiceImpl limiter = new RateLimiterServiceImpl(15, 1_000_000, null, clock);
+
+        // 执行测试
+        List<Long> grants = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            grants.add(limiter.reserve(0));
+        }
+
+        // 验证结果：每4秒放行一个，任意一分钟内不超过15个
+        for (int i = 0; i < grants.size(); i++) {
+            assertEquals(i * 4 * SECOND, grants.get(i));
+        }
+        assertTrue(maxInAnyWindow(grants, MINUTE) <= 15);
+    }
+
+    @Test
+    void testNoBurstAfterIdle() {
+        VirtualClock clock = new VirtualClock();
+        RateLimiterServiceImpl limiter = new RateLimiterServiceImpl(15, 1_000_000, null, clock);
+        limiter.reserve(0);
+
+        // 空闲10分钟后同时到达3个请求，不会一起放行
+        clock.set(10 * MINUTE);
+        assertEquals(10 * MINUTE, limiter.reserve(0));
+        assertEquals(10 * MINUTE + 4 * SECOND, limiter.reserve(0));
+        assertEquals(10 * MINUTE + 8 * SECOND, limiter.reserve(0));
+    }
+
+    @Test
+    void testSteadyStateRateUnderRandomOverload() {
+        // 准备测试数据：10分钟内随机到达600个请求，远超每分钟15次
+        VirtualClock clock = new VirtualClock();
+        RateLimiterServiceImpl limiter = new RateLimiterServiceImpl(15, 1_000_000, null, clock);
+        Random random = new Random(42);
+        long[] arrivals = new long[600];
+        for (int i = 0; i < arrivals.length; i++) {
+            arrivals[i] = (long) (random.nextDouble() * 10 * MINUTE);
+        }
+        Arrays.sort(arrivals);
+
+        // 执行测试
+        List<Long> grants = new ArrayList<>();
+        for (long arrival : arrivals) {
+            clock.set(arrival);
+            long grantAt = limiter.reserve(0);
+            assertTrue(grantAt >= arrival);
+            grants.add(grantAt);
+        }
+
+        // 验证结果：相邻放行间隔不小于4秒，任意一分钟内不超过15个，总耗时恰好为 请求数×4秒
+        for (int i = 1; i < grants.size(); i++) {
+            assertTrue(grants.get(i) - grants.get(i - 1) >= 4 * SECOND);
+        }
+        assertEquals(15, maxInAnyWindow(grants, MINUTE));
+        assertEquals(arrivals[0] + 599 * 4 * SECOND, grants.get(599));
+    }
+
+    @Test
+    void testTokensPerMinuteLimit() {
+        // 准备测试数据：每个请求10万token，每分钟100万token，请求数限制足够宽松
+        VirtualClock clock = new VirtualClock();
+        RateLimiterServiceImpl limiter = new RateLimiterServiceImpl(1000, 1_000_000, null, clock);
+
+        // 执行测试
+        List<Long> grants = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            grants.add(limiter.reserve(100_000));
+        }
+
+        // 验证结果：每6秒放行一个，任意一分钟内恰好100万token
+        for (int i = 0; i < grants.size(); i++) {
+            assertEquals(i * 6 * SECOND, grants.get(i));
+        }
+        assertEquals(10, maxInAnyWindow(grants, MINUTE));
+    }
+
+    @Test
+    void testMixedRequestAndTokenLimits() {
+        VirtualClock clock = new VirtualClock();
+        RateLimiterServiceImpl limiter = new RateLimiterServiceImpl(15, 1_000_000, null, clock);
+
+        // 小请求受每分钟请求数限制（4秒），大请求受token限制（20万token需要12秒）
+        assertEquals(0, limiter.reserve(1_000));
+        assertEquals(4 * SECOND, limiter.reserve(200_000));
+        assertEquals(16 * SECOND, limiter.reserve(1_000));
+        assertEquals(20 * SECOND, limiter.reserve(1_000));
+    }
+
+    @Test
+    void testActualUsageCorrectsEstimate() {
+        VirtualClock clock = new VirtualClock();
+        RateLimiterServiceImpl limiter = new RateLimiterServiceImpl(1000, 1_000_000, null, clock);
+
+        // 估算10万token，实际20万：下一个请求推迟到12秒
+        assertEquals(0, limiter.reserve(100_000));
+        limiter.recordUsage(100_000, 200_000);
+        assertEquals(12 * SECOND, limiter.reserve(100_000));
+
+        // 实际只有5万：归还3秒；没有返回实际值时保持估算
+        limiter.recordUsage(100_000, 50_000);
+        assertEquals(15 * SECOND, limiter.reserve(100_000));
+        limiter.recordUsage(100_000, 0);
+        assertEquals(21 * SECOND, limiter.reserve(0));
+    }
+
+    @Test
+    void testAcquireAsyncDoesNotBlockCaller() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        RateLimiterServiceImpl limiter = new RateLimiterServiceImpl(600, 1_000_000, scheduler, System::nanoTime);
+        try {
+            // 执行测试：每分钟600次即每100ms一个
+            long start = System.nanoTime();
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(limiter.acquireAsync(0));
+            }
+            long submitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // 验证结果：提交不阻塞，最后一个约400ms后完成
+            assertTrue(submitMillis < 50, "acquireAsync阻塞了调用线程: " + submitMillis + "ms");
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(elapsedMillis >= 390, "放行过早: " + elapsedMillis + "ms");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void testShutdownLeavesSharedSchedulerRunning() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            // 调用方传入的调度器可能还被密钥池和对冲使用，限流器关闭时不能关闭它
+            new RateLimiterServiceImpl(600, 1_000_000, scheduler, System::nanoTime).shutdown();
+            assertFalse(scheduler.isShutdown());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static int maxInAnyWindow(List<Long> grants, long window) {
+        int max = 0;
+        int left = 0;
+        for (int right = 0; right < grants.size(); right++) {
+            while (grants.get(right) - grants.get(left) >= window) {
+                left++;
+            }
+            max = Math.max(max, right - left + 1);
+        }
+        return max;
+    }
+}
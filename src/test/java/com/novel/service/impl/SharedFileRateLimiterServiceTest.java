@@ -0,0 +1,92 @@
+package com.novel.service.impl;
+
+import com.novel.metrics.PipelineMetrics;
+import com.novel.service.DailyQuotaExceededException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 使用虚拟时钟验证共享状态文件：多个限流器共用一份配额，每日计数跨重启保留并在零点清零
+ */
+class SharedFileRateLimiterServiceTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final ZoneId ZONE = ZoneOffset.UTC;
+    // 2024-01-01 23:00 UTC
+    private static final long EVENING = LocalDateTime.of(2024, 1, 1, 23, 0).toEpochSecond(ZoneOffset.UTC) * SECOND;
+
+    @TempDir
+    Path dir;
+
+    // 墙上时钟，各进程的本地纳秒时钟在测试中都取同一个值
+    private final AtomicLong epoch = new AtomicLong(EVENING);
+
+    private SharedFileRateLimiterService open(int requestsPerDay) throws IOException {
+        return new SharedFileRateLimiterService(dir.resolve("key.quota"), 15, 1_000_000, requestsPerDay,
+                Executors.newSingleThreadScheduledExecutor(),
+                () -> epoch.get() - EVENING, epoch::get, ZONE, "test", new PipelineMetrics(System::nanoTime));
+    }
+
+    @Test
+    void testLimitersOnSameFileShareQuota() throws Exception {
+        SharedFileRateLimiterService first = open(0);
+        SharedFileRateLimiterService second = open(0);
+
+        // 两个限流器交替预约，合起来仍然每4秒一个
+        for (int i = 0; i < 10; i++) {
+            SharedFileRateLimiterService limiter = i % 2 == 0 ? first : second;
+            assertEquals(i * 4 * SECOND, limiter.reserve(0));
+        }
+        assertEquals(40 * SECOND, second.availableAt());
+
+        // token按共享的时间线计入：100万token/分钟时一个50万token的请求之后下一个请求推迟30秒
+        epoch.addAndGet(40 * SECOND);
+        assertEquals(40 * SECOND, first.reserve(500_000));
+        assertEquals(70 * SECOND, second.reserve(0));
+        assertEquals(12, first.getDailyCount());
+        first.shutdown();
+        second.shutdown();
+    }
+
+    @Test
+    void testDailyCountSurvivesRestartAndResetsAtMidnight() throws Exception {
+        SharedFileRateLimiterService limiter = open(3);
+        for (int i = 0; i < 3; i++) {
+            limiter.reserve(0);
+        }
+        limiter.shutdown();
+
+        // 重新打开后计数仍在，超过上限时预约失败，异步预约以失败的future返回
+        SharedFileRateLimiterService reopened = open(3);
+        assertEquals(3, reopened.getDailyCount());
+        assertThrows(DailyQuotaExceededException.class, () -> reopened.reserve(0));
+        CompletableFuture<Void> rejected = reopened.acquireAsync(0);
+        assertTrue(rejected.isCompletedExceptionally());
+
+        // 配额时区的零点之后清零
+        epoch.addAndGet(3600 * SECOND);
+        assertEquals(0, reopened.getDailyCount());
+        reopened.reserve(0);
+        assertEquals(1, reopened.getDailyCount());
+        reopened.shutdown();
+    }
+
+    @Test
+    void testStateFileNameDoesNotContainKey() {
+        Path file = SharedFileRateLimiterService.stateFile(dir, "secret-key");
+        assertFalse(file.getFileName().toString().contains("secret"));
+        assertEquals(file, SharedFileRateLimiterService.stateFile(dir, "secret-key"));
+        assertNotEquals(file, SharedFileRateLimiterService.stateFile(dir, "other-key"));
+    }
+}
@@ -0,0 +1,109 @@
+package com.novel.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTest {
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    void testRequestsBeyondLimitWaitForRelease() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 1, 8, clock::get);
+        CompletableFuture<Long> first = limiter.acquire();
+        CompletableFuture<Long> second = limiter.acquire();
+        CompletableFuture<Long> third = limiter.acquire();
+
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(1, limiter.getQueued());
+
+        limiter.release(first.join(), AdaptiveConcurrencyLimiter.Outcome.IGNORE);
+        assertTrue(third.isDone());
+        assertEquals(2, limiter.getInFlight());
+
+        // 排队期间取消的请求不占用名额，名额交给后面的请求
+        CompletableFuture<Long> cancelled = limiter.acquire();
+        CompletableFuture<Long> fourth = limiter.acquire();
+        cancelled.cancel(false);
+        limiter.release(second.join(), AdaptiveConcurrencyLimiter.Outcome.IGNORE);
+        assertTrue(fourth.isDone() && !fourth.isCompletedExceptionally());
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    void testAdditiveIncreaseWhileSaturated() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 1, 8, clock::get);
+
+        // 每轮用满上限，延迟稳定时上限逐步增加，直到最大值
+        int previous = limiter.getLimit();
+        for (int round = 0; round < 20; round++) {
+            runRound(limiter, limiter.getLimit(), LATENCY, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+            assertTrue(limiter.getLimit() >= previous);
+            previous = limiter.getLimit();
+        }
+        assertEquals(8, limiter.getLimit());
+        assertEquals(100.0, limiter.getRecentLatencyMs(), 1e-6);
+
+        // 上限没有用满时不再增加
+        AdaptiveConcurrencyLimiter idle = new AdaptiveConcurrencyLimiter("idle", 4, 1, 32, clock::get);
+        for (int round = 0; round < 10; round++) {
+            runRound(idle, 1, LATENCY, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+        }
+        assertEquals(4, idle.getLimit());
+    }
+
+    @Test
+    void testOverloadHalvesLimitOncePerCohort() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 16, 1, 32, clock::get);
+
+        // 同一批发出的16个请求都收到429，只降低一次
+        runRound(limiter, 16, LATENCY, AdaptiveConcurrencyLimiter.Outcome.OVERLOAD);
+        assertEquals(8, limiter.getLimit());
+
+        // 降低之后发出的请求再次过载，继续降低，直到下限
+        for (int round = 0; round < 5; round++) {
+            runRound(limiter, limiter.getLimit(), LATENCY, AdaptiveConcurrencyLimiter.Outcome.OVERLOAD);
+        }
+        assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    void testLatencySpikeReducesLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 10, 1, 10, clock::get);
+        for (int round = 0; round < 3; round++) {
+            runRound(limiter, 10, LATENCY, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+        }
+        assertEquals(10, limiter.getLimit());
+
+        runRound(limiter, 10, 5 * LATENCY, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+        assertEquals(9, limiter.getLimit());
+        assertTrue(limiter.getRecentLatencyMs() > limiter.getBaselineLatencyMs());
+    }
+
+    /**
+     * 同时发出count个请求，经过latency后全部以outcome完成
+     */
+    private void runRound(AdaptiveConcurrencyLimiter limiter, int count, long latency,
+                          AdaptiveConcurrencyLimiter.Outcome outcome) {
+        List<CompletableFuture<Long>> tickets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tickets.add(limiter.acquire());
+        }
+        clock.addAndGet(latency);
+        for (CompletableFuture<Long> ticket : tickets) {
+            assertTrue(ticket.isDone());
+            limiter.release(ticket.join(), outcome);
+        }
+        clock.addAndGet(1);
+    }
+}
@@ -0,0 +1,83 @@
+package com.novel.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChapterNumberDecoderTest {
+
+    @Test
+    void testDecodeNumerals() {
+        assertEquals(123, ChapterNumberDecoder.decode("123"));
+        assertEquals(123, ChapterNumberDecoder.decode("一百二十三"));
+        assertEquals(123, ChapterNumberDecoder.decode("一二三"));
+        assertEquals(123, ChapterNumberDecoder.decode("1百23"));
+        assertEquals(10, ChapterNumberDecoder.decode("十"));
+        assertEquals(12, ChapterNumberDecoder.decode("十二"));
+        assertEquals(105, ChapterNumberDecoder.decode("一百零五"));
+        assertEquals(1020, ChapterNumberDecoder.decode("一千零二十"));
+        assertEquals(1828, ChapterNumberDecoder.decode("一千八百二十八"));
+        assertEquals(200, ChapterNumberDecoder.decode("两百"));
+        assertEquals(2000, ChapterNumberDecoder.decode("两千"));
+        // 省略末尾单位的口语写法
+        assertEquals(350, ChapterNumberDecoder.decode("三百五"));
+        assertEquals(1200, ChapterNumberDecoder.decode("一千二"));
+        assertEquals(2500, ChapterNumberDecoder.decode("两千五"));
+        assertEquals(305, ChapterNumberDecoder.decode("三百零五"));
+        assertEquals(15, ChapterNumberDecoder.decode("十五"));
+        assertEquals(12, ChapterNumberDecoder.decode("１２"));
+
+        // 单位顺序错误、重复、空串、非数字和溢出
+        assertEquals(ChapterNumberDecoder.NOT_FOUND, ChapterNumberDecoder.decode("十百"));
+        assertEquals(ChapterNumberDecoder.NOT_FOUND, ChapterNumberDecoder.decode("一百二百"));
+        assertEquals(ChapterNumberDecoder.NOT_FOUND, ChapterNumberDecoder.decode(""));
+        assertEquals(ChapterNumberDecoder.NOT_FOUND, ChapterNumberDecoder.decode("十a"));
+        assertEquals(ChapterNumberDecoder.NOT_FOUND, ChapterNumberDecoder.decode("12345678901"));
+    }
+
+    @Test
+    void testParseTitle() {
+        assertTitle(123, "第123章 标题");
+        assertTitle(123, "第一百二十三章 标题");
+        assertTitle(123, "　　正文 第一二三章　标题");
+        assertTitle(21, "正文第二十一章");
+        assertTitle(5, "\uFEFF第五章\r");
+        assertTitle(1828, "  第1千8百28章\t标题");
+        assertTitle(350, "第三百五章 标题");
+
+        assertTitle(ChapterNumberDecoder.NOT_FOUND, "他想起了第二十章里的事情。");
+        assertTitle(ChapterNumberDecoder.NOT_FOUND, "第二十章里的事情");
+        assertTitle(ChapterNumberDecoder.NOT_FOUND, "第章 标题");
+        assertTitle(ChapterNumberDecoder.NOT_FOUND, "第十百章 标题");
+        assertTitle(ChapterNumberDecoder.NOT_FOUND, "第十二");
+        assertTitle(ChapterNumberDecoder.NOT_FOUND, "正文");
+        assertTitle(ChapterNumberDecoder.NOT_FOUND, "");
+    }
+
+    @Test
+    void testParseTitleWithinByteRange() {
+        // 只解析行的范围，不越过行尾读到下一行
+        byte[] bytes = "前言\n第十二章 标题\n第三".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int lineStart = "前言\n".getBytes(StandardCharsets.UTF_8).length;
+        int lineEnd = lineStart + "第十二章 标题".getBytes(StandardCharsets.UTF_8).length;
+        assertEquals(12, ChapterNumberDecoder.parseTitle(buffer, lineStart, lineEnd));
+        assertEquals(ChapterNumberDecoder.NOT_FOUND, ChapterNumberDecoder.parseTitle(buffer, lineEnd + 1, bytes.length));
+        assertEquals(ChapterNumberDecoder.NOT_FOUND, ChapterNumberDecoder.parseTitle(buffer, 0, lineStart - 1));
+
+        // 范围在“章”后的全角空格中间结束：被截断的字符不是空格，也不读取范围之外的字节
+        byte[] cut = "第十二章　标题".getBytes(StandardCharsets.UTF_8);
+        int cutEnd = "第十二章".getBytes(StandardCharsets.UTF_8).length + 1;
+        assertEquals(ChapterNumberDecoder.NOT_FOUND, ChapterNumberDecoder.parseTitle(ByteBuffer.wrap(cut), 0, cutEnd));
+        assertEquals(12, ChapterNumberDecoder.parseTitle(ByteBuffer.wrap(cut), 0, cutEnd + 2));
+    }
+
+    private static void assertTitle(int expected, String line) {
+        assertEquals(expected, ChapterNumberDecoder.parseTitle(line), line);
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        assertEquals(expected, ChapterNumberDecoder.parseTitle(buffer, 0, buffer.limit()), line);
+    }
+}
@@ -0,0 +1,56 @@
+package com.novel.util;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestBodyBuilderTest {
+
+    private static String text(byte[] body) {
+        JsonObject json = JsonParser.parseString(new String(body, StandardCharsets.UTF_8)).getAsJsonObject();
+        return json.getAsJsonArray("contents").get(0).getAsJsonObject()
+                .getAsJsonArray("parts").get(0).getAsJsonObject()
+                .get("text").getAsString();
+    }
+
+    @Test
+    void testSpecialCharactersAreEscaped() {
+        String original = "引号\"反斜杠\\换行\n回车\r制表\t控制\u0001结束";
+        byte[] body = RequestBodyBuilder.of(original);
+
+        assertEquals(original, text(body));
+        JsonObject config = JsonParser.parseString(new String(body, StandardCharsets.UTF_8))
+                .getAsJsonObject().getAsJsonObject("generationConfig");
+        assertEquals(Constants.MAX_OUTPUT_TOKENS, config.get("maxOutputTokens").getAsInt());
+    }
+
+    @Test
+    void testFileBytesAreStreamedWithoutBom(@TempDir Path dir) throws Exception {
+        // 超过读取缓冲区大小，覆盖多字节字符跨缓冲区边界的情况
+        StringBuilder chapter = new StringBuilder();
+        for (int i = 0; i < 30000; i++) {
+            chapter.append("第").append(i).append("行：\"秦牧\"\n");
+        }
+        Path file = dir.resolve("chapter.txt");
+        byte[] bom = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        byte[] content = chapter.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] withBom = new byte[bom.length + content.length];
+        System.arraycopy(bom, 0, withBom, 0, bom.length);
+        System.arraycopy(content, 0, withBom, bom.length, content.length);
+        Files.write(file, withBom);
+
+        byte[] body = new RequestBodyBuilder(withBom.length)
+                .appendText("提示词\n\n")
+                .appendFile(file)
+                .build();
+
+        assertEquals("提示词\n\n" + chapter, text(body));
+    }
+}
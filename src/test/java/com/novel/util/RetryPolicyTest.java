@@ -0,0 +1,76 @@
+package com.novel.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpHeaders;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryPolicyTest {
+
+    @Test
+    void testRetryableStatusCodes() {
+        assertTrue(RetryPolicy.isRetryable(0));
+        assertTrue(RetryPolicy.isRetryable(429));
+        assertTrue(RetryPolicy.isRetryable(500));
+        assertTrue(RetryPolicy.isRetryable(503));
+        assertFalse(RetryPolicy.isRetryable(400));
+        assertFalse(RetryPolicy.isRetryable(403));
+        assertFalse(RetryPolicy.isRetryable(404));
+    }
+
+    @Test
+    void testExponentialBackoffWithFullJitter() {
+        // 随机数固定为最大值附近，等待时间等于退避上限
+        RetryPolicy policy = new RetryPolicy(60_000, () -> 0.999_999);
+        assertEquals(999, policy.delayMs(1, 1000, -1));
+        assertEquals(1999, policy.delayMs(2, 1000, -1));
+        assertEquals(3999, policy.delayMs(3, 1000, -1));
+        assertEquals(59_999, policy.delayMs(10, 1000, -1));
+
+        // 随机数为0时不等待，多个请求的重试时间被打散
+        assertEquals(0, new RetryPolicy(60_000, () -> 0).delayMs(3, 1000, -1));
+    }
+
+    @Test
+    void testServerHintIsHonored() {
+        RetryPolicy policy = new RetryPolicy(60_000, () -> 0);
+        assertEquals(37_000, policy.delayMs(1, 1000, 37_000));
+
+        HttpHeaders headers = HttpHeaders.of(Map.of("Retry-After", List.of("12")), (name, value) -> true);
+        assertEquals(12_000, RetryPolicy.retryHintMs(headers, null));
+
+        String body = "{\"error\":{\"code\":429,\"details\":[{\"@type\":\"type.googleapis.com/google.rpc.RetryInfo\","
+                + "\"retryDelay\": \"37.5s\"}]}}";
+        assertEquals(37_500, RetryPolicy.retryHintMs(null, body));
+        assertEquals(-1, RetryPolicy.retryHintMs(null, "{\"error\":{\"code\":500}}"));
+    }
+
+    @Test
+    void testCircuitBreakerPausesAfterConsecutiveSaturation() {
+        long[] now = {0};
+        CircuitBreaker breaker = new CircuitBreaker(3, 30_000, () -> now[0]);
+
+        breaker.recordSaturation(-1);
+        breaker.recordSaturation(-1);
+        assertEquals(0, breaker.pauseRemainingMs());
+
+        // 第三次饱和后暂停，服务端建议的时间更长时以建议为准
+        breaker.recordSaturation(45_000);
+        assertEquals(45_000, breaker.pauseRemainingMs());
+
+        // 暂停结束后试探请求再次饱和，立即重新暂停
+        now[0] = 45_000;
+        assertEquals(0, breaker.pauseRemainingMs());
+        breaker.recordSaturation(-1);
+        assertEquals(30_000, breaker.pauseRemainingMs());
+
+        // 成功一次后恢复，需要重新累计
+        now[0] = 75_000;
+        breaker.recordSuccess();
+        breaker.recordSaturation(-1);
+        assertEquals(0, breaker.pauseRemainingMs());
+    }
+}
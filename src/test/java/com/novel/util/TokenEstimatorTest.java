@@ -0,0 +1,41 @@
+package com.novel.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenEstimatorTest {
+
+    @Test
+    void testCjkAndAsciiWeights() {
+        assertEquals(4, TokenEstimator.estimate("秦牧大墟"));
+        assertEquals(2, TokenEstimator.estimate("abcdefgh"));
+        // 总数向上取整，不足4个的ASCII字符也计1个token
+        assertEquals(4, TokenEstimator.estimate("残老村a"));
+        assertEquals(0, TokenEstimator.estimate(""));
+    }
+
+    @Test
+    void testBytesAndTextAgree() {
+        // 包括两字节字符和代理对表示的四字节字符
+        String text = "第一章 秦牧\ncafé 😀 ok";
+        assertEquals(TokenEstimator.estimate(text), TokenEstimator.estimate(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testCharacterSplitAcrossChunksCountedOnce() {
+        byte[] utf8 = "牧神记abc".getBytes(StandardCharsets.UTF_8);
+        TokenEstimator estimator = new TokenEstimator();
+        // 在第一个汉字的字节中间切开
+        estimator.update(ByteBuffer.wrap(Arrays.copyOfRange(utf8, 0, 2)));
+        estimator.update(ByteBuffer.wrap(Arrays.copyOfRange(utf8, 2, utf8.length)));
+        assertEquals(TokenEstimator.estimate(utf8), estimator.getTokens());
+
+        estimator.reset();
+        assertEquals(0, estimator.getTokens());
+    }
+}